@@ -0,0 +1,136 @@
+package orgs.dao;
+
+import orgs.model.Chat;
+import orgs.utils.DatabaseConnection;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Cache of {@link ChatAccessContext}s, so creator/admin checks do not re-read the chat row and the
+ * caller's participant row on every administrative command.
+ * <p>
+ * A chat's context is loaded on first use and kept until {@link ChatDao} or {@link ChatParticipantDao}
+ * changes the chat, its participants or their roles, which drops it. At most
+ * {@code tuasl.chatAccess.maxChats} (default 10,000) contexts are held, least recently used evicted
+ * first. Like {@link ChatMembershipIndex}, only changes made through this process are seen.
+ */
+public final class ChatAccessCache {
+
+    private static final ChatAccessCache INSTANCE =
+            new ChatAccessCache(Integer.getInteger("tuasl.chatAccess.maxChats", 10_000));
+
+    private final int maxChats;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<Integer, ChatAccessContext> contexts;
+    // Bumped by every invalidation; a load that raced with one is not cached.
+    private final AtomicLong modifications = new AtomicLong();
+    private final ChatDao chatDao = new ChatDao();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+
+    ChatAccessCache(int maxChats) {
+        this.maxChats = maxChats;
+        // Access-ordered and trimmed on insert, so the least recently used chat goes first.
+        this.contexts = new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, ChatAccessContext> eldest) {
+                return size() > ChatAccessCache.this.maxChats;
+            }
+        };
+    }
+
+    public static ChatAccessCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * The chat's access context, or null if the chat does not exist.
+     */
+    public ChatAccessContext get(int chatId) throws SQLException {
+        lock.lock();
+        try {
+            ChatAccessContext cached = contexts.get(chatId);
+            if (cached != null) {
+                hits.incrementAndGet();
+                return cached;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        long modificationsBefore = modifications.get();
+        Optional<Chat> chat = chatDao.getChatById(chatId);
+        if (chat.isEmpty()) {
+            return null;
+        }
+        ChatAccessContext loaded = new ChatAccessContext(chat.get(), loadElevatedRoles(chatId));
+        loads.incrementAndGet();
+        lock.lock();
+        try {
+            if (modifications.get() == modificationsBefore) {
+                contexts.put(chatId, loaded);
+            }
+        } finally {
+            lock.unlock();
+        }
+        return loaded;
+    }
+
+    public void invalidate(int chatId) {
+        modifications.incrementAndGet();
+        lock.lock();
+        try {
+            contexts.remove(chatId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void invalidateAll() {
+        modifications.incrementAndGet();
+        lock.lock();
+        try {
+            contexts.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Map<Integer, String> loadElevatedRoles(int chatId) throws SQLException {
+        String sql = "SELECT user_id, role FROM chat_participants WHERE chat_id = ? AND role <> 'member'";
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, chatId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                Map<Integer, String> roles = new HashMap<>();
+                while (rs.next()) {
+                    roles.put(rs.getInt("user_id"), rs.getString("role"));
+                }
+                return roles;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            return "ChatAccessCache{chats=" + contexts.size() + "/" + maxChats
+                    + ", hits=" + hits.get()
+                    + ", loads=" + loads.get()
+                    + '}';
+        } finally {
+            lock.unlock();
+        }
+    }
+}
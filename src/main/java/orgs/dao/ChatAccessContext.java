@@ -0,0 +1,54 @@
+package orgs.dao;
+
+import orgs.model.Chat;
+
+import java.util.Map;
+
+/**
+ * What authorization checks need to know about a chat: its row and the roles above plain "member".
+ * Immutable; obtained from {@link ChatAccessCache}. Whether a user is a member at all is answered by
+ * {@link ChatParticipantDao#isUserParticipant(int, int)}.
+ */
+public final class ChatAccessContext {
+    private final Chat chat;
+    // user id -> role, for participants whose role is not "member" (creators and admins).
+    private final Map<Integer, String> elevatedRoles;
+
+    ChatAccessContext(Chat chat, Map<Integer, String> elevatedRoles) {
+        this.chat = chat;
+        this.elevatedRoles = Map.copyOf(elevatedRoles);
+    }
+
+    public int getChatId() {
+        return chat.getId();
+    }
+
+    public int getCreatorId() {
+        return chat.getCreatorId();
+    }
+
+    // A copy of the chat row, free to modify.
+    public Chat getChat() {
+        return copyOf(chat);
+    }
+
+    // The user's role if it is above "member", otherwise null.
+    public String getElevatedRole(int userId) {
+        return elevatedRoles.get(userId);
+    }
+
+    public boolean isCreator(int userId) {
+        return "creator".equalsIgnoreCase(elevatedRoles.get(userId));
+    }
+
+    public boolean isCreatorOrAdmin(int userId) {
+        String role = elevatedRoles.get(userId);
+        return "creator".equalsIgnoreCase(role) || "admin".equalsIgnoreCase(role);
+    }
+
+    static Chat copyOf(Chat chat) {
+        return new Chat(chat.getId(), chat.getChatType(), chat.getChatName(), chat.getChatPictureUrl(),
+                chat.getChatDescription(), chat.getPublicLink(), chat.getCreatorId(), chat.getCreatedAt(),
+                chat.getUpdatedAt());
+    }
+}
@@ -126,6 +126,9 @@ public class ChatDao {
             pstmt.setInt(5, chat.getId());
 
             int affectedRows = pstmt.executeUpdate();
+            if (affectedRows > 0) {
+                ChatAccessCache.getInstance().invalidate(chat.getId());
+            }
             return affectedRows > 0;
         } catch (SQLException e) {
             System.err.println("Error updating chat: " + e.getMessage());
@@ -142,6 +145,11 @@ public class ChatDao {
 
             pstmt.setInt(1, id);
             int affectedRows = pstmt.executeUpdate();
+            if (affectedRows > 0) {
+                ChatMembershipIndex.getInstance().invalidate(id);
+                RecentMessageCache.getInstance().invalidate(id);
+                ChatAccessCache.getInstance().invalidate(id);
+            }
             return affectedRows > 0;
         } catch (SQLException e) {
             System.err.println("Error deleting chat: " + e.getMessage());
@@ -0,0 +1,202 @@
+package orgs.dao;
+
+import orgs.utils.DatabaseConnection;
+import orgs.utils.IntHashSet;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * In-process index of chat membership: chat id to the set of its members' user ids.
+ * <p>
+ * A chat's members are loaded on first use and then kept current by {@link ChatParticipantDao} and
+ * {@link ChatDao} as participants join and leave, so authorization checks and message fan-out no longer
+ * query chat_participants. Member sets are copy-on-write: readers get an immutable snapshot without
+ * locking, writers replace it. The index holds at most {@code tuasl.membership.maxEntries} member ids in
+ * total, a chat without members counting as one, and evicts the least recently used chats beyond that; an
+ * evicted chat is simply reloaded.
+ * <p>
+ * Only changes made through this process are seen. Another process editing chat_participants directly
+ * must call {@link #invalidate(int)} or the change shows up after the chat is evicted.
+ */
+public final class ChatMembershipIndex {
+
+    private static final ChatMembershipIndex INSTANCE =
+            new ChatMembershipIndex(Long.getLong("tuasl.membership.maxEntries", 1_000_000));
+
+    private final long maxEntries;
+    private final ReentrantLock lock = new ReentrantLock();
+    // Access-ordered, so iteration starts at the least recently used chat.
+    private final LinkedHashMap<Integer, IntHashSet> members = new LinkedHashMap<>(256, 0.75f, true);
+    // Sum of weight() over the cached chats.
+    private long entries;
+    // Bumped by every change; a load that raced with one is not cached.
+    private final AtomicLong modifications = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    ChatMembershipIndex(long maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    public static ChatMembershipIndex getInstance() {
+        return INSTANCE;
+    }
+
+    public boolean isMember(int chatId, int userId) throws SQLException {
+        return getMembers(chatId).contains(userId);
+    }
+
+    /**
+     * The chat's member ids. The returned set is a shared snapshot and must not be modified.
+     */
+    public IntHashSet getMembers(int chatId) throws SQLException {
+        IntHashSet cached;
+        lock.lock();
+        try {
+            cached = members.get(chatId);
+        } finally {
+            lock.unlock();
+        }
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached;
+        }
+
+        long modificationsBefore = modifications.get();
+        IntHashSet loaded = load(chatId);
+        loads.incrementAndGet();
+        lock.lock();
+        try {
+            if (modifications.get() == modificationsBefore && !members.containsKey(chatId)) {
+                put(chatId, loaded);
+            }
+        } finally {
+            lock.unlock();
+        }
+        return loaded;
+    }
+
+    void memberAdded(int chatId, int userId) {
+        modifications.incrementAndGet();
+        lock.lock();
+        try {
+            IntHashSet current = members.get(chatId);
+            if (current != null && !current.contains(userId)) {
+                IntHashSet updated = new IntHashSet(current);
+                updated.add(userId);
+                put(chatId, updated);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void memberRemoved(int chatId, int userId) {
+        modifications.incrementAndGet();
+        lock.lock();
+        try {
+            IntHashSet current = members.get(chatId);
+            if (current != null && current.contains(userId)) {
+                IntHashSet updated = new IntHashSet(current);
+                updated.remove(userId);
+                put(chatId, updated);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void invalidate(int chatId) {
+        modifications.incrementAndGet();
+        lock.lock();
+        try {
+            IntHashSet removed = members.remove(chatId);
+            if (removed != null) {
+                entries -= weight(removed);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void invalidateAll() {
+        modifications.incrementAndGet();
+        lock.lock();
+        try {
+            members.clear();
+            entries = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Caller holds the lock.
+    private void put(int chatId, IntHashSet set) {
+        IntHashSet previous = members.put(chatId, set);
+        entries += weight(set) - (previous == null ? 0 : weight(previous));
+        Iterator<Map.Entry<Integer, IntHashSet>> eldest = members.entrySet().iterator();
+        while (entries > maxEntries && eldest.hasNext()) {
+            Map.Entry<Integer, IntHashSet> entry = eldest.next();
+            if (entry.getKey() == chatId) {
+                continue; // never evict what was just stored
+            }
+            entries -= weight(entry.getValue());
+            eldest.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    // An empty set still costs a map entry, and lookups of unknown chat ids must not grow the index for free.
+    private static long weight(IntHashSet set) {
+        return Math.max(1, set.size());
+    }
+
+    int cachedChats() {
+        lock.lock();
+        try {
+            return members.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private IntHashSet load(int chatId) throws SQLException {
+        String sql = "SELECT user_id FROM chat_participants WHERE chat_id = ?";
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, chatId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                IntHashSet set = new IntHashSet();
+                while (rs.next()) {
+                    set.add(rs.getInt(1));
+                }
+                return set;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            return "ChatMembershipIndex{chats=" + members.size()
+                    + ", entries=" + entries + "/" + maxEntries
+                    + ", hits=" + hits.get()
+                    + ", loads=" + loads.get()
+                    + ", evictions=" + evictions.get()
+                    + '}';
+        } finally {
+            lock.unlock();
+        }
+    }
+}
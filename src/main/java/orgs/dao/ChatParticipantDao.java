@@ -2,6 +2,7 @@ package orgs.dao;
 
 import orgs.model.ChatParticipant;
 import orgs.utils.DatabaseConnection;
+import orgs.utils.IntHashSet;
 
 import java.sql.*;
 import java.util.ArrayList;
@@ -10,6 +11,11 @@ import java.util.Optional;
 
 public class ChatParticipantDao {
 
+    // Membership lookups for authorization and fan-out; kept current by the writes below.
+    private final ChatMembershipIndex membershipIndex = ChatMembershipIndex.getInstance();
+    // Creator/admin roles for authorization; dropped for the chat on every participant or role change.
+    private final ChatAccessCache chatAccess = ChatAccessCache.getInstance();
+
     // Create (Add Chat Participants)
     public int createChatParticipant(ChatParticipant participant) {
         String sql = "INSERT INTO chat_participants (chat_id, user_id, role) VALUES (?, ?, ?)";
@@ -29,6 +35,8 @@ public class ChatParticipantDao {
                         participant.setId(generatedId);
                     }
                 }
+                membershipIndex.memberAdded(participant.getChatId(), participant.getUserId());
+                chatAccess.invalidate(participant.getChatId());
             }
         } catch (SQLException e) {
             System.err.println("Error creating chat participant: " + e.getMessage());
@@ -94,6 +102,9 @@ public class ChatParticipantDao {
             pstmt.setInt(3, userId);
 
             int affectedRows = pstmt.executeUpdate();
+            if (affectedRows > 0) {
+                chatAccess.invalidate(chatId);
+            }
             return affectedRows > 0;
         } catch (SQLException e) {
             System.err.println("Error updating participant role: " + e.getMessage());
@@ -120,12 +131,12 @@ public class ChatParticipantDao {
         }
     }
 
-    public boolean resetUnreadCountAndSetLastReadMessage(int chatId, int userId, int lastReadMessageId) {
+    public boolean resetUnreadCountAndSetLastReadMessage(int chatId, int userId, long lastReadMessageId) {
         String sql = "UPDATE chat_participants SET unread_count = 0, last_read_message_id = ? WHERE chat_id = ? AND user_id = ?";
         try (Connection conn = DatabaseConnection.getConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
 
-            pstmt.setInt(1, lastReadMessageId);
+            pstmt.setLong(1, lastReadMessageId);
             pstmt.setInt(2, chatId);
             pstmt.setInt(3, userId);
 
@@ -148,6 +159,10 @@ public class ChatParticipantDao {
             pstmt.setInt(1, chatId);
             pstmt.setInt(2, userId);
             int affectedRows = pstmt.executeUpdate();
+            if (affectedRows > 0) {
+                membershipIndex.memberRemoved(chatId, userId);
+                chatAccess.invalidate(chatId);
+            }
             return affectedRows > 0;
         } catch (SQLException e) {
             System.err.println("Error deleting chat participant: " + e.getMessage());
@@ -166,7 +181,7 @@ public class ChatParticipantDao {
         participant.setUnreadCount(rs.getInt("unread_count"));
 
         // Handle nullable last_read_message_id
-        int lastReadMessageId = rs.getInt("last_read_message_id");
+        long lastReadMessageId = rs.getLong("last_read_message_id");
         if (rs.wasNull()) {
             participant.setLastReadMessageId(null);
         } else {
@@ -209,20 +224,14 @@ public class ChatParticipantDao {
         return Optional.empty();
     }
 
-    // New method: isUserParticipant(chatId, currentUserId)
+    // Answered from the membership index; only the first lookup of a chat reaches the database.
     public boolean isUserParticipant(int chatId, int userId) throws SQLException {
-        String sql = "SELECT COUNT(*) FROM chat_participants WHERE chat_id = ? AND user_id = ?";
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setInt(1, chatId);
-            stmt.setInt(2, userId);
-            try (ResultSet rs = stmt.executeQuery()) {
-                if (rs.next()) {
-                    return rs.getInt(1) > 0;
-                }
-            }
-        }
-        return false;
+        return membershipIndex.isMember(chatId, userId);
+    }
+
+    // User ids of the chat's participants, for fan-out. Shared snapshot: do not modify.
+    public IntHashSet getChatMemberIds(int chatId) throws SQLException {
+        return membershipIndex.getMembers(chatId);
     }
 
     // New method: getChatParticipants(chatId)
@@ -280,22 +289,38 @@ public class ChatParticipantDao {
             stmt.setString(1, participant.getRole());
             stmt.setInt(2, participant.getUnreadCount());
             if (participant.getLastReadMessageId() != null) {
-                stmt.setInt(3, participant.getLastReadMessageId());
+                stmt.setLong(3, participant.getLastReadMessageId());
             } else {
-                stmt.setNull(3, Types.INTEGER);
+                stmt.setNull(3, Types.BIGINT);
             }
             stmt.setInt(4, participant.getId());
-            return stmt.executeUpdate() > 0;
+            boolean updated = stmt.executeUpdate() > 0;
+            if (updated) {
+                chatAccess.invalidate(participant.getChatId());
+            }
+            return updated;
         }
     }
 
     // New method: deleteChatParticipant(participantId) - based on participant entry ID
     public boolean deleteChatParticipant(int participantId) throws SQLException {
+        // The row is read first so the membership index knows which chat and user it removes.
+        Optional<ChatParticipant> participant = getChatParticipantById(participantId);
         String sql = "DELETE FROM chat_participants WHERE id = ?";
         try (Connection conn = DatabaseConnection.getConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
             stmt.setInt(1, participantId);
-            return stmt.executeUpdate() > 0;
+            boolean deleted = stmt.executeUpdate() > 0;
+            if (deleted) {
+                if (participant.isPresent()) {
+                    membershipIndex.memberRemoved(participant.get().getChatId(), participant.get().getUserId());
+                    chatAccess.invalidate(participant.get().getChatId());
+                } else {
+                    membershipIndex.invalidateAll();
+                    chatAccess.invalidateAll();
+                }
+            }
+            return deleted;
         }
     }
 
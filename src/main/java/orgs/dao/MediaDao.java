@@ -2,35 +2,38 @@ package orgs.dao;
 
 import orgs.model.Media;
 import orgs.utils.DatabaseConnection;
+import orgs.utils.FileStorageManager;
+import orgs.utils.SnowflakeIdGenerator;
 
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.locks.Lock;
 
 public class MediaDao {
 
     // Create (Add New Media)
-    public int createMedia(Media media) {
-        String sql = "INSERT INTO media (file_path_or_url, thumbnail_url, file_size, media_type, uploaded_by_user_id) VALUES (?, ?, ?, ?, ?)";
-        int generatedId = -1;
+    // The id comes from the SnowflakeIdGenerator and is set on the media once the row is stored.
+    public long createMedia(Media media) {
+        String sql = "INSERT INTO media (id, file_path_or_url, thumbnail_url, file_size, media_type, uploaded_by_user_id, content_hash) VALUES (?, ?, ?, ?, ?, ?, ?)";
+        long generatedId = -1;
+        long id = SnowflakeIdGenerator.getInstance().nextId();
         try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
 
-            pstmt.setString(1, media.getFilePathOrUrl());
-            pstmt.setString(2, media.getThumbnailUrl());
-            pstmt.setLong(3, media.getFileSize());
-            pstmt.setString(4, media.getMediaType());
-            pstmt.setInt(5, media.getUploadedByUserId());
+            pstmt.setLong(1, id);
+            pstmt.setString(2, media.getFilePathOrUrl());
+            pstmt.setString(3, media.getThumbnailUrl());
+            pstmt.setLong(4, media.getFileSize());
+            pstmt.setString(5, media.getMediaType());
+            pstmt.setInt(6, media.getUploadedByUserId());
+            pstmt.setString(7, media.getContentHash());
 
             int affectedRows = pstmt.executeUpdate();
             if (affectedRows > 0) {
-                try (ResultSet rs = pstmt.getGeneratedKeys()) {
-                    if (rs.next()) {
-                        generatedId = rs.getInt(1);
-                        media.setId(generatedId);
-                    }
-                }
+                generatedId = id;
+                media.setId(generatedId);
             }
         } catch (SQLException e) {
             System.err.println("Error creating media: " + e.getMessage());
@@ -40,12 +43,12 @@ public class MediaDao {
     }
 
     // Read (Retrieve Media Information)
-    public Optional<Media> getMediaById(int id) {
+    public Optional<Media> getMediaById(long id) {
         String sql = "SELECT * FROM media WHERE id = ?";
         try (Connection conn = DatabaseConnection.getConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
 
-            pstmt.setInt(1, id);
+            pstmt.setLong(1, id);
             try (ResultSet rs = pstmt.executeQuery()) {
                 if (rs.next()) {
                     return Optional.of(mapResultSetToMedia(rs));
@@ -78,13 +81,13 @@ public class MediaDao {
     }
 
     // Update (Modify Media Information)
-    public boolean updateMediaFilePath(int mediaId, String newFilePathOrUrl) {
+    public boolean updateMediaFilePath(long mediaId, String newFilePathOrUrl) {
         String sql = "UPDATE media SET file_path_or_url = ? WHERE id = ?";
         try (Connection conn = DatabaseConnection.getConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
 
             pstmt.setString(1, newFilePathOrUrl);
-            pstmt.setInt(2, mediaId);
+            pstmt.setLong(2, mediaId);
 
             int affectedRows = pstmt.executeUpdate();
             return affectedRows > 0;
@@ -95,13 +98,85 @@ public class MediaDao {
         }
     }
 
+    // Points a finished upload at the blob holding its content. Call with FileStorageManager.lockContent(contentHash) held.
+    public boolean updateMediaContent(long mediaId, String filePathOrUrl, String contentHash) {
+        String sql = "UPDATE media SET file_path_or_url = ?, content_hash = ? WHERE id = ?";
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setString(1, filePathOrUrl);
+            pstmt.setString(2, contentHash);
+            pstmt.setLong(3, mediaId);
+
+            int affectedRows = pstmt.executeUpdate();
+            return affectedRows > 0;
+        } catch (SQLException e) {
+            System.err.println("Error updating media content: " + e.getMessage());
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    // The references to a blob: media rows sharing its content hash.
+    public int countMediaByContentHash(String contentHash) throws SQLException {
+        String sql = "SELECT COUNT(*) FROM media WHERE content_hash = ?";
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setString(1, contentHash);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        }
+    }
+
+    // Whether the user already has this content: they uploaded it, or it is attached to a message in one
+    // of their chats. Only then may a send refer to it by hash instead of uploading it.
+    public boolean isContentVisibleTo(String contentHash, int userId) throws SQLException {
+        String sql = "SELECT 1 FROM media md WHERE md.content_hash = ? AND (md.uploaded_by_user_id = ? OR EXISTS (" +
+                "SELECT 1 FROM messages m JOIN chat_participants cp ON cp.chat_id = m.chat_id " +
+                "WHERE m.media_id = md.id AND m.is_deleted = FALSE AND cp.user_id = ?)) LIMIT 1";
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setString(1, contentHash);
+            pstmt.setInt(2, userId);
+            pstmt.setInt(3, userId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
     // Delete (Remove Media)
-    public boolean deleteMedia(int id) {
+    // A blob goes with the last media row referring to it.
+    public boolean deleteMedia(long id) {
+        String contentHash = getMediaById(id).map(Media::getContentHash).orElse(null);
+        if (contentHash == null) {
+            return deleteMediaRow(id);
+        }
+        Lock lock = FileStorageManager.lockContent(contentHash);
+        lock.lock();
+        try {
+            boolean deleted = deleteMediaRow(id);
+            if (deleted && countMediaByContentHash(contentHash) == 0) {
+                FileStorageManager.deleteBlob(contentHash);
+            }
+            return deleted;
+        } catch (SQLException e) {
+            System.err.println("Error counting references to blob " + contentHash + ": " + e.getMessage());
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean deleteMediaRow(long id) {
         String sql = "DELETE FROM media WHERE id = ?";
         try (Connection conn = DatabaseConnection.getConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
 
-            pstmt.setInt(1, id);
+            pstmt.setLong(1, id);
             int affectedRows = pstmt.executeUpdate();
             return affectedRows > 0;
         } catch (SQLException e) {
@@ -114,13 +189,14 @@ public class MediaDao {
     // Helper method to map ResultSet to Media object
     private Media mapResultSetToMedia(ResultSet rs) throws SQLException {
         Media media = new Media();
-        media.setId(rs.getInt("id"));
+        media.setId(rs.getLong("id"));
         media.setFilePathOrUrl(rs.getString("file_path_or_url"));
         media.setThumbnailUrl(rs.getString("thumbnail_url"));
         media.setFileSize(rs.getLong("file_size"));
         media.setMediaType(rs.getString("media_type"));
         media.setUploadedByUserId(rs.getInt("uploaded_by_user_id"));
         media.setUploadedAt(rs.getTimestamp("uploaded_at").toLocalDateTime());
+        media.setContentHash(rs.getString("content_hash"));
         return media;
     }
 
@@ -1,8 +1,10 @@
 package orgs.dao;
 
+import orgs.model.Media;
 import orgs.model.Message;
 import orgs.utils.DatabaseConnection;
 
+import java.io.IOException;
 import java.sql.*;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
@@ -12,32 +14,41 @@ import java.util.Optional;
 
 public class MessageDao {
 
-    // Create (Send a Message)
-    public int createMessage(Message message) {
-        String sql = "INSERT INTO messages (chat_id, sender_id, content, message_type, media_id, replied_to_message_id, forwarded_from_user_id, forwarded_from_chat_id) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
-        int generatedId = -1;
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+    private final ViewCountAggregator viewCounts = ViewCountAggregator.getInstance();
+    private final RecentMessageCache recentMessages = RecentMessageCache.getInstance();
+    private final MessageWriteBatcher messageWriter = MessageWriteBatcher.getInstance();
 
-            pstmt.setInt(1, message.getChatId());
-            pstmt.setInt(2, message.getSenderId());
-            pstmt.setString(3, message.getContent());
-            pstmt.setString(4, message.getMessageType());
-            pstmt.setObject(5, message.getMediaId(), Types.INTEGER); // Handle nullable Integer
-            pstmt.setObject(6, message.getRepliedToMessageId(), Types.INTEGER); // Handle nullable Integer
-            pstmt.setObject(7, message.getForwardedFromUserId(), Types.INTEGER); // Handle nullable Integer
-            pstmt.setObject(8, message.getForwardedFromChatId(), Types.INTEGER); // Handle nullable Integer
+    // Message columns plus the attached media row, so a page is read with its media in one query.
+    private static final String MESSAGE_WITH_MEDIA_COLUMNS = "m.id, m.chat_id, m.sender_id, m.content, m.message_type, m.sent_at, " +
+            "m.media_id, m.replied_to_message_id, m.forwarded_from_user_id, m.forwarded_from_chat_id, m.edited_at, " +
+            "m.is_deleted, m.view_count, md.file_path_or_url AS media_file_path_or_url, " +
+            "md.thumbnail_url AS media_thumbnail_url, md.file_size AS media_file_size, md.media_type AS media_media_type, " +
+            "md.uploaded_by_user_id AS media_uploaded_by_user_id, md.uploaded_at AS media_uploaded_at " +
+            "FROM messages m LEFT JOIN media md ON md.id = m.media_id ";
 
-            int affectedRows = pstmt.executeUpdate();
-            if (affectedRows > 0) {
-                try (ResultSet rs = pstmt.getGeneratedKeys()) {
-                    if (rs.next()) {
-                        generatedId = rs.getInt(1);
-                        message.setId(generatedId);
-                    }
+    // Create (Send a Message)
+    // Written to the MessageJournal when it is enabled, otherwise stored by the MessageWriteBatcher together
+    // with concurrent sends; either assigns the id. Returns the new id or -1.
+    public long createMessage(Message message) {
+        long generatedId = -1;
+        try {
+            MessageJournal journal = MessageJournal.getInstance();
+            if (journal != null) {
+                generatedId = journal.append(message);
+                // Not in MySQL yet; the journal drops the chat from the cache once it is.
+                if (message.getMediaId() == null) {
+                    recentMessages.messageAdded(message);
                 }
+                return generatedId;
             }
-        } catch (SQLException e) {
+            generatedId = messageWriter.insert(message);
+            if (message.getMediaId() != null) {
+                // The sender's Media lacks the stored row's fields; let the next read load it.
+                recentMessages.invalidate(message.getChatId());
+            } else {
+                recentMessages.messageAdded(message);
+            }
+        } catch (SQLException | IOException e) {
             System.err.println("Error creating message: " + e.getMessage());
             e.printStackTrace();
         }
@@ -75,17 +86,18 @@ public class MessageDao {
         return messages;
     }
 
-    public List<Message> getMessagesAfterId(int chatId, int lastMessageId) {
+    // Messages come back with their media attached.
+    public List<Message> getMessagesAfterId(int chatId, long lastMessageId) {
         List<Message> messages = new ArrayList<>();
-        String sql = "SELECT m.* FROM messages m WHERE m.chat_id = ? AND m.id > ? AND m.is_deleted = FALSE ORDER BY m.sent_at ASC ";
+        String sql = "SELECT " + MESSAGE_WITH_MEDIA_COLUMNS + "WHERE m.chat_id = ? AND m.id > ? AND m.is_deleted = FALSE ORDER BY m.id ASC ";
         try (Connection conn = DatabaseConnection.getConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
 
             pstmt.setInt(1, chatId);
-            pstmt.setInt(2, lastMessageId);
+            pstmt.setLong(2, lastMessageId);
             try (ResultSet rs = pstmt.executeQuery()) {
                 while (rs.next()) {
-                    messages.add(mapResultSetToMessage(rs));
+                    messages.add(mapResultSetToMessageWithMedia(rs));
                 }
             }
         } catch (SQLException e) {
@@ -141,14 +153,17 @@ public class MessageDao {
 
 
     // Update (Modify Message Information)
-    public boolean editMessage(int messageId, String newContent) {
+    public boolean editMessage(long messageId, String newContent) {
         String sql = "UPDATE messages SET content = ?, edited_at = ? WHERE id = ?";
         try (Connection conn = DatabaseConnection.getConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
             pstmt.setString(1, newContent);
             pstmt.setTimestamp(2, Timestamp.valueOf(LocalDateTime.now()));
-            pstmt.setInt(3, messageId);
+            pstmt.setLong(3, messageId);
             int affectedRows = pstmt.executeUpdate();
+            if (affectedRows > 0) {
+                recentMessages.messageChanged(messageId);
+            }
             return affectedRows > 0;
         } catch (SQLException e) {
             System.err.println("Error editing message: " + e.getMessage());
@@ -157,12 +172,15 @@ public class MessageDao {
         }
     }
 
-    public boolean softDeleteMessage(int messageId) {
+    public boolean softDeleteMessage(long messageId) {
         String sql = "UPDATE messages SET is_deleted = TRUE WHERE id = ?";
         try (Connection conn = DatabaseConnection.getConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setInt(1, messageId);
+            pstmt.setLong(1, messageId);
             int affectedRows = pstmt.executeUpdate();
+            if (affectedRows > 0) {
+                recentMessages.messageChanged(messageId);
+            }
             return affectedRows > 0;
         } catch (SQLException e) {
             System.err.println("Error soft deleting message: " + e.getMessage());
@@ -171,27 +189,33 @@ public class MessageDao {
         }
     }
 
-    public boolean incrementViewCount(int messageId) {
-        String sql = "UPDATE messages SET view_count = view_count + 1 WHERE id = ?";
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setInt(1, messageId);
-            int affectedRows = pstmt.executeUpdate();
-            return affectedRows > 0;
-        } catch (SQLException e) {
-            System.err.println("Error incrementing view count: " + e.getMessage());
-            e.printStackTrace();
-            return false;
+    // Buffered by the ViewCountAggregator and written in batches.
+    public boolean incrementViewCount(long messageId) {
+        viewCounts.record(messageId);
+        recentMessages.viewed(messageId);
+        return true;
+    }
+
+    // A page read by viewerId: each message in it that someone else sent gets a view.
+    public void recordViews(List<Message> messages, int viewerId) {
+        for (Message message : messages) {
+            if (message.getSenderId() != viewerId) {
+                viewCounts.record(message.getId());
+                recentMessages.viewed(message.getId());
+            }
         }
     }
 
     // Delete (Remove a Message) - Hard delete for soft-deleted messages
-    public boolean hardDeleteSoftDeletedMessage(int messageId) {
+    public boolean hardDeleteSoftDeletedMessage(long messageId) {
         String sql = "DELETE FROM messages WHERE id = ? AND is_deleted = TRUE";
         try (Connection conn = DatabaseConnection.getConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setInt(1, messageId);
+            pstmt.setLong(1, messageId);
             int affectedRows = pstmt.executeUpdate();
+            if (affectedRows > 0) {
+                recentMessages.messageChanged(messageId);
+            }
             return affectedRows > 0;
         } catch (SQLException e) {
             System.err.println("Error hard deleting soft-deleted message: " + e.getMessage());
@@ -203,7 +227,7 @@ public class MessageDao {
     // Helper method to map ResultSet to Message object
     private Message mapResultSetToMessage(ResultSet rs) throws SQLException {
         Message message = new Message();
-        message.setId(rs.getInt("id"));
+        message.setId(rs.getLong("id"));
         message.setChatId(rs.getInt("chat_id"));
         message.setSenderId(rs.getInt("sender_id"));
         message.setContent(rs.getString("content"));
@@ -211,11 +235,11 @@ public class MessageDao {
         message.setSentAt(rs.getTimestamp("sent_at").toLocalDateTime());
 
         // Handle nullable fields
-        int mediaId = rs.getInt("media_id");
+        long mediaId = rs.getLong("media_id");
         if (rs.wasNull()) message.setMediaId(null);
         else message.setMediaId(mediaId);
 
-        int repliedToMessageId = rs.getInt("replied_to_message_id");
+        long repliedToMessageId = rs.getLong("replied_to_message_id");
         if (rs.wasNull()) message.setRepliedToMessageId(null);
         else message.setRepliedToMessageId(repliedToMessageId);
 
@@ -231,7 +255,26 @@ public class MessageDao {
         message.setEditedAt(editedAtTimestamp != null ? editedAtTimestamp.toLocalDateTime() : null);
 
         message.setDeleted(rs.getBoolean("is_deleted"));
-        message.setViewCount(rs.getInt("view_count"));
+        // Views not yet flushed are added so readers see the count they would after the flush.
+        message.setViewCount(rs.getInt("view_count") + viewCounts.pending(message.getId()));
+        return message;
+    }
+
+    // For rows selected with MESSAGE_WITH_MEDIA_COLUMNS.
+    private Message mapResultSetToMessageWithMedia(ResultSet rs) throws SQLException {
+        Message message = mapResultSetToMessage(rs);
+        if (message.getMediaId() != null && rs.getString("media_file_path_or_url") != null) {
+            Media media = new Media();
+            media.setId(message.getMediaId());
+            media.setFilePathOrUrl(rs.getString("media_file_path_or_url"));
+            media.setThumbnailUrl(rs.getString("media_thumbnail_url"));
+            media.setFileSize(rs.getLong("media_file_size"));
+            media.setMediaType(rs.getString("media_media_type"));
+            media.setUploadedByUserId(rs.getInt("media_uploaded_by_user_id"));
+            Timestamp uploadedAt = rs.getTimestamp("media_uploaded_at");
+            media.setUploadedAt(uploadedAt != null ? uploadedAt.toLocalDateTime() : null);
+            message.setMedia(media);
+        }
         return message;
     }
 
@@ -268,10 +311,15 @@ public class MessageDao {
 //        }
 //    }
 
-    // Assuming you have this already
+    // A page of the chat, newest first, with media attached. The first page usually comes from the cache.
+    // Ordered by id like the cache and the keyset pages: sent_at ties at second precision and is set before
+    // the id is assigned, so the two orders can differ and pages would overlap at their boundary.
     public List<Message> getChatMessages(int chatId, int limit, int offset) throws SQLException {
+        if (offset == 0 && limit > 0 && limit <= recentMessages.getPerChat()) {
+            return getNewestChatMessages(chatId, limit);
+        }
         List<Message> messages = new ArrayList<>();
-        String sql = "SELECT id, chat_id, sender_id, content, message_type, sent_at, media_id, replied_to_message_id, forwarded_from_user_id, forwarded_from_chat_id, edited_at, is_deleted, view_count FROM messages WHERE chat_id = ? ORDER BY sent_at DESC LIMIT ? OFFSET ?";
+        String sql = "SELECT " + MESSAGE_WITH_MEDIA_COLUMNS + "WHERE m.chat_id = ? ORDER BY m.id DESC LIMIT ? OFFSET ?";
         try (Connection conn = DatabaseConnection.getConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
             stmt.setInt(1, chatId);
@@ -279,7 +327,65 @@ public class MessageDao {
             stmt.setInt(3, offset);
             try (ResultSet rs = stmt.executeQuery()) {
                 while (rs.next()) {
-                    messages.add(mapResultSetToMessage(rs));
+                    messages.add(mapResultSetToMessageWithMedia(rs));
+                }
+            }
+        }
+        return messages;
+    }
+
+    /*
+     * Keyset pages: instead of skipping OFFSET rows they seek straight to the cursor on the (chat_id, id)
+     * index, so a page deep in the history costs the same as the first and rows inserted meanwhile do not
+     * shift it. In InnoDB the index MySQL creates for the chat_id foreign key already ends in the
+     * primary key, i.e. is (chat_id, id); without that foreign key create it explicitly:
+     *   CREATE INDEX idx_messages_chat_id_id ON messages (chat_id, id);
+     * Ids grow with insertion order, so id order is send order.
+     */
+
+    // Up to limit messages older than beforeMessageId, newest first. Long.MAX_VALUE reads the newest page.
+    public List<Message> getChatMessagesBefore(int chatId, long beforeMessageId, int limit) throws SQLException {
+        if (beforeMessageId == Long.MAX_VALUE && limit > 0 && limit <= recentMessages.getPerChat()) {
+            return getNewestChatMessages(chatId, limit);
+        }
+        String sql = "SELECT " + MESSAGE_WITH_MEDIA_COLUMNS + "WHERE m.chat_id = ? AND m.id < ? ORDER BY m.id DESC LIMIT ?";
+        return getChatMessagesPage(sql, chatId, beforeMessageId, limit);
+    }
+
+    // Up to limit messages newer than afterMessageId, oldest first.
+    public List<Message> getChatMessagesAfter(int chatId, long afterMessageId, int limit) throws SQLException {
+        String sql = "SELECT " + MESSAGE_WITH_MEDIA_COLUMNS + "WHERE m.chat_id = ? AND m.id > ? ORDER BY m.id ASC LIMIT ?";
+        return getChatMessagesPage(sql, chatId, afterMessageId, limit);
+    }
+
+    // Served from the RecentMessageCache; a miss loads the chat's whole ring in one query and caches it.
+    private List<Message> getNewestChatMessages(int chatId, int limit) throws SQLException {
+        List<Message> cached = recentMessages.newest(chatId, limit);
+        if (cached != null) {
+            return cached;
+        }
+        long stamp = recentMessages.stamp();
+        int perChat = recentMessages.getPerChat();
+        String sql = "SELECT " + MESSAGE_WITH_MEDIA_COLUMNS + "WHERE m.chat_id = ? AND m.id < ? ORDER BY m.id DESC LIMIT ?";
+        List<Message> newest = getChatMessagesPage(sql, chatId, Long.MAX_VALUE, perChat + 1);
+        boolean complete = newest.size() <= perChat;
+        if (!complete) {
+            newest = newest.subList(0, perChat);
+        }
+        recentMessages.put(chatId, newest, complete, stamp);
+        return new ArrayList<>(newest.subList(0, Math.min(limit, newest.size())));
+    }
+
+    private List<Message> getChatMessagesPage(String sql, int chatId, long cursor, int limit) throws SQLException {
+        List<Message> messages = new ArrayList<>();
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, chatId);
+            stmt.setLong(2, cursor);
+            stmt.setInt(3, limit);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    messages.add(mapResultSetToMessageWithMedia(rs));
                 }
             }
         }
@@ -287,11 +393,11 @@ public class MessageDao {
     }
 
     // New method: getMessageById(messageId)
-    public Optional<Message> getMessageById(int id) throws SQLException {
+    public Optional<Message> getMessageById(long id) throws SQLException {
         String sql = "SELECT id, chat_id, sender_id, content, message_type, sent_at, media_id, replied_to_message_id, forwarded_from_user_id, forwarded_from_chat_id, edited_at, is_deleted, view_count FROM messages WHERE id = ?";
         try (Connection conn = DatabaseConnection.getConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setInt(1, id);
+            stmt.setLong(1, id);
             try (ResultSet rs = stmt.executeQuery()) {
                 if (rs.next()) {
                     return Optional.of(mapResultSetToMessage(rs));
@@ -302,27 +408,36 @@ public class MessageDao {
     }
 
     // New method: updateMessage(existingMessage)
+    // view_count is left alone: it is owned by the ViewCountAggregator, and writing back a count read
+    // earlier would overwrite views recorded since.
     public boolean updateMessage(Message message) throws SQLException {
-        String sql = "UPDATE messages SET content = ?, edited_at = ?, is_deleted = ?, view_count = ? WHERE id = ?";
+        String sql = "UPDATE messages SET content = ?, edited_at = ?, is_deleted = ? WHERE id = ?";
         try (Connection conn = DatabaseConnection.getConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
             stmt.setString(1, message.getContent());
             stmt.setTimestamp(2, message.getEditedAt() != null ? Timestamp.valueOf(message.getEditedAt()) : null);
             stmt.setBoolean(3, message.isDeleted());
-            stmt.setInt(4, message.getViewCount());
-            stmt.setInt(5, message.getId());
-            return stmt.executeUpdate() > 0;
+            stmt.setLong(4, message.getId());
+            boolean changed = stmt.executeUpdate() > 0;
+            if (changed) {
+                recentMessages.messageChanged(message.getId());
+            }
+            return changed;
         }
     }
 
     // New method: deleteMessage(messageId) - performs soft delete
-    public boolean deleteMessage(int id) throws SQLException {
+    public boolean deleteMessage(long id) throws SQLException {
         String sql = "UPDATE messages SET is_deleted = TRUE, content = 'This message was deleted.', edited_at = CURRENT_TIMESTAMP WHERE id = ?";
         // Or for hard delete: "DELETE FROM messages WHERE id = ?"
         try (Connection conn = DatabaseConnection.getConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setInt(1, id);
-            return stmt.executeUpdate() > 0;
+            stmt.setLong(1, id);
+            boolean changed = stmt.executeUpdate() > 0;
+            if (changed) {
+                recentMessages.messageChanged(id);
+            }
+            return changed;
         }
     }
 
@@ -0,0 +1,125 @@
+package orgs.dao;
+
+import orgs.model.Message;
+import orgs.utils.DatabaseConnection;
+import orgs.utils.SnowflakeIdGenerator;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throughput and latency of message inserts: one autocommit INSERT per message, as createMessage used to
+ * do, against {@link MessageWriteBatcher} at several batch windows. Needs the configured database and a
+ * scratch chat; the rows it inserts are deleted at the end:
+ * <pre>
+ *   java orgs.dao.MessageInsertBenchmark chatId senderId [senders] [messagesPerSender]
+ * </pre>
+ */
+public class MessageInsertBenchmark {
+
+    private static final long[] WINDOWS_MICROS = {0, 250, 1_000, 5_000};
+
+    public static void main(String[] args) throws Exception {
+        int chatId = Integer.parseInt(args[0]);
+        int senderId = Integer.parseInt(args[1]);
+        int senders = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+        int perSender = args.length > 3 ? Integer.parseInt(args[3]) : 200;
+
+        AtomicLong firstId = new AtomicLong(Long.MAX_VALUE);
+        try {
+            run("autocommit per message", senders, perSender, () -> {
+                long id = insertDirect(message(chatId, senderId));
+                firstId.accumulateAndGet(id, Math::min);
+            });
+            for (long window : WINDOWS_MICROS) {
+                MessageWriteBatcher batcher = new MessageWriteBatcher(window, 64);
+                run("batched, window " + window + " us", senders, perSender, () -> {
+                    long id = batcher.insert(message(chatId, senderId));
+                    firstId.accumulateAndGet(id, Math::min);
+                });
+                batcher.close();
+                System.out.println("    " + batcher);
+            }
+        } finally {
+            deleteInserted(chatId, firstId.get());
+            DatabaseConnection.closeConnection();
+        }
+    }
+
+    private static void run(String name, int senders, int perSender, Insert insert) throws Exception {
+        long[] latencies = new long[senders * perSender];
+        long started = System.nanoTime();
+        try (ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+            Future<?>[] futures = new Future<?>[senders];
+            for (int s = 0; s < senders; s++) {
+                int offset = s * perSender;
+                futures[s] = pool.submit(() -> {
+                    for (int i = 0; i < perSender; i++) {
+                        long t = System.nanoTime();
+                        insert.run();
+                        latencies[offset + i] = System.nanoTime() - t;
+                    }
+                    return null;
+                });
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+        long elapsed = System.nanoTime() - started;
+        Arrays.sort(latencies);
+        System.out.printf("%-26s %9.0f msg/s   p50 %7.2f ms   p99 %7.2f ms   max %7.2f ms%n",
+                name, latencies.length / (elapsed / 1e9),
+                latencies[latencies.length / 2] / 1e6,
+                latencies[(int) (latencies.length * 0.99)] / 1e6,
+                latencies[latencies.length - 1] / 1e6);
+    }
+
+    private static Message message(int chatId, int senderId) {
+        Message message = new Message();
+        message.setChatId(chatId);
+        message.setSenderId(senderId);
+        message.setContent("benchmark message");
+        message.setMessageType("text");
+        return message;
+    }
+
+    private static long insertDirect(Message message) throws SQLException {
+        String sql = "INSERT INTO messages (id, chat_id, sender_id, content, message_type) VALUES (?, ?, ?, ?, ?)";
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            message.setId(SnowflakeIdGenerator.getInstance().nextId());
+            pstmt.setLong(1, message.getId());
+            pstmt.setInt(2, message.getChatId());
+            pstmt.setInt(3, message.getSenderId());
+            pstmt.setString(4, message.getContent());
+            pstmt.setString(5, message.getMessageType());
+            pstmt.executeUpdate();
+            return message.getId();
+        }
+    }
+
+    private static void deleteInserted(int chatId, long firstId) throws SQLException {
+        if (firstId == Long.MAX_VALUE) {
+            return;
+        }
+        String sql = "DELETE FROM messages WHERE chat_id = ? AND id >= ? AND content = 'benchmark message'";
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setInt(1, chatId);
+            pstmt.setLong(2, firstId);
+            System.out.println("Deleted " + pstmt.executeUpdate() + " benchmark rows.");
+        }
+    }
+
+    @FunctionalInterface
+    private interface Insert {
+        void run() throws Exception;
+    }
+}
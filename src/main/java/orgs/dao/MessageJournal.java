@@ -0,0 +1,691 @@
+package orgs.dao;
+
+import orgs.model.Message;
+import orgs.utils.DatabaseConnection;
+import orgs.utils.SnowflakeIdGenerator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.SQLDataException;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead journal of sent messages on local disk, so a send is acknowledged once its record is
+ * fsynced rather than once MySQL has committed the row. Enabled with {@code tuasl.messages.journal=true}.
+ * <p>
+ * Records are appended to memory-mapped segment files of {@code tuasl.journal.segmentBytes} (default
+ * 64 MB) in {@code tuasl.journal.dir} (default "journal"). {@link #append(Message)} assigns the message its
+ * id, writes the record and waits for an fsync; appends that arrive while one fsync runs share the next,
+ * so under load one sync covers many messages. A background applier copies synced records to MySQL in
+ * batches of up to {@code tuasl.journal.applyBatch} (default 256), in journal order, and records how far it
+ * got in the {@code applied} checkpoint file. Segments the applier has moved past are deleted.
+ * <p>
+ * On {@link #openIfEnabled}, the records past the checkpoint are counted and the applier stores them
+ * again. A batch committed but not yet checkpointed when the process died is harmless: its ids were fixed
+ * when the records were written, and rows whose id is already stored are skipped. Appends after a restart
+ * go to a new segment numbered past the checkpoint's, so a record torn by the crash is never written over.
+ * <p>
+ * Until the applier has stored a message, it exists only here and in {@link RecentMessageCache}: queries
+ * that go to MySQL, edits and deletes do not see it yet; {@code lag} in the stats says how far behind the
+ * applier is, and {@link ViewCountAggregator} holds views of such a message back until it is stored. A
+ * record MySQL rejects (its chat deleted in the meantime, say) is logged and skipped. Any other failure
+ * stops the applier, which retries with backoff while appends carry on.
+ * <p>
+ * Record layout: int payload length, int CRC-32 of the payload, payload. A zero length or a CRC that does
+ * not match ends a segment. {@link MessageJournalInspector} prints a journal's contents.
+ */
+public final class MessageJournal {
+
+    static final String SEGMENT_PREFIX = "segment-";
+    static final String SEGMENT_SUFFIX = ".log";
+    static final String CHECKPOINT = "applied";
+    static final int RECORD_HEADER = 8;
+
+    private static volatile MessageJournal instance;
+
+    private final Path dir;
+    private final int segmentBytes;
+    private final int applyBatch;
+    private final SnowflakeIdGenerator ids = SnowflakeIdGenerator.getInstance();
+    private final RecentMessageCache recentMessages = RecentMessageCache.getInstance();
+
+    // Guards segments, writing and appended.
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private Segment writing;
+    // Records written since open, counting those found unapplied at open.
+    private long appended;
+
+    // Guards synced; the applier waits on appliable for it to grow.
+    private final ReentrantLock syncLock = new ReentrantLock();
+    private final Condition appliable = syncLock.newCondition();
+    private long synced;
+
+    // The applier's position; only the applier thread moves it.
+    private long applySegment;
+    private int applyOffset;
+    private volatile long applied;
+    // Every message with an id up to this one has been stored (or rejected); ids are assigned in journal order.
+    private volatile long storedThroughId;
+
+    private final Thread applier;
+    private volatile boolean closed;
+
+    private final LongAdder appends = new LongAdder();
+    private final LongAdder syncs = new LongAdder();
+    private final LongAdder syncNanos = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder applyFailures = new LongAdder();
+    private final long recovered;
+
+    // The applier is started separately, by openIfEnabled, so tests can leave records unapplied as a crash would.
+    MessageJournal(Path dir, int segmentBytes, int applyBatch) throws IOException {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.applyBatch = applyBatch;
+        Files.createDirectories(dir);
+
+        long[] checkpoint = readCheckpoint(dir);
+        for (long number : listSegments(dir)) {
+            if (checkpoint != null && number < checkpoint[0]) {
+                // Applied, but the process stopped before deleting it.
+                Files.deleteIfExists(segmentPath(dir, number));
+            } else {
+                segments.put(number, Segment.open(segmentPath(dir, number), number));
+            }
+        }
+
+        // Past the checkpoint's segment even if that file is gone: reusing its number would put new records
+        // before the checkpoint's offset, and the next start would take them for applied.
+        long next = Math.max(segments.isEmpty() ? 1 : segments.lastKey() + 1, checkpoint == null ? 1 : checkpoint[0] + 1);
+        if (checkpoint != null && segments.containsKey(checkpoint[0])) {
+            applySegment = checkpoint[0];
+            applyOffset = (int) checkpoint[1];
+        } else {
+            applySegment = segments.isEmpty() ? next : segments.firstKey();
+            applyOffset = 0;
+        }
+
+        long unapplied = 0;
+        long firstUnappliedId = 0;
+        for (Segment segment : segments.tailMap(applySegment, true).values()) {
+            int offset = segment.number == applySegment ? applyOffset : 0;
+            int length;
+            while ((length = recordLength(segment.buffer, offset)) > 0) {
+                if (unapplied == 0) {
+                    firstUnappliedId = decode(segment.buffer, offset).getId();
+                }
+                unapplied++;
+                offset += length;
+            }
+        }
+        if (unapplied == 0) {
+            // Everything is in MySQL; start clean rather than keep a segment per restart.
+            for (Segment segment : segments.values()) {
+                Files.deleteIfExists(segment.path);
+            }
+            segments.clear();
+            applySegment = next;
+            applyOffset = 0;
+        }
+        recovered = unapplied;
+        appended = unapplied;
+        synced = unapplied;
+        // Rows already in MySQL all have smaller ids than the first unapplied record, or than any id from now on.
+        storedThroughId = unapplied > 0 ? firstUnappliedId - 1 : ids.nextId();
+
+        writing = Segment.create(dir, next, segmentBytes);
+        segments.put(next, writing);
+
+        applier = new Thread(this::runApplier, "JournalApplier");
+        applier.setDaemon(true);
+    }
+
+    void startApplier() {
+        applier.start();
+    }
+
+    // Records found unapplied at open.
+    long getRecovered() {
+        return recovered;
+    }
+
+    /**
+     * Opens the journal if {@code tuasl.messages.journal} is set and makes it the one
+     * {@link #getInstance()} returns; returns null otherwise. Unapplied records found in it are stored in
+     * the background.
+     */
+    public static MessageJournal openIfEnabled() throws IOException {
+        if (!Boolean.getBoolean("tuasl.messages.journal")) {
+            return null;
+        }
+        MessageJournal journal = new MessageJournal(
+                Paths.get(System.getProperty("tuasl.journal.dir", "journal")),
+                Integer.getInteger("tuasl.journal.segmentBytes", 64 * 1024 * 1024),
+                Integer.getInteger("tuasl.journal.applyBatch", 256));
+        journal.startApplier();
+        instance = journal;
+        return journal;
+    }
+
+    /**
+     * The open journal, or null when messages are written to MySQL directly.
+     */
+    public static MessageJournal getInstance() {
+        return instance;
+    }
+
+    /**
+     * Assigns the message its id and returns it once the record is on disk.
+     */
+    public long append(Message message) throws IOException {
+        if (closed) {
+            throw new IOException("Message journal is closed.");
+        }
+        if (message.getSentAt() == null) {
+            message.setSentAt(LocalDateTime.now());
+        }
+        // Encoded without the id, which is patched in under the lock so that journal order is id order.
+        byte[] payload = encode(message);
+        if (RECORD_HEADER + payload.length > segmentBytes) {
+            throw new IOException("Message of " + payload.length + " bytes does not fit in a journal segment.");
+        }
+        long ticket;
+        appendLock.lock();
+        try {
+            long id = ids.nextId();
+            ByteBuffer.wrap(payload).putLong(0, id);
+            message.setId(id);
+            if (writing.position + RECORD_HEADER + payload.length > writing.buffer.capacity()) {
+                roll();
+            }
+            writing.write(payload);
+            ticket = ++appended;
+        } finally {
+            appendLock.unlock();
+        }
+        sync(ticket);
+        appends.increment();
+        return message.getId();
+    }
+
+    /**
+     * Whether the message is in MySQL yet, or never will be because MySQL rejected it. Updates to a
+     * message that is not would match no row.
+     */
+    public boolean isStored(long messageId) {
+        return messageId <= storedThroughId;
+    }
+
+    /**
+     * Waits until everything appended so far has been stored or rejected; false if that took longer than
+     * the timeout.
+     */
+    public boolean awaitApplied(long timeoutMillis) throws InterruptedException {
+        long target;
+        appendLock.lock();
+        try {
+            target = appended;
+        } finally {
+            appendLock.unlock();
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (applied < target) {
+            if (System.nanoTime() >= deadline) {
+                return false;
+            }
+            Thread.sleep(20);
+        }
+        return true;
+    }
+
+    /**
+     * Stops accepting appends and lets the applier store what is synced. What it cannot store within ten
+     * seconds stays in the journal for the next start.
+     */
+    public void close() {
+        closed = true;
+        syncLock.lock();
+        try {
+            appliable.signalAll();
+        } finally {
+            syncLock.unlock();
+        }
+        try {
+            applier.join(10_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Everything appended up to ticket is durable when this returns. The first waiter syncs for the rest.
+    private void sync(long ticket) throws IOException {
+        syncLock.lock();
+        try {
+            if (synced >= ticket) {
+                return;
+            }
+            Segment segment;
+            long target;
+            appendLock.lock();
+            try {
+                segment = writing;
+                target = appended;
+            } finally {
+                appendLock.unlock();
+            }
+            long started = System.nanoTime();
+            segment.force();
+            syncNanos.add(System.nanoTime() - started);
+            syncs.increment();
+            synced = target;
+            appliable.signalAll();
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    // Called with appendLock held. The full segment is synced first, so sync() only ever needs the newest.
+    private void roll() throws IOException {
+        writing.force();
+        Segment next = Segment.create(dir, writing.number + 1, segmentBytes);
+        segments.put(next.number, next);
+        writing = next;
+    }
+
+    private void runApplier() {
+        List<Message> batch = new ArrayList<>(applyBatch);
+        long backoffMillis = 0;
+        while (true) {
+            long available;
+            syncLock.lock();
+            try {
+                while (synced == applied && !closed) {
+                    appliable.await();
+                }
+                available = Math.min(applyBatch, synced - applied);
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                syncLock.unlock();
+            }
+            if (available == 0) {
+                return;
+            }
+
+            Segment segment = segment(applySegment);
+            int offset = applyOffset;
+            batch.clear();
+            while (batch.size() < available) {
+                int length = recordLength(segment.buffer, offset);
+                if (length < 0) {
+                    // The rest of this segment is unused; the writer had rolled on.
+                    segment = nextSegment(segment.number);
+                    offset = 0;
+                    continue;
+                }
+                batch.add(decode(segment.buffer, offset));
+                offset += length;
+            }
+
+            try {
+                store(batch);
+            } catch (SQLException e) {
+                applyFailures.increment();
+                if (closed) {
+                    System.err.println("Journal applier stopping with " + (synced - applied) + " records left: " + e.getMessage());
+                    return;
+                }
+                backoffMillis = Math.min(Math.max(backoffMillis * 2, 100), 5_000);
+                System.err.println("Error applying journal, retrying in " + backoffMillis + " ms: " + e.getMessage());
+                try {
+                    Thread.sleep(backoffMillis);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+                continue;
+            }
+            backoffMillis = 0;
+            batches.increment();
+            storedThroughId = batch.get(batch.size() - 1).getId();
+            // A newest page read from MySQL before the batch was stored, and cached since, lacks these
+            // messages; the chats are reloaded now the rows exist. The stamp refuses reads still in flight.
+            Set<Integer> chats = new HashSet<>();
+            for (Message message : batch) {
+                if (chats.add(message.getChatId())) {
+                    recentMessages.invalidate(message.getChatId());
+                }
+            }
+
+            boolean movedOn = segment.number != applySegment;
+            applySegment = segment.number;
+            applyOffset = offset;
+            applied += batch.size();
+            try {
+                writeCheckpoint(dir, applySegment, applyOffset);
+            } catch (IOException e) {
+                // The next checkpoint will cover this batch; until then a restart stores it again.
+                System.err.println("Error writing journal checkpoint: " + e.getMessage());
+                continue;
+            }
+            if (movedOn) {
+                deleteSegmentsBefore(applySegment);
+            }
+        }
+    }
+
+    // The batch in one transaction; if that fails, row by row, so that only rows MySQL rejects are dropped.
+    private void store(List<Message> batch) throws SQLException {
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            boolean autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            try {
+                MessageWriteBatcher.insertAll(conn, batch, true);
+                conn.commit();
+                return;
+            } catch (SQLException e) {
+                conn.rollback();
+                if (batch.size() == 1 && !isRejection(e)) {
+                    throw e;
+                }
+            } finally {
+                conn.setAutoCommit(autoCommit);
+            }
+            for (Message message : batch) {
+                try {
+                    MessageWriteBatcher.insertAll(conn, List.of(message), true);
+                } catch (SQLException e) {
+                    if (!isRejection(e)) {
+                        throw e;
+                    }
+                    rejected.increment();
+                    System.err.println("Journal record for message " + message.getId() + " in chat " + message.getChatId()
+                            + " rejected by the database, skipping it: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private static boolean isRejection(SQLException e) {
+        return e instanceof SQLIntegrityConstraintViolationException || e instanceof SQLDataException;
+    }
+
+    private Segment segment(long number) {
+        appendLock.lock();
+        try {
+            return segments.get(number);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    private Segment nextSegment(long number) {
+        appendLock.lock();
+        try {
+            Map.Entry<Long, Segment> next = segments.higherEntry(number);
+            if (next == null) {
+                throw new IllegalStateException("Journal segment " + number + " ends before the synced records do.");
+            }
+            return next.getValue();
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    private void deleteSegmentsBefore(long number) {
+        List<Segment> done = new ArrayList<>();
+        appendLock.lock();
+        try {
+            Map<Long, Segment> head = segments.headMap(number);
+            done.addAll(head.values());
+            head.clear();
+        } finally {
+            appendLock.unlock();
+        }
+        for (Segment segment : done) {
+            try {
+                Files.deleteIfExists(segment.path);
+            } catch (IOException e) {
+                System.err.println("Error deleting journal segment " + segment.path + ": " + e.getMessage());
+            }
+        }
+    }
+
+    // Written to a temporary file and renamed over the old one, so a crash leaves one or the other.
+    static void writeCheckpoint(Path dir, long segment, int offset) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        buffer.putLong(segment).putInt(offset);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, 12);
+        buffer.putInt((int) crc.getValue()).flip();
+        Path temporary = dir.resolve(CHECKPOINT + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.write(buffer);
+            channel.force(true);
+        }
+        Files.move(temporary, dir.resolve(CHECKPOINT), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    // {segment, offset} of the first unapplied record, or null if there is no valid checkpoint.
+    static long[] readCheckpoint(Path dir) throws IOException {
+        Path path = dir.resolve(CHECKPOINT);
+        if (!Files.exists(path)) {
+            return null;
+        }
+        byte[] bytes = Files.readAllBytes(path);
+        if (bytes.length != 16) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, 12);
+        if (buffer.getInt(12) != (int) crc.getValue()) {
+            return null;
+        }
+        return new long[]{buffer.getLong(0), buffer.getInt(8)};
+    }
+
+    static List<Long> listSegments(Path dir) throws IOException {
+        List<Long> numbers = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+                    .forEach(name -> numbers.add(Long.parseLong(
+                            name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()))));
+        }
+        numbers.sort(null);
+        return numbers;
+    }
+
+    static Path segmentPath(Path dir, long number) {
+        return dir.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+    }
+
+    // Length of the record at offset, header included, or -1 if no intact record starts there.
+    static int recordLength(ByteBuffer buffer, int offset) {
+        if (offset > buffer.capacity() - RECORD_HEADER) {
+            return -1;
+        }
+        int length = buffer.getInt(offset);
+        if (length <= 0 || length > buffer.capacity() - offset - RECORD_HEADER) {
+            return -1;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.slice(offset + RECORD_HEADER, length));
+        return buffer.getInt(offset + 4) == (int) crc.getValue() ? RECORD_HEADER + length : -1;
+    }
+
+    private static byte[] encode(Message message) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + (message.getContent() == null ? 0 : message.getContent().length() * 3));
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeLong(0); // id, set by append
+            out.writeInt(message.getChatId());
+            out.writeInt(message.getSenderId());
+            out.writeLong(message.getSentAt().toEpochSecond(ZoneOffset.UTC));
+            out.writeInt(message.getSentAt().getNano());
+            writeString(out, message.getMessageType());
+            writeString(out, message.getContent());
+            out.writeLong(message.getMediaId() == null ? -1 : message.getMediaId());
+            out.writeLong(message.getRepliedToMessageId() == null ? -1 : message.getRepliedToMessageId());
+            out.writeInt(message.getForwardedFromUserId() == null ? -1 : message.getForwardedFromUserId());
+            out.writeInt(message.getForwardedFromChatId() == null ? -1 : message.getForwardedFromChatId());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // not thrown by an in-memory stream
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(utf8.length);
+        out.write(utf8);
+    }
+
+    // The message in the record at offset, which recordLength has found intact.
+    static Message decode(ByteBuffer buffer, int offset) {
+        ByteBuffer in = buffer.slice(offset + RECORD_HEADER, buffer.getInt(offset));
+        Message message = new Message();
+        message.setId(in.getLong());
+        message.setChatId(in.getInt());
+        message.setSenderId(in.getInt());
+        long seconds = in.getLong();
+        message.setSentAt(LocalDateTime.ofEpochSecond(seconds, in.getInt(), ZoneOffset.UTC));
+        message.setMessageType(readString(in));
+        message.setContent(readString(in));
+        long mediaId = in.getLong();
+        message.setMediaId(mediaId < 0 ? null : mediaId);
+        long repliedToMessageId = in.getLong();
+        message.setRepliedToMessageId(repliedToMessageId < 0 ? null : repliedToMessageId);
+        int forwardedFromUserId = in.getInt();
+        message.setForwardedFromUserId(forwardedFromUserId < 0 ? null : forwardedFromUserId);
+        int forwardedFromChatId = in.getInt();
+        message.setForwardedFromChatId(forwardedFromChatId < 0 ? null : forwardedFromChatId);
+        return message;
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] utf8 = new byte[length];
+        in.get(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String toString() {
+        long syncCount = syncs.sum();
+        long appendCount = appends.sum();
+        int segmentCount;
+        long lag;
+        appendLock.lock();
+        try {
+            segmentCount = segments.size();
+            lag = appended - applied;
+        } finally {
+            appendLock.unlock();
+        }
+        return "MessageJournal{dir=" + dir
+                + ", recovered=" + recovered
+                + ", appended=" + appendCount
+                + ", syncs=" + syncCount
+                + ", avgPerSync=" + String.format("%.2f", syncCount == 0 ? 0.0 : (double) appendCount / syncCount)
+                + ", avgSyncMs=" + String.format("%.3f", syncCount == 0 ? 0.0 : syncNanos.sum() / 1_000_000.0 / syncCount)
+                + ", applied=" + applied
+                + ", batches=" + batches.sum()
+                + ", rejected=" + rejected.sum()
+                + ", applyFailures=" + applyFailures.sum()
+                + ", lag=" + lag
+                + ", segments=" + segmentCount
+                + '}';
+    }
+
+    private static final class Segment {
+        final long number;
+        final Path path;
+        final MappedByteBuffer buffer;
+        // End of the written records; only meaningful for the segment being written.
+        int position;
+
+        private Segment(long number, Path path, MappedByteBuffer buffer) {
+            this.number = number;
+            this.path = path;
+            this.buffer = buffer;
+        }
+
+        // A new, zero-filled segment. The directory is synced too, so the file survives a crash.
+        static Segment create(Path dir, long number, int size) throws IOException {
+            Path path = segmentPath(dir, number);
+            MappedByteBuffer buffer;
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            }
+            try (FileChannel directory = FileChannel.open(dir, StandardOpenOption.READ)) {
+                directory.force(true);
+            } catch (IOException e) {
+                // Not every platform can sync a directory.
+            }
+            return new Segment(number, path, buffer);
+        }
+
+        // An existing segment, only read from.
+        static Segment open(Path path, long number) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                return new Segment(number, path, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            }
+        }
+
+        void write(byte[] payload) {
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            buffer.put(position + RECORD_HEADER, payload);
+            buffer.putInt(position + 4, (int) crc.getValue());
+            // The length goes last: until it is set, a reader sees the end of the segment here.
+            buffer.putInt(position, payload.length);
+            position += RECORD_HEADER + payload.length;
+        }
+
+        void force() throws IOException {
+            try {
+                buffer.force();
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package orgs.dao;
+
+import orgs.model.Message;
+import orgs.utils.SnowflakeIdGenerator;
+
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Prints what a {@link MessageJournal} holds: the checkpoint, each segment and the records the applier has
+ * not stored yet ({@code --all} prints the applied ones too). Only reads the files, so it can be run
+ * against the journal of a running server:
+ * <pre>
+ *   java orgs.dao.MessageJournalInspector [journalDir] [--all]
+ * </pre>
+ */
+public class MessageJournalInspector {
+
+    private static final int CONTENT_PREVIEW = 60;
+
+    public static void main(String[] args) throws Exception {
+        Path dir = Paths.get(System.getProperty("tuasl.journal.dir", "journal"));
+        boolean all = false;
+        for (String arg : args) {
+            if (arg.equals("--all")) {
+                all = true;
+            } else {
+                dir = Paths.get(arg);
+            }
+        }
+
+        long[] checkpoint = MessageJournal.readCheckpoint(dir);
+        List<Long> segments = MessageJournal.listSegments(dir);
+        System.out.println("Journal " + dir.toAbsolutePath());
+        System.out.println("Checkpoint: " + (checkpoint == null ? "none" : "segment " + checkpoint[0] + ", offset " + checkpoint[1]));
+
+        long unapplied = 0;
+        for (long number : segments) {
+            Path path = MessageJournal.segmentPath(dir, number);
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                int offset = 0;
+                int records = 0;
+                int pending = 0;
+                int length;
+                while ((length = MessageJournal.recordLength(buffer, offset)) > 0) {
+                    boolean applied = checkpoint != null
+                            && (number < checkpoint[0] || (number == checkpoint[0] && offset < checkpoint[1]));
+                    if (!applied) {
+                        pending++;
+                    }
+                    if (all || !applied) {
+                        print(MessageJournal.decode(buffer, offset), applied);
+                    }
+                    records++;
+                    offset += length;
+                }
+                unapplied += pending;
+                System.out.println(path.getFileName() + ": " + records + " records, " + offset + " of " + channel.size()
+                        + " bytes used, " + pending + " unapplied");
+            }
+        }
+        System.out.println(segments.size() + " segments, " + unapplied + " records not yet in the database.");
+    }
+
+    private static void print(Message message, boolean applied) {
+        String content = message.getContent() == null ? "" : message.getContent().replace('\n', ' ');
+        if (content.length() > CONTENT_PREVIEW) {
+            content = content.substring(0, CONTENT_PREVIEW) + "...";
+        }
+        System.out.printf("  %s %d  %s  node %d  chat %d  sender %d  %s%s  %s%n",
+                applied ? " " : "*",
+                message.getId(),
+                Instant.ofEpochMilli(SnowflakeIdGenerator.timestampOf(message.getId())),
+                SnowflakeIdGenerator.nodeOf(message.getId()),
+                message.getChatId(),
+                message.getSenderId(),
+                message.getMessageType(),
+                message.getMediaId() == null ? "" : " media " + message.getMediaId(),
+                content);
+    }
+}
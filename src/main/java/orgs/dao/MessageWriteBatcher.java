@@ -0,0 +1,287 @@
+package orgs.dao;
+
+import orgs.model.Message;
+import orgs.utils.DatabaseConnection;
+import orgs.utils.SnowflakeIdGenerator;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Group commit for message inserts.
+ * <p>
+ * Senders queue their message and wait; a single writer thread takes everything queued, waits up to
+ * {@code tuasl.messages.batchWindowMicros} (default 0) for more, up to {@code tuasl.messages.maxBatch}
+ * (default 64) messages, and inserts the batch in one transaction. With a window of 0 the writer waits for
+ * nothing: sends that arrive while a batch is committing form the next one, so batches grow with load and
+ * an idle server adds no latency. A larger window buys bigger batches at the price of that much latency
+ * on every send.
+ * <p>
+ * A batch is written as multi-row INSERTs of power-of-two sizes (37 rows: 32 + 4 + 1), which keeps the
+ * number of distinct statements in the pool's statement cache small. Ids come from
+ * {@link SnowflakeIdGenerator} and are assigned as messages are queued, under one lock, so the single
+ * writer commits a chat's messages in id order and a reader paging with {@code after_message_id} cannot
+ * skip one that commits late. If the batch fails, its messages are retried one by one, so one bad row only
+ * fails its own sender.
+ */
+public final class MessageWriteBatcher {
+
+    private static final String INSERT_PREFIX = "INSERT INTO messages (id, chat_id, sender_id, content, message_type, media_id, "
+            + "replied_to_message_id, forwarded_from_user_id, forwarded_from_chat_id, sent_at) VALUES ";
+    private static final String ROW = "(?, ?, ?, ?, ?, ?, ?, ?, ?, COALESCE(?, CURRENT_TIMESTAMP))";
+    // Replays may meet rows that were already stored; their id is their identity, so they are skipped.
+    private static final String SKIP_EXISTING = " ON DUPLICATE KEY UPDATE id = id";
+
+    private static final MessageWriteBatcher INSTANCE = new MessageWriteBatcher(
+            Long.getLong("tuasl.messages.batchWindowMicros", 0),
+            Integer.getInteger("tuasl.messages.maxBatch", 64));
+
+    private final long windowNanos;
+    private final int maxBatch;
+    private final LinkedBlockingQueue<PendingInsert> queue = new LinkedBlockingQueue<>();
+    private final SnowflakeIdGenerator ids = SnowflakeIdGenerator.getInstance();
+    // Keeps queue order equal to id order.
+    private final ReentrantLock enqueueLock = new ReentrantLock();
+    private final Thread writer;
+    private volatile boolean closed;
+
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder rows = new LongAdder();
+    private final LongAdder fallbacks = new LongAdder();
+    private final LongAccumulator largestBatch = new LongAccumulator(Math::max, 0);
+    private final LongAdder latencyNanos = new LongAdder();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+    MessageWriteBatcher(long windowMicros, int maxBatch) {
+        this.windowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+        this.maxBatch = maxBatch;
+        this.writer = new Thread(this::run, "MessageWriter");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public static MessageWriteBatcher getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Assigns the message its id, inserts it with the next batch and returns the id once the batch has
+     * committed.
+     */
+    public long insert(Message message) throws SQLException {
+        if (closed) {
+            throw new SQLException("Message writer is closed.");
+        }
+        PendingInsert pending = new PendingInsert(message);
+        enqueueLock.lock();
+        try {
+            message.setId(ids.nextId());
+            queue.add(pending);
+        } finally {
+            enqueueLock.unlock();
+        }
+        try {
+            return pending.result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for the message to be stored.", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof SQLException ? (SQLException) cause : new SQLException(cause);
+        }
+    }
+
+    /**
+     * Writes what is queued and stops the writer. Later inserts fail.
+     */
+    public void close() {
+        closed = true;
+        writer.interrupt();
+        try {
+            writer.join(10_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Inserts that slipped in after the writer's last drain.
+        PendingInsert pending;
+        while ((pending = queue.poll()) != null) {
+            pending.result.completeExceptionally(new SQLException("Message writer is closed."));
+        }
+    }
+
+    private void run() {
+        List<PendingInsert> batch = new ArrayList<>(maxBatch);
+        while (true) {
+            try {
+                if (closed) {
+                    queue.drainTo(batch, maxBatch);
+                    if (batch.isEmpty()) {
+                        return;
+                    }
+                } else {
+                    collect(batch);
+                }
+            } catch (InterruptedException e) {
+                if (!closed) {
+                    continue;
+                }
+                queue.drainTo(batch, maxBatch - batch.size());
+            }
+            if (!batch.isEmpty()) {
+                write(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    // Blocks for the first insert, then takes what else arrives within the window.
+    private void collect(List<PendingInsert> batch) throws InterruptedException {
+        batch.add(queue.take());
+        queue.drainTo(batch, maxBatch - batch.size());
+        if (windowNanos > 0) {
+            long deadline = System.nanoTime() + windowNanos;
+            while (batch.size() < maxBatch) {
+                long remaining = deadline - System.nanoTime();
+                PendingInsert next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : null;
+                if (next == null) {
+                    break;
+                }
+                batch.add(next);
+                queue.drainTo(batch, maxBatch - batch.size());
+            }
+        }
+    }
+
+    private void write(List<PendingInsert> batch) {
+        try {
+            insertBatch(batch);
+            batches.increment();
+            rows.add(batch.size());
+            largestBatch.accumulate(batch.size());
+            for (PendingInsert pending : batch) {
+                pending.complete();
+            }
+        } catch (SQLException batchFailure) {
+            if (batch.size() == 1) {
+                batch.get(0).result.completeExceptionally(batchFailure);
+                return;
+            }
+            fallbacks.increment();
+            for (PendingInsert pending : batch) {
+                try {
+                    insertBatch(List.of(pending));
+                    rows.add(1);
+                    pending.complete();
+                } catch (SQLException e) {
+                    pending.result.completeExceptionally(e);
+                }
+            }
+        }
+    }
+
+    // One transaction for the whole batch.
+    private void insertBatch(List<PendingInsert> batch) throws SQLException {
+        List<Message> messages = new ArrayList<>(batch.size());
+        for (PendingInsert pending : batch) {
+            messages.add(pending.message);
+        }
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            boolean autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            try {
+                insertAll(conn, messages, false);
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(autoCommit);
+            }
+        }
+    }
+
+    /**
+     * Inserts the messages, ids included, on the caller's connection and transaction. With skipExisting,
+     * a message whose id is already stored is left as it is instead of failing the statement.
+     */
+    static void insertAll(Connection conn, List<Message> messages, boolean skipExisting) throws SQLException {
+        int from = 0;
+        while (from < messages.size()) {
+            int rowsInStatement = Integer.highestOneBit(messages.size() - from);
+            insertRows(conn, messages, from, rowsInStatement, skipExisting);
+            from += rowsInStatement;
+        }
+    }
+
+    private static void insertRows(Connection conn, List<Message> messages, int from, int count, boolean skipExisting) throws SQLException {
+        StringBuilder sql = new StringBuilder(INSERT_PREFIX).append(ROW);
+        for (int i = 1; i < count; i++) {
+            sql.append(", ").append(ROW);
+        }
+        if (skipExisting) {
+            sql.append(SKIP_EXISTING);
+        }
+        try (PreparedStatement pstmt = conn.prepareStatement(sql.toString())) {
+            int p = 1;
+            for (int i = from; i < from + count; i++) {
+                Message message = messages.get(i);
+                pstmt.setLong(p++, message.getId());
+                pstmt.setInt(p++, message.getChatId());
+                pstmt.setInt(p++, message.getSenderId());
+                pstmt.setString(p++, message.getContent());
+                pstmt.setString(p++, message.getMessageType());
+                pstmt.setObject(p++, message.getMediaId(), Types.BIGINT);
+                pstmt.setObject(p++, message.getRepliedToMessageId(), Types.BIGINT);
+                pstmt.setObject(p++, message.getForwardedFromUserId(), Types.INTEGER);
+                pstmt.setObject(p++, message.getForwardedFromChatId(), Types.INTEGER);
+                pstmt.setTimestamp(p++, message.getSentAt() == null ? null : Timestamp.valueOf(message.getSentAt()));
+            }
+            pstmt.executeUpdate();
+        }
+    }
+
+    @Override
+    public String toString() {
+        long batchCount = batches.sum();
+        long rowCount = rows.sum();
+        return "MessageWriteBatcher{windowMicros=" + TimeUnit.NANOSECONDS.toMicros(windowNanos)
+                + ", batches=" + batchCount
+                + ", rows=" + rowCount
+                + ", avgBatch=" + String.format("%.2f", batchCount == 0 ? 0.0 : (double) rowCount / batchCount)
+                + ", largestBatch=" + largestBatch.get()
+                + ", fallbacks=" + fallbacks.sum()
+                + ", avgLatencyMs=" + String.format("%.3f", rowCount == 0 ? 0.0 : latencyNanos.sum() / 1_000_000.0 / rowCount)
+                + ", maxLatencyMs=" + String.format("%.3f", maxLatencyNanos.get() / 1_000_000.0)
+                + '}';
+    }
+
+    private final class PendingInsert {
+        final Message message;
+        final long queuedAt = System.nanoTime();
+        final CompletableFuture<Long> result = new CompletableFuture<>();
+
+        PendingInsert(Message message) {
+            this.message = message;
+        }
+
+        void complete() {
+            long latency = System.nanoTime() - queuedAt;
+            latencyNanos.add(latency);
+            maxLatencyNanos.accumulateAndGet(latency, Math::max);
+            result.complete(message.getId());
+        }
+    }
+}
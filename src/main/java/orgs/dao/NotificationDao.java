@@ -2,6 +2,7 @@ package orgs.dao;
 
 import orgs.model.Notification;
 import orgs.utils.DatabaseConnection;
+import orgs.utils.SnowflakeIdGenerator;
 
 import java.sql.*;
 import java.util.ArrayList;
@@ -12,25 +13,24 @@ import java.util.Optional;
 public class NotificationDao {
 
     // Create (Send a Notification)
-    public int createNotification(Notification notification) {
-        String sql = "INSERT INTO notifications (recipient_user_id, message, event_type, related_chat_id) VALUES (?, ?, ?, ?)";
-        int generatedId = -1;
+    // The id comes from the SnowflakeIdGenerator and is set on the notification once the row is stored.
+    public long createNotification(Notification notification) {
+        String sql = "INSERT INTO notifications (id, recipient_user_id, message, event_type, related_chat_id) VALUES (?, ?, ?, ?, ?)";
+        long generatedId = -1;
+        long id = SnowflakeIdGenerator.getInstance().nextId();
         try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
 
-            pstmt.setInt(1, notification.getRecipientUserId());
-            pstmt.setString(2, notification.getMessage());
-            pstmt.setString(3, notification.getEventType());
-            pstmt.setObject(4, notification.getRelatedChatId(), Types.INTEGER); // Handle nullable Integer
+            pstmt.setLong(1, id);
+            pstmt.setInt(2, notification.getRecipientUserId());
+            pstmt.setString(3, notification.getMessage());
+            pstmt.setString(4, notification.getEventType());
+            pstmt.setObject(5, notification.getRelatedChatId(), Types.INTEGER); // Handle nullable Integer
 
             int affectedRows = pstmt.executeUpdate();
             if (affectedRows > 0) {
-                try (ResultSet rs = pstmt.getGeneratedKeys()) {
-                    if (rs.next()) {
-                        generatedId = rs.getInt(1);
-                        notification.setId(generatedId);
-                    }
-                }
+                generatedId = id;
+                notification.setId(generatedId);
             }
         } catch (SQLException e) {
             System.err.println("Error creating notification: " + e.getMessage());
@@ -80,11 +80,11 @@ public class NotificationDao {
     }
 
     // Update (Mark Notification as Read)
-    public boolean markNotificationAsRead(int notificationId) {
+    public boolean markNotificationAsRead(long notificationId) {
         String sql = "UPDATE notifications SET is_read = TRUE WHERE id = ?";
         try (Connection conn = DatabaseConnection.getConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setInt(1, notificationId);
+            pstmt.setLong(1, notificationId);
             int affectedRows = pstmt.executeUpdate();
             return affectedRows > 0;
         } catch (SQLException e) {
@@ -109,12 +109,12 @@ public class NotificationDao {
     }
 
     // Delete (Remove Notifications)
-    public boolean deleteNotification(int id) {
+    public boolean deleteNotification(long id) {
         String sql = "DELETE FROM notifications WHERE id = ?";
         try (Connection conn = DatabaseConnection.getConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
 
-            pstmt.setInt(1, id);
+            pstmt.setLong(1, id);
             int affectedRows = pstmt.executeUpdate();
             return affectedRows > 0;
         } catch (SQLException e) {
@@ -142,7 +142,7 @@ public class NotificationDao {
     // Helper method to map ResultSet to Notification object
     private Notification mapResultSetToNotification(ResultSet rs) throws SQLException {
         Notification notification = new Notification();
-        notification.setId(rs.getInt("id"));
+        notification.setId(rs.getLong("id"));
         notification.setRecipientUserId(rs.getInt("recipient_user_id"));
         notification.setMessage(rs.getString("message"));
         notification.setEventType(rs.getString("event_type"));
@@ -208,11 +208,11 @@ public class NotificationDao {
     }
 
     // New method: getNotificationById(notificationId)
-    public Optional<Notification> getNotificationById(int id) throws SQLException {
+    public Optional<Notification> getNotificationById(long id) throws SQLException {
         String sql = "SELECT id, recipient_user_id, message, event_type, related_chat_id, is_read, timestamp FROM notifications WHERE id = ?";
         try (Connection conn = DatabaseConnection.getConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setInt(1, id);
+            stmt.setLong(1, id);
             try (ResultSet rs = stmt.executeQuery()) {
                 if (rs.next()) {
                     return Optional.of(mapResultSetToNotification(rs));
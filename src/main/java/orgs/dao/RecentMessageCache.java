@@ -0,0 +1,282 @@
+package orgs.dao;
+
+import orgs.model.Message;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The newest messages of recently active chats, so the first page of a chat is served without MySQL.
+ * <p>
+ * Each cached chat holds a ring of its newest {@code tuasl.recentMessages.perChat} (default 64) messages,
+ * media included, newest first. A ring is filled by the first newest-page read of the chat and then
+ * extended by every message sent to it; editing or deleting a cached message drops its chat, which is
+ * reloaded on the next read. At most {@code tuasl.recentMessages.maxMessages} messages are held in total,
+ * and beyond that whole chats are evicted, least recently used first.
+ * <p>
+ * Cached messages are never handed out: readers get copies, with the views recorded since the load
+ * added. Like {@link ChatMembershipIndex}, only changes made through this process are seen.
+ */
+public final class RecentMessageCache {
+
+    private static final RecentMessageCache INSTANCE = new RecentMessageCache(
+            Integer.getInteger("tuasl.recentMessages.perChat", 64),
+            Long.getLong("tuasl.recentMessages.maxMessages", 50_000));
+
+    private final int perChat;
+    private final long maxMessages;
+    private final ReentrantLock lock = new ReentrantLock();
+    // Access-ordered, so iteration starts at the least recently used chat.
+    private final LinkedHashMap<Integer, Ring> chats = new LinkedHashMap<>(256, 0.75f, true);
+    // Every cached message by id, for invalidation and view counting without knowing the chat.
+    private final ConcurrentHashMap<Long, CachedMessage> byId = new ConcurrentHashMap<>();
+    private long cachedMessages;
+    // Bumped by every change; a load that raced with one is not cached.
+    private final AtomicLong modifications = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    RecentMessageCache(int perChat, long maxMessages) {
+        this.perChat = perChat;
+        this.maxMessages = maxMessages;
+    }
+
+    public static RecentMessageCache getInstance() {
+        return INSTANCE;
+    }
+
+    public int getPerChat() {
+        return perChat;
+    }
+
+    /**
+     * Copies of the chat's newest {@code count} messages, newest first (fewer if the chat has fewer), or
+     * null if the chat is not cached or its ring cannot tell.
+     */
+    public List<Message> newest(int chatId, int count) {
+        List<CachedMessage> page = new ArrayList<>(Math.min(count, perChat));
+        lock.lock();
+        try {
+            Ring ring = chats.get(chatId);
+            if (ring == null || (ring.size < count && !ring.complete)) {
+                misses.incrementAndGet();
+                return null;
+            }
+            for (int i = 0; i < Math.min(count, ring.size); i++) {
+                page.add(ring.get(i));
+            }
+        } finally {
+            lock.unlock();
+        }
+        hits.incrementAndGet();
+        List<Message> messages = new ArrayList<>(page.size());
+        for (CachedMessage cached : page) {
+            messages.add(cached.copy());
+        }
+        return messages;
+    }
+
+    /**
+     * Stamp to take before reading a chat's newest messages from the database and to pass to
+     * {@link #put}.
+     */
+    long stamp() {
+        return modifications.get();
+    }
+
+    /**
+     * Caches the chat's newest messages, newest first. {@code complete} means the list is the whole chat.
+     */
+    void put(int chatId, List<Message> newestFirst, boolean complete, long stamp) {
+        lock.lock();
+        try {
+            if (modifications.get() != stamp || chats.containsKey(chatId)) {
+                return;
+            }
+            Ring ring = new Ring(perChat);
+            for (int i = Math.min(newestFirst.size(), perChat) - 1; i >= 0; i--) {
+                addNewest(ring, new CachedMessage(copyOf(newestFirst.get(i))));
+            }
+            ring.complete = complete && newestFirst.size() <= perChat;
+            chats.put(chatId, ring);
+            evictBeyondLimit(chatId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // A message was just stored; its chat's ring, if cached, gains it as the newest.
+    void messageAdded(Message message) {
+        modifications.incrementAndGet();
+        lock.lock();
+        try {
+            Ring ring = chats.get(message.getChatId());
+            if (ring == null) {
+                return;
+            }
+            if (ring.size > 0 && ring.get(0).message.getId() > message.getId()) {
+                // Concurrent sends stored out of order; reload rather than sort.
+                remove(message.getChatId());
+                return;
+            }
+            addNewest(ring, new CachedMessage(copyOf(message)));
+            evictBeyondLimit(message.getChatId());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // The message was edited or deleted; its chat is dropped if cached.
+    void messageChanged(long messageId) {
+        modifications.incrementAndGet();
+        CachedMessage cached = byId.get(messageId);
+        if (cached == null) {
+            return;
+        }
+        lock.lock();
+        try {
+            remove(cached.message.getChatId());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void viewed(long messageId) {
+        CachedMessage cached = byId.get(messageId);
+        if (cached != null) {
+            cached.views.incrementAndGet();
+        }
+    }
+
+    public void invalidate(int chatId) {
+        modifications.incrementAndGet();
+        lock.lock();
+        try {
+            remove(chatId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Caller holds the lock.
+    private void addNewest(Ring ring, CachedMessage cached) {
+        CachedMessage evicted = ring.addNewest(cached);
+        if (evicted != null) {
+            byId.remove(evicted.message.getId(), evicted);
+        } else {
+            cachedMessages++;
+        }
+        byId.put(cached.message.getId(), cached);
+    }
+
+    // Caller holds the lock.
+    private void remove(int chatId) {
+        Ring ring = chats.remove(chatId);
+        if (ring != null) {
+            release(ring);
+        }
+    }
+
+    // Caller holds the lock.
+    private void release(Ring ring) {
+        for (int i = 0; i < ring.size; i++) {
+            CachedMessage cached = ring.get(i);
+            byId.remove(cached.message.getId(), cached);
+        }
+        cachedMessages -= ring.size;
+    }
+
+    // Caller holds the lock.
+    private void evictBeyondLimit(int keepChatId) {
+        Iterator<Map.Entry<Integer, Ring>> eldest = chats.entrySet().iterator();
+        while (cachedMessages > maxMessages && eldest.hasNext()) {
+            Map.Entry<Integer, Ring> entry = eldest.next();
+            if (entry.getKey() == keepChatId) {
+                continue; // never evict the chat just written
+            }
+            release(entry.getValue());
+            eldest.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private static Message copyOf(Message message) {
+        Message copy = new Message(message.getId(), message.getChatId(), message.getSenderId(), message.getContent(),
+                message.getMessageType(), message.getSentAt(), message.getMediaId(), message.getRepliedToMessageId(),
+                message.getForwardedFromUserId(), message.getForwardedFromChatId(), message.getEditedAt(),
+                message.isDeleted(), message.getViewCount());
+        copy.setMedia(message.getMedia());
+        return copy;
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            return "RecentMessageCache{chats=" + chats.size()
+                    + ", messages=" + cachedMessages + "/" + maxMessages
+                    + ", hits=" + hits.get()
+                    + ", misses=" + misses.get()
+                    + ", evictions=" + evictions.get()
+                    + '}';
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static final class CachedMessage {
+        final Message message;
+        final AtomicInteger views;
+
+        CachedMessage(Message message) {
+            this.message = message;
+            this.views = new AtomicInteger(message.getViewCount());
+        }
+
+        Message copy() {
+            Message copy = copyOf(message);
+            copy.setViewCount(views.get());
+            return copy;
+        }
+    }
+
+    // Fixed-size ring, newest at head; adding to a full ring overwrites the oldest.
+    private static final class Ring {
+        final CachedMessage[] slots;
+        int head;
+        int size;
+        // The ring holds every message of the chat, so a short ring is still a full answer.
+        boolean complete;
+
+        Ring(int capacity) {
+            this.slots = new CachedMessage[capacity];
+        }
+
+        // i = 0 is the newest.
+        CachedMessage get(int i) {
+            return slots[(head + i) % slots.length];
+        }
+
+        // Returns the message pushed out, if the ring was full.
+        CachedMessage addNewest(CachedMessage cached) {
+            head = (head - 1 + slots.length) % slots.length;
+            CachedMessage evicted = slots[head];
+            slots[head] = cached;
+            if (size < slots.length) {
+                size++;
+                return null;
+            }
+            complete = false;
+            return evicted;
+        }
+    }
+}
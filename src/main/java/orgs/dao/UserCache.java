@@ -0,0 +1,192 @@
+package orgs.dao;
+
+import orgs.model.User;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Read-through cache of user rows for {@link UserDao}, keyed by id with phone number and username as
+ * secondary keys.
+ * <p>
+ * Entries live for {@code tuasl.userCache.ttlMs} (default 60 s) and at most
+ * {@code tuasl.userCache.maxEntries} (default 10,000) users are held, least recently used evicted first.
+ * {@link UserDao} drops a user's entry whenever it writes the row, so within this process a read never
+ * sees a row older than the last write; the TTL bounds how long changes made elsewhere go unseen.
+ * Only found users are cached. Callers always get their own copy.
+ */
+public final class UserCache {
+
+    private static final UserCache INSTANCE = new UserCache(
+            Integer.getInteger("tuasl.userCache.maxEntries", 10_000),
+            Long.getLong("tuasl.userCache.ttlMs", 60_000));
+
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    // Access-ordered, so iteration starts at the least recently used user.
+    private final LinkedHashMap<Integer, Entry> byId = new LinkedHashMap<>(256, 0.75f, true);
+    private final HashMap<String, Integer> idByPhoneNumber = new HashMap<>();
+    private final HashMap<String, Integer> idByUsername = new HashMap<>();
+    // Bumped by every invalidation; a load that raced with one is not cached.
+    private final AtomicLong modifications = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    UserCache(int maxEntries, long ttlMillis) {
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttlMillis * 1_000_000;
+    }
+
+    public static UserCache getInstance() {
+        return INSTANCE;
+    }
+
+    User getById(int id) {
+        lock.lock();
+        try {
+            return lookup(id);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    User getByPhoneNumber(String phoneNumber) {
+        lock.lock();
+        try {
+            return lookup(idByPhoneNumber.get(phoneNumber));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    User getByUsername(String username) {
+        lock.lock();
+        try {
+            return lookup(idByUsername.get(username));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Stamp to take before reading a user from the database and to pass to put.
+    long stamp() {
+        return modifications.get();
+    }
+
+    void put(User user, long stamp) {
+        lock.lock();
+        try {
+            if (modifications.get() != stamp) {
+                return;
+            }
+            remove(user.getId());
+            byId.put(user.getId(), new Entry(copyOf(user), System.nanoTime() + ttlNanos));
+            if (user.getPhoneNumber() != null) {
+                idByPhoneNumber.put(user.getPhoneNumber(), user.getId());
+            }
+            if (user.getUsername() != null) {
+                idByUsername.put(user.getUsername(), user.getId());
+            }
+            Iterator<Map.Entry<Integer, Entry>> eldest = byId.entrySet().iterator();
+            while (byId.size() > maxEntries && eldest.hasNext()) {
+                Entry entry = eldest.next().getValue();
+                eldest.remove();
+                removeSecondaryKeys(entry.user);
+                evictions.incrementAndGet();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void invalidate(int id) {
+        modifications.incrementAndGet();
+        lock.lock();
+        try {
+            remove(id);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public double getHitRatio() {
+        long hitCount = hits.get();
+        long total = hitCount + misses.get();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    // Caller holds the lock.
+    private User lookup(Integer id) {
+        Entry entry = id == null ? null : byId.get(id);
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        if (System.nanoTime() - entry.expiresAt > 0) {
+            remove(id);
+            expirations.incrementAndGet();
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return copyOf(entry.user);
+    }
+
+    // Caller holds the lock.
+    private void remove(int id) {
+        Entry entry = byId.remove(id);
+        if (entry != null) {
+            removeSecondaryKeys(entry.user);
+        }
+    }
+
+    // Caller holds the lock.
+    private void removeSecondaryKeys(User user) {
+        if (user.getPhoneNumber() != null) {
+            idByPhoneNumber.remove(user.getPhoneNumber(), user.getId());
+        }
+        if (user.getUsername() != null) {
+            idByUsername.remove(user.getUsername(), user.getId());
+        }
+    }
+
+    private static User copyOf(User user) {
+        return new User(user.getId(), user.getPhoneNumber(), user.getUsername(), user.getFirstName(), user.getLastName(),
+                user.getPassword(), user.getBio(), user.getProfilePictureUrl(), user.isOnline(), user.getLastSeenAt(),
+                user.getCreatedAt(), user.getUpdatedAt());
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            return "UserCache{users=" + byId.size() + "/" + maxEntries
+                    + ", hits=" + hits.get()
+                    + ", misses=" + misses.get()
+                    + ", hitRatio=" + String.format("%.3f", getHitRatio())
+                    + ", expirations=" + expirations.get()
+                    + ", evictions=" + evictions.get()
+                    + '}';
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static final class Entry {
+        final User user;
+        final long expiresAt;
+
+        Entry(User user, long expiresAt) {
+            this.user = user;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
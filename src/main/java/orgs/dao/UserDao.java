@@ -11,6 +11,9 @@ import java.util.Optional;
 
 public class UserDao {
 
+    // Lookups by id, phone number and username read through this; every write below drops the user's entry.
+    private final UserCache userCache = UserCache.getInstance();
+
     // Create (Add a New User)
     public int createUser(User user) {
         String sql = "INSERT INTO users (phone_number, username, first_name, last_name, password, bio, profile_picture_url, is_online, last_seen_at) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
@@ -63,6 +66,11 @@ public class UserDao {
     }
 
     public Optional<User> getUserById(int id) {
+        User cached = userCache.getById(id);
+        if (cached != null) {
+            return Optional.of(cached);
+        }
+        long stamp = userCache.stamp();
         String sql = "SELECT * FROM users WHERE id = ?";
         try (Connection conn = DatabaseConnection.getConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
@@ -70,7 +78,9 @@ public class UserDao {
             pstmt.setInt(1, id);
             try (ResultSet rs = pstmt.executeQuery()) {
                 if (rs.next()) {
-                    return Optional.of(mapResultSetToUser(rs));
+                    User user = mapResultSetToUser(rs);
+                    userCache.put(user, stamp);
+                    return Optional.of(user);
                 }
             }
         } catch (SQLException e) {
@@ -81,6 +91,11 @@ public class UserDao {
     }
 
     public Optional<User> getUserByPhoneNumber(String phoneNumber) {
+        User cached = userCache.getByPhoneNumber(phoneNumber);
+        if (cached != null) {
+            return Optional.of(cached);
+        }
+        long stamp = userCache.stamp();
         String sql = "SELECT * FROM users WHERE phone_number = ?";
         try (Connection conn = DatabaseConnection.getConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
@@ -88,7 +103,9 @@ public class UserDao {
             pstmt.setString(1, phoneNumber);
             try (ResultSet rs = pstmt.executeQuery()) {
                 if (rs.next()) {
-                    return Optional.of(mapResultSetToUser(rs));
+                    User user = mapResultSetToUser(rs);
+                    userCache.put(user, stamp);
+                    return Optional.of(user);
                 }
             }
         } catch (SQLException e) {
@@ -99,6 +116,11 @@ public class UserDao {
     }
 
     public Optional<User> getUserByUsername(String username) {
+        User cached = userCache.getByUsername(username);
+        if (cached != null) {
+            return Optional.of(cached);
+        }
+        long stamp = userCache.stamp();
         String sql = "SELECT * FROM users WHERE username = ?";
         try (Connection conn = DatabaseConnection.getConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
@@ -106,7 +128,9 @@ public class UserDao {
             pstmt.setString(1, username);
             try (ResultSet rs = pstmt.executeQuery()) {
                 if (rs.next()) {
-                    return Optional.of(mapResultSetToUser(rs));
+                    User user = mapResultSetToUser(rs);
+                    userCache.put(user, stamp);
+                    return Optional.of(user);
                 }
             }
         } catch (SQLException e) {
@@ -154,6 +178,7 @@ public class UserDao {
             pstmt.setInt(8, user.getId());
 
             int affectedRows = pstmt.executeUpdate();
+            userCache.invalidate(user.getId());
             return affectedRows > 0;
         } catch (SQLException e) {
             System.err.println("Error updating user: " + e.getMessage());
@@ -169,6 +194,7 @@ public class UserDao {
             pstmt.setString(1, newHashedPassword);
             pstmt.setInt(2, userId);
             int affectedRows = pstmt.executeUpdate();
+            userCache.invalidate(userId);
             return affectedRows > 0;
         } catch (SQLException e) {
             System.err.println("Error updating password: " + e.getMessage());
@@ -185,6 +211,7 @@ public class UserDao {
             pstmt.setTimestamp(2, Timestamp.valueOf(LocalDateTime.now()));
             pstmt.setInt(3, userId);
             int affectedRows = pstmt.executeUpdate();
+            userCache.invalidate(userId);
             return affectedRows > 0;
         } catch (SQLException e) {
             System.err.println("Error updating user online status: " + e.getMessage());
@@ -201,6 +228,7 @@ public class UserDao {
 
             pstmt.setInt(1, id);
             int affectedRows = pstmt.executeUpdate();
+            userCache.invalidate(id);
             return affectedRows > 0;
         } catch (SQLException e) {
             System.err.println("Error deleting user: " + e.getMessage());
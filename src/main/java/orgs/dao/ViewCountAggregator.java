@@ -0,0 +1,245 @@
+package orgs.dao;
+
+import orgs.utils.DatabaseConnection;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Write-behind buffer for message view counts.
+ * <p>
+ * Views are added to in-memory counters keyed by message id and written every
+ * {@code tuasl.viewCounts.flushMs} (default 1000) by a background thread. The write is one
+ * {@code UPDATE ... WHERE id IN (...)} per distinct delta rather than an UPDATE per view, so a hot
+ * message is written once per interval however often it is read. The counters are split into stripes, each with
+ * its own lock, so readers of different messages rarely contend.
+ * <p>
+ * Deltas stay visible to {@link #pending(long)} until their flush has committed, so counts read back
+ * through {@link MessageDao} include them. A failed flush puts its deltas back for the next attempt, and
+ * views of a message the {@link MessageJournal} has not stored yet wait for a flush after it has, since
+ * the UPDATE would find no row. Views still buffered when the process dies without {@link #flush()} are
+ * lost; the server flushes on stop.
+ */
+public final class ViewCountAggregator {
+
+    private static final int STRIPES = 16; // power of two
+    private static final int MAX_IDS_PER_STATEMENT = 512;
+
+    private static final ViewCountAggregator INSTANCE =
+            new ViewCountAggregator(Long.getLong("tuasl.viewCounts.flushMs", 1_000));
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final ScheduledExecutorService flusher;
+
+    private final LongAdder recorded = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder rowsWritten = new LongAdder();
+    private final LongAdder statements = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    private ViewCountAggregator(long flushIntervalMillis) {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ViewCountFlusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public static ViewCountAggregator getInstance() {
+        return INSTANCE;
+    }
+
+    public void record(long messageId) {
+        Stripe stripe = stripeFor(messageId);
+        stripe.lock.lock();
+        try {
+            stripe.pending.merge(messageId, 1, Integer::sum);
+        } finally {
+            stripe.lock.unlock();
+        }
+        recorded.increment();
+    }
+
+    /**
+     * Views recorded for the message that are not yet in the database.
+     */
+    public int pending(long messageId) {
+        Stripe stripe = stripeFor(messageId);
+        stripe.lock.lock();
+        try {
+            return stripe.pending.getOrDefault(messageId, 0) + stripe.flushing.getOrDefault(messageId, 0);
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * Writes every buffered view to the database. Blocks while another flush is running.
+     */
+    public void flush() throws SQLException {
+        flushLock.lock();
+        try {
+            // Group message ids by delta; nearly all share a delta of 1.
+            Map<Integer, List<Long>> idsByDelta = new HashMap<>();
+            MessageJournal journal = MessageJournal.getInstance();
+            for (Stripe stripe : stripes) {
+                stripe.lock.lock();
+                try {
+                    if (stripe.pending.isEmpty()) {
+                        continue;
+                    }
+                    stripe.flushing = stripe.pending;
+                    stripe.pending = new HashMap<>();
+                    Iterator<Map.Entry<Long, Integer>> entries = stripe.flushing.entrySet().iterator();
+                    while (entries.hasNext()) {
+                        Map.Entry<Long, Integer> entry = entries.next();
+                        if (journal != null && !journal.isStored(entry.getKey())) {
+                            stripe.pending.put(entry.getKey(), entry.getValue());
+                            entries.remove();
+                            continue;
+                        }
+                        idsByDelta.computeIfAbsent(entry.getValue(), delta -> new ArrayList<>()).add(entry.getKey());
+                    }
+                } finally {
+                    stripe.lock.unlock();
+                }
+            }
+            if (idsByDelta.isEmpty()) {
+                return;
+            }
+
+            boolean committed = false;
+            try {
+                write(idsByDelta);
+                committed = true;
+            } finally {
+                for (Stripe stripe : stripes) {
+                    stripe.lock.lock();
+                    try {
+                        if (!committed) {
+                            stripe.flushing.forEach((id, delta) -> stripe.pending.merge(id, delta, Integer::sum));
+                        }
+                        stripe.flushing = new HashMap<>();
+                    } finally {
+                        stripe.lock.unlock();
+                    }
+                }
+            }
+            flushes.increment();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Stops the background flusher and writes what is left.
+     */
+    public void close() {
+        flusher.shutdown();
+        flushQuietly();
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (SQLException e) {
+            failures.increment();
+            System.err.println("Error flushing view counts: " + e.getMessage());
+        }
+    }
+
+    // One transaction, so a failure leaves nothing half-applied for the retry to count twice.
+    private void write(Map<Integer, List<Long>> idsByDelta) throws SQLException {
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            boolean autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            try {
+                for (Map.Entry<Integer, List<Long>> entry : idsByDelta.entrySet()) {
+                    List<Long> ids = entry.getValue();
+                    for (int from = 0; from < ids.size(); from += MAX_IDS_PER_STATEMENT) {
+                        List<Long> chunk = ids.subList(from, Math.min(ids.size(), from + MAX_IDS_PER_STATEMENT));
+                        rowsWritten.add(update(conn, entry.getKey(), chunk));
+                        statements.increment();
+                    }
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(autoCommit);
+            }
+        }
+    }
+
+    // The IN list is padded to the next power of two by repeating the last id, so chunks of similar
+    // size share a cached statement; a repeated id is still only updated once.
+    private static int update(Connection conn, int delta, List<Long> ids) throws SQLException {
+        int slots = 1;
+        while (slots < ids.size()) {
+            slots <<= 1;
+        }
+        StringBuilder sql = new StringBuilder("UPDATE messages SET view_count = view_count + ? WHERE id IN (?");
+        for (int i = 1; i < slots; i++) {
+            sql.append(", ?");
+        }
+        sql.append(')');
+        try (PreparedStatement pstmt = conn.prepareStatement(sql.toString())) {
+            pstmt.setInt(1, delta);
+            for (int i = 0; i < slots; i++) {
+                pstmt.setLong(i + 2, ids.get(Math.min(i, ids.size() - 1)));
+            }
+            return pstmt.executeUpdate();
+        }
+    }
+
+    // Generated ids often share their low bits (sequence 0), so the stripe comes from the top of a multiplicative hash.
+    private Stripe stripeFor(long messageId) {
+        long h = messageId * 0x9E3779B97F4A7C15L;
+        return stripes[(int) (h >>> (Long.SIZE - Integer.numberOfTrailingZeros(STRIPES)))];
+    }
+
+    @Override
+    public String toString() {
+        int buffered = 0;
+        for (Stripe stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                buffered += stripe.pending.size();
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        return "ViewCountAggregator{buffered=" + buffered
+                + ", recorded=" + recorded.sum()
+                + ", flushes=" + flushes.sum()
+                + ", rowsWritten=" + rowsWritten.sum()
+                + ", statements=" + statements.sum()
+                + ", failures=" + failures.sum()
+                + '}';
+    }
+
+    private static final class Stripe {
+        final ReentrantLock lock = new ReentrantLock();
+        // Views not yet picked up by a flush.
+        HashMap<Long, Integer> pending = new HashMap<>();
+        // Views being written by the current flush; still counted by pending(long) until it commits.
+        HashMap<Long, Integer> flushing = new HashMap<>();
+    }
+}
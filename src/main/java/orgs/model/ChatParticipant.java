@@ -8,14 +8,14 @@ public class ChatParticipant {
     private int userId;
     private String role; // ENUM: 'member', 'admin', 'creator', 'subscriber'
     private int unreadCount;
-    private Integer lastReadMessageId; // Use Integer for nullable
+    private Long lastReadMessageId; // Use Long for nullable
     private LocalDateTime joinedAt;
 
     // Constructors
     public ChatParticipant() {
     }
 
-    public ChatParticipant(int id, int chatId, int userId, String role, int unreadCount, Integer lastReadMessageId, LocalDateTime joinedAt) {
+    public ChatParticipant(int id, int chatId, int userId, String role, int unreadCount, Long lastReadMessageId, LocalDateTime joinedAt) {
         this.id = id;
         this.chatId = chatId;
         this.userId = userId;
@@ -66,11 +66,11 @@ public class ChatParticipant {
         this.unreadCount = unreadCount;
     }
 
-    public Integer getLastReadMessageId() {
+    public Long getLastReadMessageId() {
         return lastReadMessageId;
     }
 
-    public void setLastReadMessageId(Integer lastReadMessageId) {
+    public void setLastReadMessageId(Long lastReadMessageId) {
         this.lastReadMessageId = lastReadMessageId;
     }
 
@@ -3,7 +3,7 @@ package orgs.model;
 import java.time.LocalDateTime;
 
 public class Media {
-    private int id;
+    private long id; // SnowflakeIdGenerator
     private String filePathOrUrl;
     private String thumbnailUrl;
     private Long fileSize; // Use Long for BIGINT
@@ -12,6 +12,7 @@ public class Media {
     private LocalDateTime uploadedAt;
     private String fileName;
     private String transferId;
+    private String contentHash; // SHA-256 of the file, hex; see FileStorageManager
 
     public String getTransferId() {
         return transferId;
@@ -21,11 +22,19 @@ public class Media {
         this.transferId = transferId;
     }
 
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
     // Constructors
     public Media() {
     }
 
-    public Media(int id, String filePathOrUrl, String thumbnailUrl, Long fileSize, String mediaType, int uploadedByUserId, LocalDateTime uploadedAt ,String fileName) {
+    public Media(long id, String filePathOrUrl, String thumbnailUrl, Long fileSize, String mediaType, int uploadedByUserId, LocalDateTime uploadedAt ,String fileName) {
         this.id = id;
         this.filePathOrUrl = filePathOrUrl;
         this.thumbnailUrl = thumbnailUrl;
@@ -37,11 +46,11 @@ public class Media {
     }
 
     // Getters and Setters
-    public int getId() {
+    public long getId() {
         return id;
     }
 
-    public void setId(int id) {
+    public void setId(long id) {
         this.id = id;
     }
 
@@ -102,7 +111,7 @@ public class Media {
 
     //--------------------------
 
-    public Media(Integer id, String filePathOrUrl, String thumbnailUrl, Long fileSize, String mediaType, int uploadedByUserId, LocalDateTime uploadedAt) {
+    public Media(Long id, String filePathOrUrl, String thumbnailUrl, Long fileSize, String mediaType, int uploadedByUserId, LocalDateTime uploadedAt) {
         this.id = id;
         this.filePathOrUrl = filePathOrUrl;
         this.thumbnailUrl = thumbnailUrl;
@@ -114,7 +123,7 @@ public class Media {
 
 
     // --- Setters ---
-    public void setId(Integer id) {
+    public void setId(Long id) {
         this.id = id;
     }
 
@@ -128,6 +137,7 @@ public class Media {
                 ", mediaType='" + mediaType + '\'' +
                 ", uploadedByUserId=" + uploadedByUserId +
                 ", uploadedAt=" + uploadedAt +
+                ", contentHash='" + contentHash + '\'' +
                 '}';
     }
 }
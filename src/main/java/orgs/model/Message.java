@@ -3,14 +3,14 @@ package orgs.model;
 import java.time.LocalDateTime;
 
 public class Message {
-    private int id;
+    private long id; // SnowflakeIdGenerator
     private int chatId;
     private int senderId;
     private String content;
     private String messageType = "text" ; // ENUM: 'text', 'image', 'video', 'voiceNote', 'file', 'system'
     private LocalDateTime sentAt;
-    private Integer mediaId; // Use Integer for nullable
-    private Integer repliedToMessageId; // Use Integer for nullable
+    private Long mediaId; // Use Long for nullable
+    private Long repliedToMessageId; // Use Long for nullable
     private Integer forwardedFromUserId; // Use Integer for nullable
     private Integer forwardedFromChatId; // Use Integer for nullable
     private LocalDateTime editedAt; // Nullable
@@ -30,7 +30,7 @@ public class Message {
     public Message() {
     }
 
-    public Message(int id, int chatId, int senderId, String content, String messageType, LocalDateTime sentAt, Integer mediaId, Integer repliedToMessageId, Integer forwardedFromUserId, Integer forwardedFromChatId, LocalDateTime editedAt, boolean isDeleted, int viewCount) {
+    public Message(long id, int chatId, int senderId, String content, String messageType, LocalDateTime sentAt, Long mediaId, Long repliedToMessageId, Integer forwardedFromUserId, Integer forwardedFromChatId, LocalDateTime editedAt, boolean isDeleted, int viewCount) {
         this.id = id;
         this.chatId = chatId;
         this.senderId = senderId;
@@ -47,11 +47,11 @@ public class Message {
     }
 
     // Getters and Setters
-    public int getId() {
+    public long getId() {
         return id;
     }
 
-    public void setId(int id) {
+    public void setId(long id) {
         this.id = id;
     }
 
@@ -95,19 +95,19 @@ public class Message {
         this.sentAt = sentAt;
     }
 
-    public Integer getMediaId() {
+    public Long getMediaId() {
         return mediaId;
     }
 
-    public void setMediaId(Integer mediaId) {
+    public void setMediaId(Long mediaId) {
         this.mediaId = mediaId;
     }
 
-    public Integer getRepliedToMessageId() {
+    public Long getRepliedToMessageId() {
         return repliedToMessageId;
     }
 
-    public void setRepliedToMessageId(Integer repliedToMessageId) {
+    public void setRepliedToMessageId(Long repliedToMessageId) {
         this.repliedToMessageId = repliedToMessageId;
     }
 
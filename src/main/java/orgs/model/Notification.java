@@ -3,7 +3,7 @@ package orgs.model;
 import java.time.LocalDateTime;
 
 public class Notification {
-    private int id;
+    private long id; // SnowflakeIdGenerator
     private int recipientUserId;
     private String message;
     private String eventType;
@@ -15,7 +15,7 @@ public class Notification {
     public Notification() {
     }
 
-    public Notification(int id, int recipientUserId, String message, String eventType, Integer relatedChatId, boolean isRead, LocalDateTime timestamp) {
+    public Notification(long id, int recipientUserId, String message, String eventType, Integer relatedChatId, boolean isRead, LocalDateTime timestamp) {
         this.id = id;
         this.recipientUserId = recipientUserId;
         this.message = message;
@@ -26,11 +26,11 @@ public class Notification {
     }
 
     // Getters and Setters
-    public int getId() {
+    public long getId() {
         return id;
     }
 
-    public void setId(int id) {
+    public void setId(long id) {
         this.id = id;
     }
 
@@ -0,0 +1,38 @@
+// src/orgs/protocol/EncodedResponse.java
+package orgs.protocol;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A response that is sent to many connections, encoded at most once per framing and envelope version.
+ * <p>
+ * Every recipient gets a {@link ByteBuffer#duplicate()} of the same frame: the bytes are shared and
+ * never written again after encoding, and each duplicate has its own position for the writer to consume.
+ * With two framings and two envelope versions a fan-out to any number of recipients costs at most four
+ * encodings. Not thread-safe; build one per fan-out.
+ */
+public final class EncodedResponse {
+    private final Response response;
+    private final ByteBuffer[] frames = new ByteBuffer[FrameCodec.Mode.values().length * 2];
+
+    public EncodedResponse(Response response) {
+        this.response = response;
+    }
+
+    public Response getResponse() {
+        return response;
+    }
+
+    /**
+     * The frame for one recipient, ready to be queued on its connection.
+     */
+    public ByteBuffer frameFor(FrameCodec.Mode mode, int version) {
+        int index = mode.ordinal() * 2 + (version >= Request.VERSION_2 ? 1 : 0);
+        ByteBuffer frame = frames[index];
+        if (frame == null) {
+            frame = FrameCodec.encode(mode, response, version >= Request.VERSION_2 ? Request.VERSION_2 : Request.VERSION_1);
+            frames[index] = frame;
+        }
+        return frame.duplicate();
+    }
+}
@@ -0,0 +1,247 @@
+// src/orgs/protocol/FrameCodec.java
+package orgs.protocol;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Wire framing for the command port.
+ * <p>
+ * Two framings are accepted on the same port and chosen by the client's first bytes:
+ * <ul>
+ *   <li>{@link Mode#LINE}: one JSON request per newline-terminated line (the original protocol).</li>
+ *   <li>{@link Mode#FRAMED}: the client opens with {@link #FRAMED_PREAMBLE}; every frame after that is a
+ *   4-byte big-endian length followed by that many bytes of UTF-8 JSON. The server echoes the preamble
+ *   once so the client knows framing was accepted, and answers in the same framing.</li>
+ * </ul>
+ * A JSON line can never start with a zero byte, so the preamble cannot be mistaken for a line request.
+ * Both framings are limited to {@link #MAX_FRAME_BYTES} per request.
+ */
+public final class FrameCodec {
+
+    public enum Mode {
+        LINE,
+        FRAMED
+    }
+
+    public static final byte[] FRAMED_PREAMBLE = {0x00, 'T', 'F', 0x01};
+    public static final int LENGTH_HEADER_BYTES = 4;
+    public static final int MAX_FRAME_BYTES = Integer.getInteger("tuasl.protocol.maxFrameBytes", 4 * 1024 * 1024);
+
+    private static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+
+    private FrameCodec() {
+    }
+
+    /**
+     * Encodes one outbound message in the given framing, ready to be written as is.
+     */
+    public static ByteBuffer encode(Mode mode, String json) {
+        byte[] payload = json.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer;
+        if (mode == Mode.FRAMED) {
+            buffer = ByteBuffer.allocate(LENGTH_HEADER_BYTES + payload.length);
+            buffer.putInt(payload.length).put(payload);
+        } else {
+            buffer = ByteBuffer.allocate(payload.length + 1);
+            buffer.put(payload).put((byte) '\n');
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Encodes a response for a client speaking the given protocol version. The envelope is streamed into
+     * one growable array (the length header is reserved up front and patched in afterwards) and wrapped
+     * without copying, so no intermediate String is built.
+     */
+    public static ByteBuffer encode(Mode mode, Response response, int version) {
+        ExposedByteArrayOutputStream bytes = new ExposedByteArrayOutputStream(256);
+        int header = mode == Mode.FRAMED ? LENGTH_HEADER_BYTES : 0;
+        for (int i = 0; i < header; i++) {
+            bytes.write(0);
+        }
+        try (Writer writer = new OutputStreamWriter(bytes, StandardCharsets.UTF_8)) {
+            response.writeTo(writer, version);
+        } catch (IOException e) {
+            // Writing to memory cannot fail; anything else is a serialization bug.
+            throw new IllegalStateException("Could not encode response.", e);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.array(), 0, bytes.size());
+        if (mode == Mode.FRAMED) {
+            buffer.putInt(0, bytes.size() - LENGTH_HEADER_BYTES);
+        } else {
+            bytes.write('\n');
+            buffer = ByteBuffer.wrap(bytes.array(), 0, bytes.size());
+        }
+        return buffer;
+    }
+
+    // Hands out its backing array instead of copying it in toByteArray().
+    private static final class ExposedByteArrayOutputStream extends ByteArrayOutputStream {
+        ExposedByteArrayOutputStream(int size) {
+            super(size);
+        }
+
+        byte[] array() {
+            return buf;
+        }
+    }
+
+    public static class FrameTooLargeException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public FrameTooLargeException(long size) {
+            super("Request frame of " + size + " bytes exceeds the limit of " + MAX_FRAME_BYTES + " bytes.");
+        }
+    }
+
+    /**
+     * Incremental decoder for one connection. Bytes are appended to a heap buffer that is reused across
+     * frames (and shrunk back after an unusually large one); complete frames are decoded straight from
+     * its backing array.
+     */
+    public static final class Decoder {
+        // Holds unread bytes in [readIndex, buffer.position()).
+        private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        private int readIndex;
+        private int scanIndex;
+        private Mode mode;
+
+        /**
+         * The negotiated framing, or null until the first bytes have arrived.
+         */
+        public Mode getMode() {
+            return mode;
+        }
+
+        /**
+         * Returns the buffer to read more socket bytes into, compacting or growing it when full.
+         */
+        public ByteBuffer fillBuffer() throws FrameTooLargeException {
+            if (!buffer.hasRemaining()) {
+                compact();
+            }
+            if (!buffer.hasRemaining()) {
+                int max = MAX_FRAME_BYTES + LENGTH_HEADER_BYTES + 1;
+                if (buffer.capacity() >= max) {
+                    throw new FrameTooLargeException(buffer.position());
+                }
+                ByteBuffer larger = ByteBuffer.allocate((int) Math.min((long) buffer.capacity() * 2, max));
+                buffer.flip();
+                larger.put(buffer);
+                buffer = larger;
+            }
+            return buffer;
+        }
+
+        /**
+         * Decodes the next complete frame, or returns null when more bytes are needed.
+         */
+        public String nextFrame() throws IOException {
+            int available = buffer.position() - readIndex;
+            if (mode == null) {
+                if (available < 1) {
+                    return null;
+                }
+                if (buffer.get(readIndex) != FRAMED_PREAMBLE[0]) {
+                    mode = Mode.LINE;
+                } else {
+                    if (available < FRAMED_PREAMBLE.length) {
+                        return null;
+                    }
+                    for (int i = 1; i < FRAMED_PREAMBLE.length; i++) {
+                        if (buffer.get(readIndex + i) != FRAMED_PREAMBLE[i]) {
+                            throw new IOException("Unknown protocol preamble.");
+                        }
+                    }
+                    readIndex += FRAMED_PREAMBLE.length;
+                    scanIndex = readIndex;
+                    mode = Mode.FRAMED;
+                    available -= FRAMED_PREAMBLE.length;
+                }
+            }
+
+            byte[] array = buffer.array();
+            if (mode == Mode.FRAMED) {
+                if (available < LENGTH_HEADER_BYTES) {
+                    return null;
+                }
+                int length = buffer.getInt(readIndex);
+                if (length < 0 || length > MAX_FRAME_BYTES) {
+                    throw new FrameTooLargeException(length & 0xFFFFFFFFL);
+                }
+                if (available < LENGTH_HEADER_BYTES + length) {
+                    return null;
+                }
+                String frame = new String(array, readIndex + LENGTH_HEADER_BYTES, length, StandardCharsets.UTF_8);
+                readIndex += LENGTH_HEADER_BYTES + length;
+                scanIndex = readIndex;
+                resetIfDrained();
+                return frame;
+            }
+
+            int end = buffer.position();
+            for (int i = Math.max(scanIndex, readIndex); i < end; i++) {
+                if (array[i] == '\n') {
+                    int lineEnd = i > readIndex && array[i - 1] == '\r' ? i - 1 : i;
+                    String line = new String(array, readIndex, lineEnd - readIndex, StandardCharsets.UTF_8);
+                    readIndex = i + 1;
+                    scanIndex = readIndex;
+                    resetIfDrained();
+                    return line;
+                }
+            }
+            scanIndex = end;
+            if (end - readIndex > MAX_FRAME_BYTES) {
+                throw new FrameTooLargeException(end - readIndex);
+            }
+            return null;
+        }
+
+        /**
+         * Blocking convenience for stream sockets: returns the next frame, or null at end of stream.
+         */
+        public String readFrame(InputStream in) throws IOException {
+            String frame;
+            while ((frame = nextFrame()) == null) {
+                ByteBuffer target = fillBuffer();
+                int read = in.read(target.array(), target.arrayOffset() + target.position(), target.remaining());
+                if (read < 0) {
+                    return null;
+                }
+                target.position(target.position() + read);
+            }
+            return frame;
+        }
+
+        private void compact() {
+            int remaining = buffer.position() - readIndex;
+            if (readIndex > 0) {
+                System.arraycopy(buffer.array(), readIndex, buffer.array(), 0, remaining);
+                buffer.position(remaining);
+            }
+            scanIndex -= readIndex;
+            readIndex = 0;
+        }
+
+        // Every buffered byte has been consumed: rewind, and give back memory held for a large frame.
+        private void resetIfDrained() {
+            if (readIndex != buffer.position()) {
+                return;
+            }
+            if (buffer.capacity() > INITIAL_BUFFER_SIZE * 4) {
+                buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+            } else {
+                buffer.clear();
+            }
+            readIndex = 0;
+            scanIndex = 0;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+// src/orgs/protocol/MessagePage.java
+package orgs.protocol;
+
+import com.google.gson.annotations.SerializedName;
+import orgs.model.Message;
+
+import java.util.List;
+
+/**
+ * Response data for a cursor-mode GET_CHAT_MESSAGES. {@code next_cursor} is the id to send back as
+ * {@code before_message_id} (or {@code after_message_id}, in the direction the page was read) for the
+ * following page; it is null when there is nothing further.
+ */
+public class MessagePage {
+    private final List<Message> messages;
+    @SerializedName("next_cursor")
+    private final Long nextCursor;
+    @SerializedName("has_more")
+    private final boolean hasMore;
+
+    public MessagePage(List<Message> messages, Long nextCursor, boolean hasMore) {
+        this.messages = messages;
+        this.nextCursor = nextCursor;
+        this.hasMore = hasMore;
+    }
+
+    public List<Message> getMessages() {
+        return messages;
+    }
+
+    public Long getNextCursor() {
+        return nextCursor;
+    }
+
+    public boolean isHasMore() {
+        return hasMore;
+    }
+}
@@ -3,14 +3,36 @@ package orgs.protocol;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.gson.TypeAdapter;
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 import orgs.utils.LocalDateTimeAdapter;
 
+import java.io.IOException;
 import java.time.LocalDateTime;
 import java.util.Map;
 
+/**
+ * Client to server envelope.
+ * <p>
+ * Version 1 clients send {@code payload} as a JSON string holding the encoded data object. Version 2
+ * clients add {@code "v": 2} and send {@code payload} as an embedded JSON value, which the server binds
+ * directly without a second parse; they also receive {@link Response} data embedded the same way.
+ */
+@JsonAdapter(Request.Adapter.class)
 public class Request {
+    public static final int VERSION_1 = 1;
+    public static final int VERSION_2 = 2;
+
     private Command command;
     private String payload; // Stores the JSON string representation of the data object
+    private JsonElement payloadTree; // Embedded payload sent by version 2 clients
+    private int version = VERSION_1;
+    private String id; // Optional client-chosen correlation id, echoed in the Response
 
     // Use a static Gson instance for consistent serialization
     private static final Gson gson = new GsonBuilder()
@@ -30,21 +52,69 @@ public class Request {
         this.payload = null; // Or an empty JSON object string "{}"
     }
 
+    private Request() {
+    }
+
     // Getters for deserialization on the server side
     public Command getCommand() {
         return command;
     }
 
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * The client's correlation id, or null. Requests with an id may be answered out of order; the
+     * response carries the same id so the client can match it.
+     */
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
     public String getPayload() {
+        if (payload == null && payloadTree != null && !payloadTree.isJsonNull()) {
+            payload = payloadTree.toString();
+        }
         return payload;
     }
 
+    /**
+     * The payload as a JSON tree, whichever way the client encoded it. Bind it with
+     * {@code gson.fromJson(tree, type)}; returns null when the request carries no payload.
+     */
+    public JsonElement getPayloadTree() {
+        if (payloadTree == null && payload != null && !payload.isEmpty()) {
+            payloadTree = JsonParser.parseString(payload);
+        }
+        return payloadTree == null || payloadTree.isJsonNull() ? null : payloadTree;
+    }
+
+    /**
+     * Binds the payload to a typed class (see {@link RequestPayloads}) straight from whichever form the
+     * client sent, without building an intermediate tree or map. Returns null when there is no payload.
+     */
+    public <T> T getPayload(Class<T> type) {
+        if (payloadTree != null) {
+            return payloadTree.isJsonNull() ? null : gson.fromJson(payloadTree, type);
+        }
+        if (payload == null || payload.isEmpty()) {
+            return null;
+        }
+        return gson.fromJson(payload, type);
+    }
+
     // Method for the server to easily get the payload as a Map
     public Map<String, Object> getPayloadAsMap() {
-        if (payload == null || payload.isEmpty()) {
+        JsonElement tree = getPayloadTree();
+        if (tree == null) {
             return null;
         }
-        return gson.fromJson(payload, Map.class);
+        return gson.fromJson(tree, Map.class);
     }
 
     // For debugging/logging
@@ -52,7 +122,87 @@ public class Request {
     public String toString() {
         return "Request{" +
                 "command='" + command + '\'' +
-                ", payload='" + payload + '\'' +
+                ", payload='" + getPayload() + '\'' +
                 '}';
     }
-}
\ No newline at end of file
+
+    /**
+     * Reads both envelope versions; writes version 1 unless the request carries an embedded payload.
+     */
+    public static final class Adapter extends TypeAdapter<Request> {
+        @Override
+        public void write(JsonWriter out, Request request) throws IOException {
+            if (request == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("command").value(request.command == null ? null : request.command.name());
+            if (request.id != null) {
+                out.name("id").value(request.id);
+            }
+            if (request.version >= VERSION_2 && request.payloadTree != null) {
+                out.name("v").value(request.version);
+                out.name("payload");
+                gson.toJson(request.payloadTree, out);
+            } else {
+                out.name("payload").value(request.getPayload());
+            }
+            out.endObject();
+        }
+
+        @Override
+        public Request read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            Request request = new Request();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "command":
+                        request.command = readCommand(in);
+                        break;
+                    case "v":
+                        request.version = in.nextInt();
+                        break;
+                    case "id":
+                        if (in.peek() == JsonToken.NULL) {
+                            in.nextNull();
+                        } else {
+                            request.id = in.nextString(); // numbers are accepted and kept as sent
+                        }
+                        break;
+                    case "payload":
+                        JsonToken token = in.peek();
+                        if (token == JsonToken.STRING) {
+                            request.payload = in.nextString();
+                        } else if (token == JsonToken.NULL) {
+                            in.nextNull();
+                        } else {
+                            request.payloadTree = JsonParser.parseReader(in);
+                        }
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return request;
+        }
+
+        private static Command readCommand(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return Command.UNKNOWN_COMMAND;
+            }
+            String name = in.nextString();
+            try {
+                return Command.valueOf(name);
+            } catch (IllegalArgumentException e) {
+                return Command.UNKNOWN_COMMAND;
+            }
+        }
+    }
+}
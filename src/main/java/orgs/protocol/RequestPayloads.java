@@ -0,0 +1,813 @@
+// src/orgs/protocol/RequestPayloads.java
+package orgs.protocol;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import orgs.model.Media;
+import orgs.utils.LocalDateTimeAdapter;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+
+/**
+ * Typed request payloads, one per command (commands with the same shape share a class).
+ * <p>
+ * Each payload carries a hand-written streaming {@link TypeAdapter}, attached with {@link JsonAdapter} so
+ * Gson resolves it once per type. Binding reads the JSON keys straight into primitive fields, so no
+ * intermediate {@code Map<String, Double>} is built and no numbers are boxed. Absent keys keep their
+ * defaults (0, false or null); numbers are accepted in integer or floating form, as the old map based
+ * parsing did.
+ */
+public final class RequestPayloads {
+
+    private RequestPayloads() {
+    }
+
+    // LOGIN
+    @JsonAdapter(Login.Adapter.class)
+    public static final class Login {
+        private String phoneNumber;
+        private String password;
+
+        public String getPhoneNumber() {
+            return phoneNumber;
+        }
+
+        public String getPassword() {
+            return password;
+        }
+
+        static final class Adapter extends PayloadAdapter<Login> {
+            @Override
+            Login create() {
+                return new Login();
+            }
+
+            @Override
+            boolean readField(Login target, String name, JsonReader in) throws IOException {
+                switch (name) {
+                    case "phone_number": target.phoneNumber = readString(in); return true;
+                    case "password": target.password = readString(in); return true;
+                    default: return false;
+                }
+            }
+
+            @Override
+            void writeFields(Login value, JsonWriter out) throws IOException {
+                out.name("phone_number").value(value.phoneNumber);
+                out.name("password").value(value.password);
+            }
+        }
+    }
+
+    // SEND_MESSAGE
+    @JsonAdapter(SendMessage.Adapter.class)
+    public static final class SendMessage {
+        private int chatId;
+        private String content;
+        private Media media;
+
+        public int getChatId() {
+            return chatId;
+        }
+
+        public String getContent() {
+            return content;
+        }
+
+        public Media getMedia() {
+            return media;
+        }
+
+        static final class Adapter extends PayloadAdapter<SendMessage> {
+            private static final TypeAdapter<Media> MEDIA = new GsonBuilder()
+                    .registerTypeAdapter(LocalDateTime.class, new LocalDateTimeAdapter())
+                    .create()
+                    .getAdapter(Media.class);
+
+            @Override
+            SendMessage create() {
+                return new SendMessage();
+            }
+
+            @Override
+            boolean readField(SendMessage target, String name, JsonReader in) throws IOException {
+                switch (name) {
+                    case "chat_id": target.chatId = readInt(in); return true;
+                    case "content": target.content = readString(in); return true;
+                    case "media": target.media = MEDIA.read(in); return true;
+                    default: return false;
+                }
+            }
+
+            @Override
+            void writeFields(SendMessage value, JsonWriter out) throws IOException {
+                out.name("chat_id").value(value.chatId);
+                out.name("content").value(value.content);
+                if (value.media != null) {
+                    out.name("media");
+                    MEDIA.write(out, value.media);
+                }
+            }
+        }
+    }
+
+    // GET_CHAT_DETAILS, DELETE_CHAT, GET_CHAT_PARTICIPANTS
+    @JsonAdapter(ChatRef.Adapter.class)
+    public static final class ChatRef {
+        private int chatId;
+
+        public int getChatId() {
+            return chatId;
+        }
+
+        static final class Adapter extends PayloadAdapter<ChatRef> {
+            @Override
+            ChatRef create() {
+                return new ChatRef();
+            }
+
+            @Override
+            boolean readField(ChatRef target, String name, JsonReader in) throws IOException {
+                if (name.equals("chat_id")) {
+                    target.chatId = readInt(in);
+                    return true;
+                }
+                return false;
+            }
+
+            @Override
+            void writeFields(ChatRef value, JsonWriter out) throws IOException {
+                out.name("chat_id").value(value.chatId);
+            }
+        }
+    }
+
+    // GET_CHAT_MESSAGES: offset paging, or keyset paging with before_message_id / after_message_id
+    @JsonAdapter(ChatMessagesQuery.Adapter.class)
+    public static final class ChatMessagesQuery {
+        private int chatId;
+        private int limit;
+        private int offset;
+        // Cursor mode: set when the key is present. 0 or null for before_message_id means the newest page.
+        private Long beforeMessageId;
+        private Long afterMessageId;
+
+        public int getChatId() {
+            return chatId;
+        }
+
+        public int getLimit() {
+            return limit;
+        }
+
+        public int getOffset() {
+            return offset;
+        }
+
+        public Long getBeforeMessageId() {
+            return beforeMessageId;
+        }
+
+        public Long getAfterMessageId() {
+            return afterMessageId;
+        }
+
+        public boolean isCursorQuery() {
+            return beforeMessageId != null || afterMessageId != null;
+        }
+
+        static final class Adapter extends PayloadAdapter<ChatMessagesQuery> {
+            @Override
+            ChatMessagesQuery create() {
+                return new ChatMessagesQuery();
+            }
+
+            @Override
+            boolean readField(ChatMessagesQuery target, String name, JsonReader in) throws IOException {
+                switch (name) {
+                    case "chat_id": target.chatId = readInt(in); return true;
+                    case "limit": target.limit = readInt(in); return true;
+                    case "offset": target.offset = readInt(in); return true;
+                    case "before_message_id": target.beforeMessageId = readLong(in); return true;
+                    case "after_message_id": target.afterMessageId = readLong(in); return true;
+                    default: return false;
+                }
+            }
+
+            @Override
+            void writeFields(ChatMessagesQuery value, JsonWriter out) throws IOException {
+                out.name("chat_id").value(value.chatId);
+                out.name("limit").value(value.limit);
+                out.name("offset").value(value.offset);
+                if (value.beforeMessageId != null) {
+                    out.name("before_message_id").value(value.beforeMessageId);
+                }
+                if (value.afterMessageId != null) {
+                    out.name("after_message_id").value(value.afterMessageId);
+                }
+            }
+        }
+    }
+
+    // CREATE_CHAT, UPDATE_CHAT (chat_id is only used by the update)
+    @JsonAdapter(ChatDetails.Adapter.class)
+    public static final class ChatDetails {
+        private int chatId;
+        private String chatType;
+        private String chatName;
+        private String chatDescription;
+        private String publicLink;
+
+        public int getChatId() {
+            return chatId;
+        }
+
+        public String getChatType() {
+            return chatType;
+        }
+
+        public String getChatName() {
+            return chatName;
+        }
+
+        public String getChatDescription() {
+            return chatDescription;
+        }
+
+        public String getPublicLink() {
+            return publicLink;
+        }
+
+        static final class Adapter extends PayloadAdapter<ChatDetails> {
+            @Override
+            ChatDetails create() {
+                return new ChatDetails();
+            }
+
+            @Override
+            boolean readField(ChatDetails target, String name, JsonReader in) throws IOException {
+                switch (name) {
+                    case "chat_id": target.chatId = readInt(in); return true;
+                    case "chat_type": target.chatType = readString(in); return true;
+                    case "chat_name": target.chatName = readString(in); return true;
+                    case "chat_description": target.chatDescription = readString(in); return true;
+                    case "public_link": target.publicLink = readString(in); return true;
+                    default: return false;
+                }
+            }
+
+            @Override
+            void writeFields(ChatDetails value, JsonWriter out) throws IOException {
+                out.name("chat_id").value(value.chatId);
+                out.name("chat_type").value(value.chatType);
+                out.name("chat_name").value(value.chatName);
+                out.name("chat_description").value(value.chatDescription);
+                out.name("public_link").value(value.publicLink);
+            }
+        }
+    }
+
+    // GET_USER_PROFILE, DELETE_USER
+    @JsonAdapter(UserRef.Adapter.class)
+    public static final class UserRef {
+        private int userId;
+
+        public int getUserId() {
+            return userId;
+        }
+
+        static final class Adapter extends PayloadAdapter<UserRef> {
+            @Override
+            UserRef create() {
+                return new UserRef();
+            }
+
+            @Override
+            boolean readField(UserRef target, String name, JsonReader in) throws IOException {
+                if (name.equals("userId")) {
+                    target.userId = readInt(in);
+                    return true;
+                }
+                return false;
+            }
+
+            @Override
+            void writeFields(UserRef value, JsonWriter out) throws IOException {
+                out.name("userId").value(value.userId);
+            }
+        }
+    }
+
+    // UPDATE_USER_PROFILE. A key sent as null clears the field, an absent key leaves it unchanged.
+    @JsonAdapter(UpdateUserProfile.Adapter.class)
+    public static final class UpdateUserProfile {
+        private int userId;
+        private String firstName;
+        private String lastName;
+        private String bio;
+        private String profilePictureUrl;
+        private boolean hasFirstName;
+        private boolean hasLastName;
+        private boolean hasBio;
+        private boolean hasProfilePictureUrl;
+
+        public int getUserId() {
+            return userId;
+        }
+
+        public String getFirstName() {
+            return firstName;
+        }
+
+        public String getLastName() {
+            return lastName;
+        }
+
+        public String getBio() {
+            return bio;
+        }
+
+        public String getProfilePictureUrl() {
+            return profilePictureUrl;
+        }
+
+        public boolean hasFirstName() {
+            return hasFirstName;
+        }
+
+        public boolean hasLastName() {
+            return hasLastName;
+        }
+
+        public boolean hasBio() {
+            return hasBio;
+        }
+
+        public boolean hasProfilePictureUrl() {
+            return hasProfilePictureUrl;
+        }
+
+        static final class Adapter extends PayloadAdapter<UpdateUserProfile> {
+            @Override
+            UpdateUserProfile create() {
+                return new UpdateUserProfile();
+            }
+
+            @Override
+            boolean readField(UpdateUserProfile target, String name, JsonReader in) throws IOException {
+                switch (name) {
+                    case "userId":
+                        target.userId = readInt(in);
+                        return true;
+                    case "first_name":
+                        target.firstName = readString(in);
+                        target.hasFirstName = true;
+                        return true;
+                    case "last_name":
+                        target.lastName = readString(in);
+                        target.hasLastName = true;
+                        return true;
+                    case "bio":
+                        target.bio = readString(in);
+                        target.hasBio = true;
+                        return true;
+                    case "profile_picture_url":
+                        target.profilePictureUrl = readString(in);
+                        target.hasProfilePictureUrl = true;
+                        return true;
+                    default:
+                        return false;
+                }
+            }
+
+            @Override
+            void writeFields(UpdateUserProfile value, JsonWriter out) throws IOException {
+                out.name("userId").value(value.userId);
+                // Only the keys that were sent, so a null still clears and an absent key still leaves alone.
+                if (value.hasFirstName) {
+                    writeNullable(out, "first_name", value.firstName);
+                }
+                if (value.hasLastName) {
+                    writeNullable(out, "last_name", value.lastName);
+                }
+                if (value.hasBio) {
+                    writeNullable(out, "bio", value.bio);
+                }
+                if (value.hasProfilePictureUrl) {
+                    writeNullable(out, "profile_picture_url", value.profilePictureUrl);
+                }
+            }
+        }
+    }
+
+    // DELETE_MESSAGE, MARK_MESSAGE_AS_READ, UPDATE_MESSAGE (content is only used by the update)
+    @JsonAdapter(MessageRef.Adapter.class)
+    public static final class MessageRef {
+        private long messageId;
+        private String content;
+
+        public long getMessageId() {
+            return messageId;
+        }
+
+        public String getContent() {
+            return content;
+        }
+
+        static final class Adapter extends PayloadAdapter<MessageRef> {
+            @Override
+            MessageRef create() {
+                return new MessageRef();
+            }
+
+            @Override
+            boolean readField(MessageRef target, String name, JsonReader in) throws IOException {
+                switch (name) {
+                    case "message_id": target.messageId = readLong(in); return true;
+                    case "content": target.content = readString(in); return true;
+                    default: return false;
+                }
+            }
+
+            @Override
+            void writeFields(MessageRef value, JsonWriter out) throws IOException {
+                out.name("message_id").value(value.messageId);
+                out.name("content").value(value.content);
+            }
+        }
+    }
+
+    // ADD_CHAT_PARTICIPANT, UPDATE_CHAT_PARTICIPANT_ROLE, REMOVE_CHAT_PARTICIPANT
+    @JsonAdapter(ParticipantChange.Adapter.class)
+    public static final class ParticipantChange {
+        private int chatId;
+        private int userId;
+        private String role;
+        private String newRole;
+
+        public int getChatId() {
+            return chatId;
+        }
+
+        public int getUserId() {
+            return userId;
+        }
+
+        public String getRole() {
+            return role;
+        }
+
+        public String getNewRole() {
+            return newRole;
+        }
+
+        static final class Adapter extends PayloadAdapter<ParticipantChange> {
+            @Override
+            ParticipantChange create() {
+                return new ParticipantChange();
+            }
+
+            @Override
+            boolean readField(ParticipantChange target, String name, JsonReader in) throws IOException {
+                switch (name) {
+                    case "chat_id": target.chatId = readInt(in); return true;
+                    case "user_id": target.userId = readInt(in); return true;
+                    case "role": target.role = readString(in); return true;
+                    case "new_role": target.newRole = readString(in); return true;
+                    default: return false;
+                }
+            }
+
+            @Override
+            void writeFields(ParticipantChange value, JsonWriter out) throws IOException {
+                out.name("chat_id").value(value.chatId);
+                out.name("user_id").value(value.userId);
+                out.name("role").value(value.role);
+                out.name("new_role").value(value.newRole);
+            }
+        }
+    }
+
+    // ADD_CONTACT, REMOVE_CONTACT
+    @JsonAdapter(ContactRef.Adapter.class)
+    public static final class ContactRef {
+        private int contactUserId;
+
+        public int getContactUserId() {
+            return contactUserId;
+        }
+
+        static final class Adapter extends PayloadAdapter<ContactRef> {
+            @Override
+            ContactRef create() {
+                return new ContactRef();
+            }
+
+            @Override
+            boolean readField(ContactRef target, String name, JsonReader in) throws IOException {
+                if (name.equals("contact_user_id")) {
+                    target.contactUserId = readInt(in);
+                    return true;
+                }
+                return false;
+            }
+
+            @Override
+            void writeFields(ContactRef value, JsonWriter out) throws IOException {
+                out.name("contact_user_id").value(value.contactUserId);
+            }
+        }
+    }
+
+    // BLOCK_UNBLOCK_USER
+    @JsonAdapter(BlockUnblock.Adapter.class)
+    public static final class BlockUnblock {
+        private int targetUserId;
+        private String action;
+
+        public int getTargetUserId() {
+            return targetUserId;
+        }
+
+        public String getAction() {
+            return action;
+        }
+
+        static final class Adapter extends PayloadAdapter<BlockUnblock> {
+            @Override
+            BlockUnblock create() {
+                return new BlockUnblock();
+            }
+
+            @Override
+            boolean readField(BlockUnblock target, String name, JsonReader in) throws IOException {
+                switch (name) {
+                    case "target_user_id": target.targetUserId = readInt(in); return true;
+                    case "action": target.action = readString(in); return true;
+                    default: return false;
+                }
+            }
+
+            @Override
+            void writeFields(BlockUnblock value, JsonWriter out) throws IOException {
+                out.name("target_user_id").value(value.targetUserId);
+                out.name("action").value(value.action);
+            }
+        }
+    }
+
+    // MARK_NOTIFICATION_AS_READ, DELETE_NOTIFICATION
+    @JsonAdapter(NotificationRef.Adapter.class)
+    public static final class NotificationRef {
+        private long notificationId;
+
+        public long getNotificationId() {
+            return notificationId;
+        }
+
+        static final class Adapter extends PayloadAdapter<NotificationRef> {
+            @Override
+            NotificationRef create() {
+                return new NotificationRef();
+            }
+
+            @Override
+            boolean readField(NotificationRef target, String name, JsonReader in) throws IOException {
+                if (name.equals("notification_id")) {
+                    target.notificationId = readLong(in);
+                    return true;
+                }
+                return false;
+            }
+
+            @Override
+            void writeFields(NotificationRef value, JsonWriter out) throws IOException {
+                out.name("notification_id").value(value.notificationId);
+            }
+        }
+    }
+
+    // GET_FILE_BY_MEDIA
+    @JsonAdapter(MediaRef.Adapter.class)
+    public static final class MediaRef {
+        private String mediaId;
+
+        public String getMediaId() {
+            return mediaId;
+        }
+
+        static final class Adapter extends PayloadAdapter<MediaRef> {
+            @Override
+            MediaRef create() {
+                return new MediaRef();
+            }
+
+            @Override
+            boolean readField(MediaRef target, String name, JsonReader in) throws IOException {
+                if (name.equals("mediaId")) {
+                    target.mediaId = readString(in);
+                    return true;
+                }
+                return false;
+            }
+
+            @Override
+            void writeFields(MediaRef value, JsonWriter out) throws IOException {
+                out.name("mediaId").value(value.mediaId);
+            }
+        }
+    }
+
+    // INITIATE_VIDEO_CALL, VIDEO_CALL_ANSWER, END_VIDEO_CALL. Each side sends its own public endpoints.
+    @JsonAdapter(VideoCall.Adapter.class)
+    public static final class VideoCall {
+        private int targetUserId;
+        private int callerId;
+        private boolean accepted;
+        private String publicVideoIp;
+        private int udpVideoPort;
+        private String publicAudioIp;
+        private int udpAudioPort;
+
+        public int getTargetUserId() {
+            return targetUserId;
+        }
+
+        public int getCallerId() {
+            return callerId;
+        }
+
+        public boolean isAccepted() {
+            return accepted;
+        }
+
+        public String getPublicVideoIp() {
+            return publicVideoIp;
+        }
+
+        public int getUdpVideoPort() {
+            return udpVideoPort;
+        }
+
+        public String getPublicAudioIp() {
+            return publicAudioIp;
+        }
+
+        public int getUdpAudioPort() {
+            return udpAudioPort;
+        }
+
+        static final class Adapter extends PayloadAdapter<VideoCall> {
+            @Override
+            VideoCall create() {
+                return new VideoCall();
+            }
+
+            @Override
+            boolean readField(VideoCall target, String name, JsonReader in) throws IOException {
+                switch (name) {
+                    case "target_user_id": target.targetUserId = readInt(in); return true;
+                    case "caller_id": target.callerId = readInt(in); return true;
+                    case "accepted": target.accepted = readBoolean(in); return true;
+                    case "sender_public_video_ip":
+                    case "recipient_public_video_ip":
+                        target.publicVideoIp = readString(in);
+                        return true;
+                    case "sender_udp_video_port":
+                    case "recipient_udp_video_port":
+                        target.udpVideoPort = readInt(in);
+                        return true;
+                    case "sender_public_audio_ip":
+                    case "recipient_public_audio_ip":
+                        target.publicAudioIp = readString(in);
+                        return true;
+                    case "sender_udp_audio_port":
+                    case "recipient_udp_audio_port":
+                        target.udpAudioPort = readInt(in);
+                        return true;
+                    default:
+                        return false;
+                }
+            }
+
+            @Override
+            void writeFields(VideoCall value, JsonWriter out) throws IOException {
+                out.name("target_user_id").value(value.targetUserId);
+                out.name("caller_id").value(value.callerId);
+                out.name("accepted").value(value.accepted);
+                out.name("sender_public_video_ip").value(value.publicVideoIp);
+                out.name("sender_udp_video_port").value(value.udpVideoPort);
+                out.name("sender_public_audio_ip").value(value.publicAudioIp);
+                out.name("sender_udp_audio_port").value(value.udpAudioPort);
+            }
+        }
+    }
+
+    /**
+     * Base for the payload adapters: walks the object and hands each key to {@link #readField}, skipping
+     * keys it does not claim. Writing emits the same keys through {@link #writeFields}, so a payload can be
+     * logged or built with the shared Gson and read back unchanged.
+     */
+    abstract static class PayloadAdapter<T> extends TypeAdapter<T> {
+        abstract T create();
+
+        abstract boolean readField(T target, String name, JsonReader in) throws IOException;
+
+        abstract void writeFields(T value, JsonWriter out) throws IOException;
+
+        @Override
+        public T read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            T target = create();
+            in.beginObject();
+            while (in.hasNext()) {
+                if (!readField(target, in.nextName(), in)) {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+            return target;
+        }
+
+        @Override
+        public void write(JsonWriter out, T value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            writeFields(value, out);
+            out.endObject();
+        }
+
+        // Writes the key even when the writer drops nulls, since a null here means "clear".
+        static void writeNullable(JsonWriter out, String name, String value) throws IOException {
+            out.name(name);
+            if (value == null) {
+                boolean serializeNulls = out.getSerializeNulls();
+                out.setSerializeNulls(true);
+                out.nullValue();
+                out.setSerializeNulls(serializeNulls);
+            } else {
+                out.value(value);
+            }
+        }
+
+        static int readInt(JsonReader in) throws IOException {
+            JsonToken token = in.peek();
+            if (token == JsonToken.NULL) {
+                in.nextNull();
+                return 0;
+            }
+            if (token == JsonToken.STRING) {
+                // Older clients send ports as strings, possibly formatted as doubles ("5000.0").
+                return (int) Double.parseDouble(in.nextString());
+            }
+            return (int) in.nextDouble();
+        }
+
+        // Generated ids use all 64 bits, beyond what a double holds exactly, so they are parsed as text.
+        static long readLong(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return 0;
+            }
+            String number = in.nextString();
+            try {
+                return Long.parseLong(number);
+            } catch (NumberFormatException e) {
+                return (long) Double.parseDouble(number);
+            }
+        }
+
+        static String readString(JsonReader in) throws IOException {
+            JsonToken token = in.peek();
+            if (token == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            if (token == JsonToken.NUMBER) {
+                // Ids sent as numbers but read as text keep their integer form ("5", not "5.0").
+                String number = in.nextString();
+                return number.endsWith(".0") ? number.substring(0, number.length() - 2) : number;
+            }
+            return in.nextString();
+        }
+
+        static boolean readBoolean(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return false;
+            }
+            return in.nextBoolean();
+        }
+    }
+}
@@ -3,14 +3,35 @@ package orgs.protocol;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.gson.TypeAdapter;
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 import orgs.utils.LocalDateTimeAdapter;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.time.LocalDateTime;
 
+/**
+ * Server to client envelope.
+ * <p>
+ * For version 1 clients {@code data} is a JSON string holding the encoded data object. For version 2
+ * clients ({@link Request#VERSION_2}) {@code data} is embedded as a JSON value and the whole envelope is
+ * written in one streaming pass by {@link #writeTo(Writer, int)}. Handlers should build responses with
+ * {@link #of(boolean, String, Object)} so the data object is only encoded once, in the format the
+ * receiving client asked for.
+ */
+@JsonAdapter(Response.Adapter.class)
 public class Response {
     private boolean success;
     private String message;
     private String data; // Stores the JSON string representation of the response data object
+    private Object dataObject; // Not yet encoded data, see of(...)
+    private String requestId; // Id of the request this answers; null for server pushes
 
     // Use a static Gson instance for consistent serialization
     private static final Gson gson = new GsonBuilder()
@@ -24,6 +45,15 @@ public class Response {
         this.data = data;
     }
 
+    /**
+     * Builds a response around a data object that is encoded lazily, once, when the response is written.
+     */
+    public static Response of(boolean success, String message, Object data) {
+        Response response = new Response(success, message, null);
+        response.dataObject = data;
+        return response;
+    }
+
     public boolean isSuccess() {
         return success;
     }
@@ -32,7 +62,18 @@ public class Response {
         return message;
     }
 
+    public String getRequestId() {
+        return requestId;
+    }
+
+    public void setRequestId(String requestId) {
+        this.requestId = requestId;
+    }
+
     public String getData() {
+        if (data == null && dataObject != null) {
+            data = gson.toJson(dataObject);
+        }
         return data;
     }
 
@@ -41,13 +82,108 @@ public class Response {
         return gson.toJson(this);
     }
 
+    /**
+     * Streams the envelope for a client speaking the given protocol version. Version 2 embeds the data
+     * object directly, so it is serialized once and never escaped into a string.
+     */
+    public void writeTo(Writer writer, int version) throws IOException {
+        if (version < Request.VERSION_2) {
+            gson.toJson(this, Response.class, writer);
+            return;
+        }
+        JsonWriter out = new JsonWriter(writer);
+        out.setSerializeNulls(true);
+        out.beginObject();
+        out.name("v").value(version);
+        if (requestId != null) {
+            out.name("id").value(requestId);
+        }
+        out.name("success").value(success);
+        out.name("message").value(message);
+        out.name("data");
+        if (dataObject != null) {
+            gson.toJson(dataObject, dataObject.getClass(), out);
+        } else if (data != null) {
+            out.jsonValue(data);
+        } else {
+            out.nullValue();
+        }
+        out.endObject();
+        out.flush();
+    }
+
     // For debugging/logging
     @Override
     public String toString() {
         return "Response{" +
                 "success=" + success +
                 ", message='" + message + '\'' +
-                ", data='" + data + '\'' +
+                ", data='" + getData() + '\'' +
                 '}';
     }
-}
\ No newline at end of file
+
+    /**
+     * Writes the version 1 envelope; reads either version, keeping embedded data as its JSON text.
+     */
+    public static final class Adapter extends TypeAdapter<Response> {
+        @Override
+        public void write(JsonWriter out, Response response) throws IOException {
+            if (response == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            if (response.requestId != null) {
+                out.name("id").value(response.requestId);
+            }
+            out.name("success").value(response.success);
+            out.name("message").value(response.message);
+            out.name("data").value(response.getData());
+            out.endObject();
+        }
+
+        @Override
+        public Response read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            Response response = new Response(false, null, null);
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "id":
+                        response.requestId = readNullableString(in);
+                        break;
+                    case "success":
+                        response.success = in.nextBoolean();
+                        break;
+                    case "message":
+                        response.message = readNullableString(in);
+                        break;
+                    case "data":
+                        JsonToken token = in.peek();
+                        if (token == JsonToken.STRING || token == JsonToken.NULL) {
+                            response.data = readNullableString(in);
+                        } else {
+                            JsonElement tree = JsonParser.parseReader(in);
+                            response.data = tree.toString();
+                        }
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return response;
+        }
+
+        private static String readNullableString(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            return in.nextString();
+        }
+    }
+}
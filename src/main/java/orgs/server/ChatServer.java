@@ -76,9 +76,9 @@ public class ChatServer {
         String mediaType;
         String caption; // Now corresponds to Message.content for media messages
         String transferId; // Add transferId to metadata for easier lookup/logging
-        int mediaID ;
+        long mediaID ;
         Media messageMedia ;
-        public FileTransferMetadata(int senderId, int chatId, String fileName, long fileSize, String mediaType, String caption, String transferId ,int mediaID ,Media messageMedia) {
+        public FileTransferMetadata(int senderId, int chatId, String fileName, long fileSize, String mediaType, String caption, String transferId ,long mediaID ,Media messageMedia) {
             this.senderId = senderId;
             this.chatId = chatId;
             this.fileName = fileName;
@@ -190,10 +190,10 @@ public class ChatServer {
         private String transferId; // The UUID used for this transfer
         private MessageDao messageDao;
         private ChatServer server;
-        private int mediaId ;// Reference to the outer class
+        private long mediaId ;// Reference to the outer class
         private Media media;
 
-        public FileTransferHandler(Socket fileSocket, int senderId, int chatId, String fileName, long fileSize, String mediaType, String caption, String transferId, MessageDao messageDao, ChatServer server, int mediaId, Media media) {
+        public FileTransferHandler(Socket fileSocket, int senderId, int chatId, String fileName, long fileSize, String mediaType, String caption, String transferId, MessageDao messageDao, ChatServer server, long mediaId, Media media) {
             this.fileSocket = fileSocket;
             this.senderId = senderId;
             this.chatId = chatId;
@@ -249,7 +249,7 @@ public class ChatServer {
                     // Create and set the Media object
                     message.setMedia(media);
 
-                    int messageId = messageDao.createMessage(message);
+                    long messageId = messageDao.createMessage(message);
 
                     if (messageId != -1) {
                         message.setId(messageId);
@@ -519,7 +519,7 @@ public class ChatServer {
 
                     String transferId = UUID.randomUUID().toString();
                     mediaPayload.setFilePathOrUrl(transferId+"_"+mediaPayload.getFileName());
-                    int mediaID = mediaDao.createMedia(mediaPayload);
+                    long mediaID = mediaDao.createMedia(mediaPayload);
                     System.out.println(" ************************* "+ mediaID);
                     mediaPayload.setId(mediaID);
                     FileTransferMetadata metadata = new FileTransferMetadata(
@@ -547,7 +547,7 @@ public class ChatServer {
                     message.setViewCount(0);
                     message.setMedia(null); // Explicitly set media to null for text messages
 
-                    int messageId = messageDao.createMessage(message);
+                    long messageId = messageDao.createMessage(message);
 
                     if (messageId != -1 ) {
                         message.setId(messageId);
@@ -732,17 +732,7 @@ public class ChatServer {
 
                 List<Message> messages = messageDao.getChatMessages(chatId, limit, offset);
 
-                for (Message msg : messages) {
-                    if (msg.getMediaId() != null){
-                         Media media =new Media();
-                        msg.setMedia( mediaDao.getMediaById(msg.getMediaId().intValue()).get() );
-//                        System.out.println(media.toString());
-                    }
-                    if (msg.getSenderId() != currentUserId) {
-                        messageDao.incrementViewCount(msg.getId());
-                    }
-                    //notificationDao.markMessageNotificationsAsRead(currentUserId, msg.getId());
-                }
+                messageDao.recordViews(messages, currentUserId);
 
                 return new Response(true, "Messages retrieved.", gson.toJson(messages));
             } catch (SQLException e) {
@@ -764,17 +754,7 @@ public class ChatServer {
 
                 List<Message> messages = messageDao.getMessagesAfterId(chatId, lastMessageId);
 
-                for (Message msg : messages) {
-                    if (msg.getMediaId() != null){
-                        Media media =new Media();
-                        msg.setMedia( mediaDao.getMediaById(msg.getMediaId().intValue()).get() );
-//                        System.out.println(media.toString());
-                    }
-                    if (msg.getSenderId() != currentUserId) {
-                        messageDao.incrementViewCount(msg.getId());
-                    }
-                    //notificationDao.markMessageNotificationsAsRead(currentUserId, msg.getId());
-                }
+                messageDao.recordViews(messages, currentUserId);
 
                 return new Response(true, "Messages retrieved.", gson.toJson(messages));
             } catch (SQLException e) {
@@ -76,9 +76,9 @@ public class ChatServer2 {
         String mediaType;
         String caption; // Now corresponds to Message.content for media messages
         String transferId; // Add transferId to metadata for easier lookup/logging
-        int mediaID ;
+        long mediaID ;
 
-        public FileTransferMetadata(int senderId, int chatId, String fileName, long fileSize, String mediaType, String caption, String transferId ,int mediaID) {
+        public FileTransferMetadata(int senderId, int chatId, String fileName, long fileSize, String mediaType, String caption, String transferId ,long mediaID) {
             this.senderId = senderId;
             this.chatId = chatId;
             this.fileName = fileName;
@@ -251,10 +251,10 @@ public class ChatServer2 {
         private String transferId; // The UUID used for this transfer
         private MessageDao messageDao;
         private ChatServer2 server;
-        private int mediaId ;// Reference to the outer class
+        private long mediaId ;// Reference to the outer class
 
 
-        public FileTransferHandler(Socket fileSocket, int senderId, int chatId, String fileName, long fileSize, String mediaType, String caption, String transferId, MessageDao messageDao, ChatServer2 server, int mediaId) {
+        public FileTransferHandler(Socket fileSocket, int senderId, int chatId, String fileName, long fileSize, String mediaType, String caption, String transferId, MessageDao messageDao, ChatServer2 server, long mediaId) {
             this.fileSocket = fileSocket;
             this.senderId = senderId;
             this.chatId = chatId;
@@ -315,7 +315,7 @@ public class ChatServer2 {
 
                     message.setMedia(media);
 
-                    int messageId = messageDao.createMessage(message);
+                    long messageId = messageDao.createMessage(message);
 
                     if (messageId != -1) {
                         message.setId(messageId);
@@ -590,7 +590,7 @@ public class ChatServer2 {
 
                     String transferId = UUID.randomUUID().toString();
                     mediaPayload.setFilePathOrUrl(transferId+"_"+mediaPayload.getFileName());
-                    int mediaID = mediaDao.createMedia(mediaPayload);
+                    long mediaID = mediaDao.createMedia(mediaPayload);
                     System.out.println(" ************************* "+ mediaID);
                     FileTransferMetadata metadata = new FileTransferMetadata(
                             currentUserId, chatId, mediaPayload.getFileName(), mediaPayload.getFileSize(),
@@ -617,7 +617,7 @@ public class ChatServer2 {
                     message.setViewCount(0);
                     message.setMedia(null); // Explicitly set media to null for text messages
 
-                    int messageId = messageDao.createMessage(message);
+                    long messageId = messageDao.createMessage(message);
 
                     if (messageId != -1) {
                         message.setId(messageId);
@@ -920,17 +920,7 @@ public class ChatServer2 {
 
                 List<Message> messages = messageDao.getChatMessages(chatId, limit, offset);
 
-                for (Message msg : messages) {
-                    if (msg.getMediaId() != null){
-                        Media media =new Media();
-                        msg.setMedia( mediaDao.getMediaById(msg.getMediaId().intValue()).get() );
-//                        System.out.println(media.toString());
-                    }
-                    if (msg.getSenderId() != currentUserId) {
-                        messageDao.incrementViewCount(msg.getId());
-                    }
-                    //notificationDao.markMessageNotificationsAsRead(currentUserId, msg.getId());
-                }
+                messageDao.recordViews(messages, currentUserId);
 
                 return new Response(true, "Messages retrieved.", gson.toJson(messages));
             } catch (SQLException e) {
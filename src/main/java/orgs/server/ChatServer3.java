@@ -2,25 +2,49 @@ package orgs.server;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import com.google.gson.reflect.TypeToken;
 import orgs.dao.*;
 import orgs.model.*;
 import orgs.protocol.Command;
+import orgs.protocol.EncodedResponse;
+import orgs.protocol.FrameCodec;
+import orgs.protocol.MessagePage;
 import orgs.protocol.Request;
+import orgs.protocol.RequestPayloads;
 import orgs.protocol.Response;
+import orgs.utils.DatabaseConnection;
 import orgs.utils.FileStorageManager;
+import orgs.utils.FileTransfers;
+import orgs.utils.IntHashSet;
 import orgs.utils.LocalDateTimeAdapter;
 
 import java.io.*;
-import java.lang.reflect.Type;
 import java.net.*;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
 import java.sql.SQLException;
 import java.time.LocalDateTime;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import static orgs.protocol.Command.LOGIN;
 
@@ -28,8 +52,51 @@ import static orgs.protocol.Command.LOGIN;
 public class ChatServer3 {
     private static final int PORT = 6373;
     private static final int FILE_TRANSFER_PORT = 6374;
-    private ExecutorService commandPool = Executors.newFixedThreadPool(10);
-    private ExecutorService fileTransferPool = Executors.newCachedThreadPool();
+    private static final int MAX_TRANSFER_ID_LENGTH = 256;
+    // An interrupted upload can be resumed for this long after its last connection ended; then its partial
+    // file is deleted.
+    private static final long PARTIAL_UPLOAD_TTL_MILLIS = Long.getLong("tuasl.files.partialUploadTtlHours", 24) * 3_600_000L;
+    // Chunk size offered to clients for parallel uploads; see ChunkedUploadHandler.
+    private static final int UPLOAD_CHUNK_BYTES = Integer.getInteger("tuasl.files.uploadChunkBytes", 4 * 1024 * 1024);
+
+    // "nio" serves every command connection from a few selector threads; "virtual" runs the
+    // blocking ClientHandler2 and the file handlers on one virtual thread each; "blocking" keeps
+    // the original fixed thread-per-connection listener.
+    private static final String COMMAND_SERVER_MODE = System.getProperty("tuasl.command.mode", "nio");
+    private static final boolean VIRTUAL_THREADS = "virtual".equals(COMMAND_SERVER_MODE);
+    private static final int COMMAND_EVENT_LOOPS = Integer.getInteger("tuasl.command.eventLoops",
+            Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    private static final int COMMAND_WORKER_THREADS = Integer.getInteger("tuasl.command.workers", 32);
+    // Requests that carry an id may run concurrently, up to this many per connection.
+    private static final int MAX_IN_FLIGHT_REQUESTS = Integer.getInteger("tuasl.command.maxInFlight", 16);
+    // Page size for cursor-mode GET_CHAT_MESSAGES when the client asks for none, and the most it may ask for.
+    private static final int DEFAULT_MESSAGE_PAGE = 50;
+    private static final int MAX_MESSAGE_PAGE = Integer.getInteger("tuasl.messages.maxPageSize", 200);
+    // These change the session, so they never overlap with other requests of the same connection.
+    private static final EnumSet<Command> SESSION_COMMANDS = EnumSet.of(LOGIN, Command.REGISTER, Command.LOGOUT, Command.DELETE_USER);
+    // Pushes (messages from other users, call signalling) a connection may have waiting to be written.
+    // Beyond that the client is a slow consumer: "disconnect" closes it so it resyncs on reconnect,
+    // "drop" discards the push, "offline" stores it as a notification instead.
+    private static final int MAX_QUEUED_PUSHES = Integer.getInteger("tuasl.command.maxQueuedPushes", 1024);
+    private static final String SLOW_CONSUMER_POLICY = System.getProperty("tuasl.command.slowConsumerPolicy", "disconnect");
+    // Bytes a connection may have waiting to be written, replies included. Replies cannot be dropped or
+    // stored for later, so a client this far behind is disconnected whatever the policy above says.
+    private static final long MAX_QUEUED_BYTES = Long.getLong("tuasl.command.maxQueuedBytes", 16L * 1024 * 1024);
+
+    private ExecutorService commandPool = createCommandPool();
+    private NioCommandServer nioCommandServer;
+    // Runs pipelined requests; the command pool's threads are busy reading connections.
+    private ExecutorService pipelinePool = VIRTUAL_THREADS
+            ? Executors.newVirtualThreadPerTaskExecutor()
+            : Executors.newFixedThreadPool(COMMAND_WORKER_THREADS);
+    // Starts the SocketWriter of each connection served by the blocking or virtual-thread listener.
+    private final ThreadFactory commandWriterThreads = VIRTUAL_THREADS
+            ? Thread.ofVirtual().name("CommandWriter-", 0).factory()
+            : Thread.ofPlatform().daemon().name("CommandWriter-", 0).factory();
+    private final OutboundMetrics outboundMetrics = new OutboundMetrics();
+    private ExecutorService fileTransferPool = VIRTUAL_THREADS
+            ? Executors.newVirtualThreadPerTaskExecutor()
+            : Executors.newCachedThreadPool();
 
     private UserDao userDao = new UserDao();
     private MessageDao messageDao = new MessageDao();
@@ -38,6 +105,7 @@ public class ChatServer3 {
     private ContactDao contactDao = new ContactDao();
     private NotificationDao notificationDao = new NotificationDao();
     private MediaDao mediaDao = new MediaDao();
+    private ChatAccessCache chatAccessCache = ChatAccessCache.getInstance();
 
     private Gson gson = new GsonBuilder()
             .registerTypeAdapter(LocalDateTime.class, new LocalDateTimeAdapter())
@@ -71,9 +139,9 @@ public class ChatServer3 {
         String mediaType;
         String caption;
         String transferId;
-        int mediaID;
+        long mediaID;
 
-        public FileTransferMetadata(int senderId, int chatId, String fileName, long fileSize, String mediaType, String caption, String transferId, int mediaID) {
+        public FileTransferMetadata(int senderId, int chatId, String fileName, long fileSize, String mediaType, String caption, String transferId, long mediaID) {
             this.senderId = senderId;
             this.chatId = chatId;
             this.fileName = fileName;
@@ -83,10 +151,151 @@ public class ChatServer3 {
             this.transferId = transferId;
             this.mediaID = mediaID;
         }
+
+        // Uploads only. The bytes known to be on disk in the partial file, which a RESUME continues from.
+        long committed;
+        boolean completed;
+        // Set once the upload is sent in chunks: which of them are written, and their size (the last may be shorter).
+        BitSet chunks;
+        long chunkSize;
+        // Chunked connections currently open; the sweep leaves the upload alone while there are any.
+        final Set<SocketChannel> chunkChannels = ConcurrentHashMap.newKeySet();
+        // Under lock: chunks being written right now, and whether the last chunk is in so no more may start.
+        // The file is only hashed and moved into the blob store once sealed with no writers left.
+        int chunkWriters;
+        volatile boolean sealed;
+        volatile long lastActivity = System.currentTimeMillis();
+        // Held by the connection writing the upload. A reconnect closes the previous connection so the lock
+        // is released as soon as its read fails.
+        final ReentrantLock lock = new ReentrantLock();
+        final AtomicReference<SocketChannel> activeChannel = new AtomicReference<>();
+        final Condition chunkWritten = lock.newCondition();
+
+        Path partialFile() {
+            return Paths.get(FileStorageManager.getUploadDirectory(), transferId + "_" + fileName + ".part");
+        }
+
+        Path stateFile() {
+            return stateFile(transferId);
+        }
+
+        static Path stateFile(String transferId) {
+            return Paths.get(FileStorageManager.getUploadDirectory(), transferId + ".upload");
+        }
+
+        // Written next to the partial file, so an upload can still be resumed after a restart.
+        void saveState() throws IOException {
+            Properties state = new Properties();
+            state.setProperty("senderId", Integer.toString(senderId));
+            state.setProperty("chatId", Integer.toString(chatId));
+            state.setProperty("fileName", fileName);
+            state.setProperty("fileSize", Long.toString(fileSize));
+            state.setProperty("mediaId", Long.toString(mediaID));
+            state.setProperty("committed", Long.toString(committed));
+            if (chunks != null) {
+                state.setProperty("chunkSize", Long.toString(chunkSize));
+                state.setProperty("chunks", Base64.getEncoder().encodeToString(chunks.toByteArray()));
+            }
+            if (mediaType != null) {
+                state.setProperty("mediaType", mediaType);
+            }
+            if (caption != null) {
+                state.setProperty("caption", caption);
+            }
+            Path temp = Paths.get(FileStorageManager.getUploadDirectory(), transferId + ".upload.tmp");
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                state.store(out, null);
+            }
+            Files.move(temp, stateFile(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        // Null unless transferId is one this server issued (a UUID) and its state file exists.
+        static FileTransferMetadata loadState(String transferId) throws IOException {
+            try {
+                if (!UUID.fromString(transferId).toString().equals(transferId)) {
+                    return null;
+                }
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+            Path path = stateFile(transferId);
+            if (!Files.isRegularFile(path)) {
+                return null;
+            }
+            Properties state = new Properties();
+            try (InputStream in = Files.newInputStream(path)) {
+                state.load(in);
+            }
+            FileTransferMetadata metadata = new FileTransferMetadata(
+                    Integer.parseInt(state.getProperty("senderId")), Integer.parseInt(state.getProperty("chatId")),
+                    state.getProperty("fileName"), Long.parseLong(state.getProperty("fileSize")),
+                    state.getProperty("mediaType"), state.getProperty("caption"), transferId,
+                    Long.parseLong(state.getProperty("mediaId")));
+            Path partial = metadata.partialFile();
+            metadata.committed = Files.exists(partial)
+                    ? Math.min(Long.parseLong(state.getProperty("committed", "0")), Files.size(partial))
+                    : 0;
+            if (state.getProperty("chunkSize") != null) {
+                metadata.chunkSize = Long.parseLong(state.getProperty("chunkSize"));
+                metadata.chunks = BitSet.valueOf(Base64.getDecoder().decode(state.getProperty("chunks", "")));
+            }
+            metadata.lastActivity = Files.getLastModifiedTime(path).toMillis();
+            return metadata;
+        }
+
+        int chunkCount() {
+            return (int) ((fileSize + chunkSize - 1) / chunkSize);
+        }
+
+        long chunkLength(int index) {
+            return Math.min(chunkSize, fileSize - index * chunkSize);
+        }
+
+        // The chunks still to come, as "0-3,7,9-12"; empty when there are none.
+        String missingChunks() {
+            StringBuilder missing = new StringBuilder();
+            int count = chunkCount();
+            int from = chunks.nextClearBit(0);
+            while (from < count) {
+                int next = chunks.nextSetBit(from);
+                int to = next < 0 || next > count ? count : next;
+                if (missing.length() > 0) {
+                    missing.append(',');
+                }
+                missing.append(from);
+                if (to - 1 > from) {
+                    missing.append('-').append(to - 1);
+                }
+                from = chunks.nextClearBit(to);
+            }
+            return missing.toString();
+        }
+
+        void discard() {
+            try {
+                Files.deleteIfExists(partialFile());
+                Files.deleteIfExists(stateFile());
+            } catch (IOException e) {
+                System.err.println("Failed to delete partial upload " + transferId + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private static ExecutorService createCommandPool() {
+        switch (COMMAND_SERVER_MODE) {
+            case "virtual":
+                return Executors.newVirtualThreadPerTaskExecutor();
+            case "blocking":
+                return Executors.newFixedThreadPool(10);
+            default:
+                return Executors.newFixedThreadPool(COMMAND_WORKER_THREADS);
+        }
     }
 
     public ChatServer3() {
         FileStorageManager.createUploadDirectory();
+        deleteStalePartialUploads();
+        openMessageJournal();
         try {
             videoRelaySocket = new DatagramSocket(VIDEO_RELAY_PORT);
             System.out.println("Video Relay Server initialized on UDP port " + VIDEO_RELAY_PORT);
@@ -96,6 +305,69 @@ public class ChatServer3 {
         }
     }
 
+    // Messages a crash left in the journal are stored before clients can ask for history.
+    private static void openMessageJournal() {
+        try {
+            MessageJournal journal = MessageJournal.openIfEnabled();
+            if (journal == null) {
+                return;
+            }
+            if (!journal.awaitApplied(30_000)) {
+                System.err.println("Message journal replay is still running in the background: " + journal);
+            }
+            System.out.println("Message journal opened: " + journal);
+        } catch (IOException e) {
+            System.err.println("Failed to open the message journal, messages go to the database directly: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Partial uploads left by an earlier run that have not been touched within the TTL.
+    private static void deleteStalePartialUploads() {
+        long cutoff = System.currentTimeMillis() - PARTIAL_UPLOAD_TTL_MILLIS;
+        int deleted = 0;
+        try (DirectoryStream<Path> states = Files.newDirectoryStream(Paths.get(FileStorageManager.getUploadDirectory()), "*.upload")) {
+            for (Path state : states) {
+                if (Files.getLastModifiedTime(state).toMillis() >= cutoff) {
+                    continue;
+                }
+                String name = state.getFileName().toString();
+                FileTransferMetadata upload = FileTransferMetadata.loadState(name.substring(0, name.length() - ".upload".length()));
+                if (upload != null) {
+                    upload.discard();
+                } else {
+                    Files.deleteIfExists(state);
+                }
+                deleted++;
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Failed to clean up partial uploads: " + e.getMessage());
+        }
+        if (deleted > 0) {
+            System.out.println("Deleted " + deleted + " expired partial uploads.");
+        }
+    }
+
+    // Uploads nobody has resumed within the TTL. Called when a new upload is registered.
+    private void sweepPartialUploads() {
+        long cutoff = System.currentTimeMillis() - PARTIAL_UPLOAD_TTL_MILLIS;
+        for (FileTransferMetadata upload : pendingFileTransfers.values()) {
+            if (upload.lastActivity >= cutoff || upload.activeChannel.get() != null || !upload.chunkChannels.isEmpty()
+                    || !upload.lock.tryLock()) {
+                continue;
+            }
+            try {
+                if (upload.activeChannel.get() == null && upload.chunkChannels.isEmpty()
+                        && pendingFileTransfers.remove(upload.transferId, upload)) {
+                    upload.discard();
+                }
+            } finally {
+                upload.lock.unlock();
+            }
+        }
+    }
+
     private void runVideoRelayServer() {
         byte[] buffer = new byte[65507]; // Max UDP packet size
         DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
@@ -144,14 +416,70 @@ public class ChatServer3 {
         if (videoRelayThread != null) {
             videoRelayThread.interrupt();
         }
+        if (nioCommandServer != null) {
+            nioCommandServer.stop();
+        }
         commandPool.shutdownNow();
+        pipelinePool.shutdownNow();
         fileTransferPool.shutdownNow();
+        System.out.println("Outbound queues at shutdown: " + getOutboundStats());
+        System.out.println("Membership index at shutdown: " + ChatMembershipIndex.getInstance());
+        System.out.println("Recent messages at shutdown: " + RecentMessageCache.getInstance());
+        System.out.println("User cache at shutdown: " + UserCache.getInstance());
+        System.out.println("Chat access cache at shutdown: " + chatAccessCache);
+        System.out.println("File transfers at shutdown: " + FileTransfers.getInstance());
+        // Journaled messages, queued message inserts and buffered view counts need the pool, so they are
+        // written before it closes.
+        MessageJournal journal = MessageJournal.getInstance();
+        if (journal != null) {
+            journal.close();
+            System.out.println("Message journal at shutdown: " + journal);
+        }
+        MessageWriteBatcher.getInstance().close();
+        System.out.println("Message writes at shutdown: " + MessageWriteBatcher.getInstance());
+        ViewCountAggregator.getInstance().close();
+        System.out.println("View counts at shutdown: " + ViewCountAggregator.getInstance());
+        System.out.println("Database pool at shutdown: " + DatabaseConnection.getPool());
+        DatabaseConnection.closeConnection();
+    }
+
+    /**
+     * Outbound queue metrics: frames currently waiting across logged-in connections, the peak depth
+     * seen by a single connection, and what the slow-consumer policy has done so far.
+     */
+    public String getOutboundStats() {
+        long queued = 0;
+        for (ClientHandler2 handler : loggedInUsers.values()) {
+            queued += handler.getQueuedFrames();
+        }
+        return "queuedFrames=" + queued + ", " + outboundMetrics;
     }
 
     public void start() {
+        if ("blocking".equals(COMMAND_SERVER_MODE) || VIRTUAL_THREADS) {
+            startBlockingCommandListener();
+        } else {
+            nioCommandServer = new NioCommandServer(PORT, COMMAND_EVENT_LOOPS, commandPool, new CommandConnectionHandler());
+            try {
+                nioCommandServer.start();
+            } catch (IOException e) {
+                System.err.println("Command Server error: " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+
+        startFileTransferListener();
+
+        if (videoRelaySocket != null) {
+            videoRelayThread = new Thread(this::runVideoRelayServer, "VideoRelayServer");
+            videoRelayThread.start();
+        }
+    }
+
+    private void startBlockingCommandListener() {
         new Thread(() -> {
             try (ServerSocket serverSocket = new ServerSocket(PORT)) {
-                System.out.println("Chat Server started on command port " + PORT);
+                System.out.println("Chat Server started on command port " + PORT + " (" + COMMAND_SERVER_MODE + " mode)");
                 while (true) {
                     Socket clientSocket = serverSocket.accept();
                     System.out.println("New client connected (command): " + clientSocket.getInetAddress().getHostAddress());
@@ -165,40 +493,96 @@ public class ChatServer3 {
                 commandPool.shutdown();
             }
         }, "CommandServerListener").start();
+    }
+
+    private class CommandConnectionHandler implements NioCommandServer.ConnectionHandler {
+        @Override
+        public void onOpen(NioCommandServer.Connection connection) {
+            System.out.println("New client connected (command): " + connection.getRemoteAddress());
+            connection.setAttachment(new ClientHandler2(connection));
+        }
 
+        @Override
+        public void onMessage(NioCommandServer.Connection connection, String message) {
+            ((ClientHandler2) connection.getAttachment()).handleLine(message);
+        }
+
+        @Override
+        public void onClose(NioCommandServer.Connection connection) {
+            ClientHandler2 handler = (ClientHandler2) connection.getAttachment();
+            if (handler != null) {
+                handler.releaseSession();
+            }
+        }
+    }
 
+    // Connections are accepted as channels so downloads can be sent with FileChannel.transferTo.
+    private void startFileTransferListener() {
         new Thread(() -> {
-            try (ServerSocket fileTransferServerSocket = new ServerSocket(FILE_TRANSFER_PORT)) {
+            try (ServerSocketChannel fileTransferServerChannel = ServerSocketChannel.open()) {
+                fileTransferServerChannel.bind(new InetSocketAddress(FILE_TRANSFER_PORT));
                 System.out.println("File Transfer Server started on port " + FILE_TRANSFER_PORT);
                 while (true) {
-                    Socket fileClientSocket = fileTransferServerSocket.accept();
+                    SocketChannel fileClientChannel = fileTransferServerChannel.accept();
+                    Socket fileClientSocket = fileClientChannel.socket();
                     System.out.println("New client connected (file transfer): " + fileClientSocket.getInetAddress().getHostAddress());
 
                     try {
-                        BufferedReader fileIn = new BufferedReader(new InputStreamReader(fileClientSocket.getInputStream()));
-                        String transferId = fileIn.readLine();
+                        // "<transferId>", "<transferId> RESUME" or "<transferId> CHUNKS" for an upload, "<transferId> <start> [<length>]" for a download.
+                        String line = readTransferId(fileClientChannel);
+                        String[] parts = line == null ? new String[0] : line.trim().split(" +");
+                        String transferId = parts.length == 0 ? null : parts[0];
                         if (transferId == null || transferId.isEmpty()) {
                             System.err.println("File transfer: Received empty or null transferId from " + fileClientSocket.getInetAddress());
                             fileClientSocket.close();
                             continue;
                         }
 
-                        FileTransferMetadata uploadMetadata = pendingFileTransfers.remove(transferId);
+                        // Uploads stay registered until they complete, so a dropped connection can be resumed.
+                        FileTransferMetadata uploadMetadata = pendingFileTransfers.get(transferId);
+                        if (uploadMetadata == null) {
+                            FileTransferMetadata saved = FileTransferMetadata.loadState(transferId);
+                            if (saved != null) {
+                                FileTransferMetadata existing = pendingFileTransfers.putIfAbsent(transferId, saved);
+                                uploadMetadata = existing != null ? existing : saved;
+                            }
+                        }
+                        if (uploadMetadata != null && parts.length > 1 && parts[1].equalsIgnoreCase("CHUNKS")) {
+                            System.out.println("File transfer: Chunked upload connection for file " + uploadMetadata.fileName + " (transferId: " + transferId + ")");
+                            fileTransferPool.execute(new ChunkedUploadHandler(fileClientChannel, uploadMetadata, messageDao));
+                            continue;
+                        }
                         if (uploadMetadata != null) {
-                            System.out.println("File transfer: Initiating upload for file " + uploadMetadata.fileName + " (transferId: " + transferId + ")");
+                            boolean resume = parts.length > 1 && parts[1].equalsIgnoreCase("RESUME");
+                            System.out.println("File transfer: " + (resume ? "Resuming" : "Initiating") + " upload for file " + uploadMetadata.fileName + " (transferId: " + transferId + ")");
+                            SocketChannel previous = uploadMetadata.activeChannel.getAndSet(fileClientChannel);
+                            if (previous != null) {
+                                previous.close();
+                            }
                             fileTransferPool.execute(new FileTransferHandler(
-                                    fileClientSocket, uploadMetadata.senderId, uploadMetadata.chatId,
-                                    uploadMetadata.fileName, uploadMetadata.fileSize,
-                                    uploadMetadata.mediaType, uploadMetadata.caption,
-                                    uploadMetadata.transferId, messageDao, ChatServer3.this, uploadMetadata.mediaID));
+                                    fileClientChannel, uploadMetadata, resume, messageDao, ChatServer3.this));
                             continue;
                         }
 
                         FileTransferMetadata downloadMetadata = pendingFileDownloads.remove(transferId);
                         if (downloadMetadata != null) {
-                            System.out.println("File transfer: Initiating download for file " + downloadMetadata.fileName + " (transferId: " + transferId + ")");
+                            long start;
+                            long length;
+                            try {
+                                start = parts.length > 1 ? Long.parseLong(parts[1]) : 0;
+                                length = parts.length > 2 ? Long.parseLong(parts[2]) : -1;
+                            } catch (NumberFormatException e) {
+                                start = -1;
+                                length = -1;
+                            }
+                            if (start < 0 || (parts.length > 2 && length < 0)) {
+                                fileClientChannel.write(ByteBuffer.wrap("Invalid range\n".getBytes(StandardCharsets.UTF_8)));
+                                fileClientSocket.close();
+                                continue;
+                            }
+                            System.out.println("File transfer: Initiating download for file " + downloadMetadata.fileName + " (transferId: " + transferId + ", from byte " + start + ")");
                             fileTransferPool.execute(new FileDownloadHandler(
-                                    fileClientSocket, downloadMetadata.fileName, downloadMetadata.transferId));
+                                    fileClientChannel, downloadMetadata.fileName, downloadMetadata.transferId, start, length));
                             continue;
                         }
 
@@ -221,104 +605,287 @@ public class ChatServer3 {
                 fileTransferPool.shutdown();
             }
         }, "FileTransferServerListener").start();
+    }
 
-        if (videoRelaySocket != null) {
-            videoRelayThread = new Thread(this::runVideoRelayServer, "VideoRelayServer");
-            videoRelayThread.start();
+    // The first line of a file connection. Read a byte at a time so that none of the upload behind it is consumed.
+    private static String readTransferId(SocketChannel channel) throws IOException {
+        ByteBuffer single = ByteBuffer.allocate(1);
+        StringBuilder line = new StringBuilder();
+        while (line.length() < MAX_TRANSFER_ID_LENGTH) {
+            single.clear();
+            if (channel.read(single) < 0) {
+                return line.length() == 0 ? null : line.toString();
+            }
+            char c = (char) (single.get(0) & 0xFF);
+            if (c == '\n') {
+                break;
+            }
+            if (c != '\r') {
+                line.append(c);
+            }
+        }
+        return line.toString();
+    }
+
+    // Reads until buffer is full. False if the stream ends or fails first, which ends a chunked connection.
+    private static boolean readFully(SocketChannel channel, ByteBuffer buffer) {
+        buffer.clear();
+        try {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
         }
     }
 
 
+    /**
+     * Receives an upload into {@code <transferId>_<fileName>.part}, hashing it on the way, and moves it into
+     * the content store (see FileStorageManager) once every byte is there.
+     * A connection that drops leaves the partial file and records how much of it was written; the client
+     * can then reconnect with {@code <transferId> RESUME}, is told {@code OFFSET <n>} and sends the rest.
+     */
     private class FileTransferHandler implements Runnable {
-        private Socket fileSocket;
-        private int senderId;
-        private int chatId;
-        private String fileName;
-        private long fileSize;
-        private String mediaType;
-        private String caption;
-        private String transferId;
+        private SocketChannel fileChannel;
+        private FileTransferMetadata upload;
+        private boolean resume;
         private MessageDao messageDao;
         private ChatServer3 server;
-        private int mediaId;
 
 
-        public FileTransferHandler(Socket fileSocket, int senderId, int chatId, String fileName, long fileSize, String mediaType, String caption, String transferId, MessageDao messageDao, ChatServer3 server, int mediaId) {
-            this.fileSocket = fileSocket;
-            this.senderId = senderId;
-            this.chatId = chatId;
-            this.fileName = fileName;
-            this.fileSize = fileSize;
-            this.mediaType = mediaType;
-            this.caption = caption;
-            this.transferId = transferId;
+        public FileTransferHandler(SocketChannel fileChannel, FileTransferMetadata upload, boolean resume, MessageDao messageDao, ChatServer3 server) {
+            this.fileChannel = fileChannel;
+            this.upload = upload;
+            this.resume = resume;
             this.messageDao = messageDao;
             this.server = server;
-            this.mediaId = mediaId;
         }
 
         @Override
         public void run() {
-            String filePathOnServer = FileStorageManager.getUploadDirectory() + File.separator + transferId + "_" + fileName;
-            try (InputStream is = fileSocket.getInputStream();
-                 FileOutputStream fos = new FileOutputStream(filePathOnServer);
-                 PrintWriter fileOut = new PrintWriter(fileSocket.getOutputStream(), true)) {
-
-                byte[] buffer = new byte[4096];
-                int bytesRead;
-                long totalBytesReceived = 0;
-
-                System.out.println("Receiving file: " + fileName + " (" + fileSize + " bytes) to " + filePathOnServer);
+            String fileName = upload.fileName;
+            long fileSize = upload.fileSize;
+            upload.lock.lock();
+            try {
+                if (upload.activeChannel.get() != fileChannel) {
+                    return; // A newer connection for the same upload has taken over.
+                }
+                PrintWriter fileOut = new PrintWriter(fileChannel.socket().getOutputStream(), true);
+                if (upload.completed) {
+                    fileOut.println("File transfer complete: " + fileName);
+                    return;
+                }
+                if (upload.chunks != null) {
+                    fileOut.println("File transfer failed: Upload is being sent in chunks.");
+                    return;
+                }
 
-                while (totalBytesReceived < fileSize && (bytesRead = is.read(buffer, 0, (int) Math.min(buffer.length, fileSize - totalBytesReceived))) != -1) {
-                    fos.write(buffer, 0, bytesRead);
-                    totalBytesReceived += bytesRead;
+                Path partialFile = upload.partialFile();
+                long offset = resume ? upload.committed : 0;
+                if (resume) {
+                    fileOut.println("OFFSET " + offset);
+                }
+                System.out.println("Receiving file: " + fileName + " (" + fileSize + " bytes, from byte " + offset + ") to " + partialFile);
+
+                long totalBytesReceived;
+                MessageDigest digest = FileStorageManager.newContentDigest();
+                try (FileChannel file = FileChannel.open(partialFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    file.truncate(offset);
+                    // A resumed upload's hash starts with what the earlier connections wrote.
+                    FileTransfers.getInstance().digest(file, 0, offset, digest);
+                    // Straight from the socket into pooled direct buffers and on to the file, hashed on the way; see FileTransfers.
+                    totalBytesReceived = offset + FileTransfers.getInstance().receiveFile(fileChannel, file, offset, fileSize - offset, digest);
+                    file.force(false);
                 }
-                fos.flush();
+                upload.committed = totalBytesReceived;
+                upload.lastActivity = System.currentTimeMillis();
 
                 if (totalBytesReceived == fileSize) {
+                    finishUpload(upload, FileStorageManager.toContentHash(digest));
                     System.out.println("\nFile '" + fileName + "' received successfully. Size: " + totalBytesReceived + " bytes.");
                     fileOut.println("File transfer complete: " + fileName);
+                    saveMediaMessage(upload, messageDao);
 
-                    Message message = new Message();
-                    message.setChatId(chatId);
-                    message.setSenderId(senderId);
-                    message.setContent(caption);
-                    message.setSentAt(LocalDateTime.now());
-                    message.setViewCount(0);
-                    message.setMediaId(mediaId);
-                    mediaType = mediaType == null ? "text" : mediaType;
-                    message.setMessageType(mediaType);
+                } else {
+                    upload.saveState();
+                    System.err.println("\nFile transfer incomplete for '" + fileName + "'. Expected: " + fileSize + ", Received: " + totalBytesReceived + " (resumable)");
+                    fileOut.println("File transfer failed: Incomplete.");
+                }
 
-                    Media media = new Media();
-                    media.setMediaType(mediaType);
-                    media.setFileName(fileName);
-                    media.setFileSize(fileSize);
-                    media.setTransferId(transferId);
+            } catch (IOException e) {
+                System.err.println("Error during file transfer for " + fileName + ": " + e.getMessage());
+                e.printStackTrace();
+            } finally {
+                upload.activeChannel.compareAndSet(fileChannel, null);
+                upload.lock.unlock();
+                try {
+                    if (fileChannel != null && fileChannel.isOpen()) {
+                        fileChannel.close();
+                    }
+                } catch (IOException e) {
+                    System.err.println("Error closing file socket: " + e.getMessage());
+                }
+            }
+        }
 
-                    message.setMedia(media);
+    }
 
-                    int messageId = messageDao.createMessage(message);
 
-                    if (messageId != -1) {
-                        message.setId(messageId);
-                        //notifyChatParticipants(chatId, new Response(true, "New message received", gson.toJson(message)));
-                    } else {
-                        System.err.println("Failed to save media message metadata to DB for file: " + fileName);
+    // Called with upload.lock held once the partial file holds every byte. The file goes into the content
+    // store, or is dropped if the same content is already there, and the media row is pointed at the blob.
+    private void finishUpload(FileTransferMetadata upload, String contentHash) throws IOException {
+        Lock contentLock = FileStorageManager.lockContent(contentHash);
+        contentLock.lock();
+        try {
+            if (!FileStorageManager.storeBlob(upload.partialFile(), contentHash)) {
+                System.out.println("Upload " + upload.transferId + " duplicates stored content " + contentHash);
+            }
+            if (!mediaDao.updateMediaContent(upload.mediaID, FileStorageManager.getBlobPath(contentHash), contentHash)) {
+                System.err.println("Failed to point media " + upload.mediaID + " at blob " + contentHash);
+            }
+        } finally {
+            contentLock.unlock();
+        }
+        upload.completed = true;
+        pendingFileTransfers.remove(upload.transferId, upload);
+        Files.deleteIfExists(upload.stateFile());
+    }
+
+    private static void saveMediaMessage(FileTransferMetadata upload, MessageDao messageDao) {
+        Message message = new Message();
+        message.setChatId(upload.chatId);
+        message.setSenderId(upload.senderId);
+        message.setContent(upload.caption);
+        message.setSentAt(LocalDateTime.now());
+        message.setViewCount(0);
+        message.setMediaId(upload.mediaID);
+        String mediaType = upload.mediaType == null ? "text" : upload.mediaType;
+        message.setMessageType(mediaType);
+
+        Media media = new Media();
+        media.setMediaType(mediaType);
+        media.setFileName(upload.fileName);
+        media.setFileSize(upload.fileSize);
+        media.setTransferId(upload.transferId);
+
+        message.setMedia(media);
+
+        long messageId = messageDao.createMessage(message);
+
+        if (messageId != -1) {
+            message.setId(messageId);
+            //notifyChatParticipants(chatId, new Response(true, "New message received", gson.toJson(message)));
+        } else {
+            System.err.println("Failed to save media message metadata to DB for file: " + upload.fileName);
+        }
+    }
+
+    /**
+     * One of several connections sending an upload in parallel, opened with {@code <transferId> CHUNKS}.
+     * The server first answers {@code CHUNKS <chunkSize> <chunkCount> <missing>}, where missing lists the
+     * chunks it still needs as {@code 0-3,7}; chunkSize is the {@code chunk_size} of the SEND_MESSAGE
+     * response unless the upload was started before a restart with another setting. The client then sends chunks, each a 4-byte big-endian index followed
+     * by the chunk's bytes, and shuts down its output when it has no more. Chunks are written at their
+     * offsets with positional writes, so the connections do not wait on each other, and a chunk sent twice
+     * is simply written twice. The connection that delivers the last missing chunk is answered
+     * {@code File transfer complete: <name>} and stores the message; the others get
+     * {@code CHUNKS RECEIVED <n> OF <count>}. Chunks received so far survive a dropped connection or a
+     * restart, so a client reconnects and sends only the missing ones.
+     */
+    private class ChunkedUploadHandler implements Runnable {
+        private SocketChannel fileChannel;
+        private FileTransferMetadata upload;
+        private MessageDao messageDao;
+
+        public ChunkedUploadHandler(SocketChannel fileChannel, FileTransferMetadata upload, MessageDao messageDao) {
+            this.fileChannel = fileChannel;
+            this.upload = upload;
+            this.messageDao = messageDao;
+        }
+
+        @Override
+        public void run() {
+            String fileName = upload.fileName;
+            upload.chunkChannels.add(fileChannel);
+            try {
+                PrintWriter fileOut = new PrintWriter(fileChannel.socket().getOutputStream(), true);
+                int chunkCount;
+                upload.lock.lock();
+                try {
+                    if (upload.completed) {
+                        fileOut.println("File transfer complete: " + fileName);
+                        return;
+                    }
+                    if (upload.activeChannel.get() != null) {
+                        fileOut.println("File transfer failed: Upload is being sent on a single connection.");
+                        return;
+                    }
+                    if (upload.chunks == null) {
+                        startChunks();
                     }
+                    chunkCount = upload.chunkCount();
+                    fileOut.println("CHUNKS " + upload.chunkSize + " " + chunkCount + " " + upload.missingChunks());
+                } finally {
+                    upload.lock.unlock();
+                }
 
-                } else {
-                    System.err.println("\nFile transfer incomplete for '" + fileName + "'. Expected: " + fileSize + ", Received: " + totalBytesReceived);
-                    fileOut.println("File transfer failed: Incomplete.");
+                ByteBuffer header = ByteBuffer.allocate(4);
+                try (FileChannel file = FileChannel.open(upload.partialFile(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    while (readFully(fileChannel, header)) {
+                        int index = header.getInt(0);
+                        if (index < 0 || index >= chunkCount) {
+                            fileOut.println("File transfer failed: No chunk " + index + ".");
+                            break;
+                        }
+                        long length = upload.chunkLength(index);
+                        if (!beginChunk()) {
+                            break;
+                        }
+                        boolean received = false;
+                        boolean finished;
+                        try {
+                            received = FileTransfers.getInstance().receiveFile(fileChannel, file, index * upload.chunkSize, length) == length;
+                        } finally {
+                            finished = endChunk(file, received ? index : -1);
+                        }
+                        if (!received) {
+                            break;
+                        }
+                        upload.lastActivity = System.currentTimeMillis();
+                        if (finished) {
+                            System.out.println("\nFile '" + fileName + "' received successfully in " + chunkCount + " chunks. Size: " + upload.fileSize + " bytes.");
+                            fileOut.println("File transfer complete: " + fileName);
+                            saveMediaMessage(upload, messageDao);
+                            return;
+                        }
+                    }
+                    file.force(false);
                 }
 
+                upload.lock.lock();
+                try {
+                    if (!upload.completed) {
+                        upload.saveState();
+                    }
+                    fileOut.println("CHUNKS RECEIVED " + upload.chunks.cardinality() + " OF " + chunkCount);
+                } finally {
+                    upload.lock.unlock();
+                }
             } catch (IOException e) {
-                System.err.println("Error during file transfer for " + fileName + ": " + e.getMessage());
-                e.printStackTrace();
+                // The connection that completed the upload closes the others.
+                if (!upload.sealed) {
+                    System.err.println("Error during chunked file transfer for " + fileName + ": " + e.getMessage());
+                    e.printStackTrace();
+                }
             } finally {
+                upload.chunkChannels.remove(fileChannel);
                 try {
-                    if (fileSocket != null && !fileSocket.isClosed()) {
-                        fileSocket.close();
+                    if (fileChannel != null && fileChannel.isOpen()) {
+                        fileChannel.close();
                     }
                 } catch (IOException e) {
                     System.err.println("Error closing file socket: " + e.getMessage());
@@ -326,105 +893,321 @@ public class ChatServer3 {
             }
         }
 
+        // False once the upload is sealed: the chunk is then not written.
+        private boolean beginChunk() {
+            upload.lock.lock();
+            try {
+                if (upload.sealed) {
+                    return false;
+                }
+                upload.chunkWriters++;
+                return true;
+            } finally {
+                upload.lock.unlock();
+            }
+        }
+
+        // Ends a beginChunk; index is -1 if the chunk did not arrive whole. Returns true if this chunk was
+        // the last one missing, in which case the upload has been finished.
+        private boolean endChunk(FileChannel file, int index) throws IOException {
+            upload.lock.lock();
+            try {
+                upload.chunkWriters--;
+                upload.chunkWritten.signalAll();
+                if (index < 0) {
+                    return false;
+                }
+                upload.chunks.set(index);
+                if (upload.sealed || upload.chunks.nextClearBit(0) < upload.chunkCount()) {
+                    return false;
+                }
+                // Other connections can only be resending chunks already written. They are closed, and the
+                // writes in progress waited for, so nothing changes the file once it is hashed and moved.
+                upload.sealed = true;
+                for (SocketChannel other : upload.chunkChannels) {
+                    if (other != fileChannel) {
+                        try {
+                            other.close();
+                        } catch (IOException e) {
+                            System.err.println("Error closing file socket: " + e.getMessage());
+                        }
+                    }
+                }
+                while (upload.chunkWriters > 0) {
+                    upload.chunkWritten.awaitUninterruptibly();
+                }
+                try {
+                    // Flushes the other connections' chunks too: fsync covers the whole file.
+                    file.force(false);
+                    // Chunks arrive out of order, so the hash is read back from the file.
+                    MessageDigest digest = FileStorageManager.newContentDigest();
+                    FileTransfers.getInstance().digest(file, 0, upload.fileSize, digest);
+                    finishUpload(upload, FileStorageManager.toContentHash(digest));
+                } finally {
+                    if (!upload.completed) {
+                        upload.sealed = false;
+                    }
+                }
+                return true;
+            } finally {
+                upload.lock.unlock();
+            }
+        }
+
+        // Under upload.lock, before any chunk is written. The file gets its full length now: receiveFile
+        // would otherwise extend and, on a short chunk, truncate it under the other connections.
+        private void startChunks() throws IOException {
+            upload.chunkSize = UPLOAD_CHUNK_BYTES;
+            upload.chunks = new BitSet();
+            // Whole chunks a single connection already wrote are kept.
+            upload.chunks.set(0, (int) Math.min(upload.committed / upload.chunkSize, upload.chunkCount()));
+            try (FileChannel file = FileChannel.open(upload.partialFile(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                if (file.size() < upload.fileSize) {
+                    file.write(ByteBuffer.wrap(new byte[1]), upload.fileSize - 1);
+                }
+            }
+            upload.saveState();
+        }
     }
 
 
     private class ClientHandler2 implements Runnable {
         private Socket clientSocket;
-        private PrintWriter out;
-        private BufferedReader in;
-        private int currentUserId = -1;
+        private NioCommandServer.Connection connection;
+        private OutboundChannel outbound;
+        private final FrameCodec.Decoder decoder = new FrameCodec.Decoder();
+        // Envelope version of the client's latest request; pushes to this client use the same version.
+        private volatile int protocolVersion = Request.VERSION_1;
+        // Pipelined requests hold the read lock while they run; session commands take the write lock.
+        private final ReentrantReadWriteLock sessionLock = new ReentrantReadWriteLock();
+        private final Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT_REQUESTS);
+        private volatile int currentUserId = -1;
+        private volatile boolean replyLimitReached;
         // Removed clientPublicIp and clientUdpPort as they are now stream-specific
 
         public ClientHandler2(Socket socket) {
             this.clientSocket = socket;
         }
 
+        public ClientHandler2(NioCommandServer.Connection connection) {
+            this.connection = connection;
+            this.outbound = connection;
+        }
+
         @Override
         public void run() {
             try {
-                out = new PrintWriter(clientSocket.getOutputStream(), true);
-                in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
+                SocketWriter writer = new SocketWriter(clientSocket);
+                outbound = writer;
+                commandWriterThreads.newThread(writer).start();
+                InputStream in = clientSocket.getInputStream();
 
                 String clientRequestJson;
-                while ((clientRequestJson = in.readLine()) != null) {
-                    if (clientRequestJson.trim().isEmpty()) {
-                        continue;
+                while ((clientRequestJson = decoder.readFrame(in)) != null) {
+                    if (decoder.getMode() == FrameCodec.Mode.FRAMED && writer.getProtocolMode() != FrameCodec.Mode.FRAMED) {
+                        writer.setProtocolMode(FrameCodec.Mode.FRAMED);
+                        writer.send(ByteBuffer.wrap(FrameCodec.FRAMED_PREAMBLE));
                     }
-                    Request request = gson.fromJson(clientRequestJson, Request.class);
-                    processRequest(request);
+                    handleLine(clientRequestJson);
                 }
+            } catch (FrameCodec.FrameTooLargeException e) {
+                System.err.println("Closing client " + clientSocket.getInetAddress().getHostAddress() + ": " + e.getMessage());
             } catch (IOException e) {
-                if (currentUserId != -1) {
-                    System.out.println("Client " + currentUserId + " disconnected.");
-                    loggedInUsers.remove(currentUserId);
-                    userDao.updateUserOnlineStatus(currentUserId, false);
-                    // NEW: Remove public IP/port info on disconnect
-                    userPublicVideoIPs.remove(currentUserId);
-                    userUdpVideoPorts.remove(currentUserId);
-                    userPublicAudioIPs.remove(currentUserId);
-                    userUdpAudioPorts.remove(currentUserId);
-                } else {
+                if (currentUserId == -1) {
                     System.out.println("Client disconnected unexpectedly: " + clientSocket.getInetAddress().getHostAddress() + " - " + e.getMessage());
                 }
             } finally {
-                try {
-                    if (currentUserId != -1) {
-                        loggedInUsers.remove(currentUserId);
-                        userDao.updateUserOnlineStatus(currentUserId, false);
-                        // NEW: Ensure public IP/port info is removed on handler closure
-                        userPublicVideoIPs.remove(currentUserId);
-                        userUdpVideoPorts.remove(currentUserId);
-                        userPublicAudioIPs.remove(currentUserId);
-                        userUdpAudioPorts.remove(currentUserId);
+                releaseSession();
+                if (outbound != null) {
+                    outbound.close();
+                } else {
+                    try {
+                        clientSocket.close();
+                    } catch (IOException e) {
+                        System.err.println("Error closing client handler resources: " + e.getMessage());
                     }
-                    if (in != null) in.close();
-                    if (out != null) out.close();
-                    if (clientSocket != null && !clientSocket.isClosed()) clientSocket.close();
-                } catch (IOException e) {
-                    System.err.println("Error closing client handler resources: " + e.getMessage());
                 }
             }
         }
 
+        // Decodes and executes one request frame, for both the blocking and the NIO listener. Requests with
+        // an id are handed to the pipeline pool so several can be in flight; the rest run here, in order.
+        // When the connection already has MAX_IN_FLIGHT_REQUESTS running, the request runs here too. Under
+        // the blocking listeners "here" is the reading thread, so nothing more is read until it returns.
+        // Under NIO it is the worker draining the connection's inbound queue; the queue fills up behind it
+        // and the event loop stops reading at its cap (see NioCommandServer), so the client is held back
+        // either way.
+        void handleLine(String clientRequestJson) {
+            if (clientRequestJson.trim().isEmpty()) {
+                return;
+            }
+            Request request = gson.fromJson(clientRequestJson, Request.class);
+            protocolVersion = request.getVersion();
+            if (request.getId() != null && !SESSION_COMMANDS.contains(request.getCommand()) && inFlight.tryAcquire()) {
+                try {
+                    pipelinePool.execute(() -> {
+                        try {
+                            processWithSessionLock(request);
+                        } finally {
+                            inFlight.release();
+                        }
+                    });
+                    return;
+                } catch (RejectedExecutionException e) {
+                    inFlight.release();
+                }
+            }
+            processWithSessionLock(request);
+        }
+
+        private void processWithSessionLock(Request request) {
+            Lock lock = SESSION_COMMANDS.contains(request.getCommand()) ? sessionLock.writeLock() : sessionLock.readLock();
+            lock.lock();
+            try {
+                processRequest(request);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int getQueuedFrames() {
+            return outbound == null ? 0 : outbound.getQueuedFrames();
+        }
+
+        private FrameCodec.Mode framing() {
+            FrameCodec.Mode mode = outbound.getProtocolMode();
+            return mode == null ? FrameCodec.Mode.LINE : mode;
+        }
+
+        // Queues a reply in the envelope version of the request it answers, which may differ from the
+        // connection's latest while requests are pipelined. A client that is MAX_QUEUED_BYTES behind
+        // is not reading its replies and is disconnected.
+        void send(Response response, int version) {
+            if (outbound == null) {
+                return;
+            }
+            if (outbound.getQueuedBytes() >= MAX_QUEUED_BYTES) {
+                // Requests already queued keep replying until the close lands; count the client once.
+                if (!replyLimitReached) {
+                    replyLimitReached = true;
+                    outboundMetrics.slowConsumersDisconnected.incrementAndGet();
+                    System.err.println("Disconnecting client " + currentUserId + " that stopped reading replies: "
+                            + outbound.getQueuedBytes() + " bytes queued.");
+                }
+                outbound.close();
+                return;
+            }
+            outbound.send(FrameCodec.encode(framing(), response, version));
+        }
+
+        // Queues a push from another user's request thread. The calling thread never waits on this
+        // client's socket; when too many pushes are already waiting the slow-consumer policy applies.
+        void push(Response response, Integer relatedChatId) {
+            push(new EncodedResponse(response), relatedChatId);
+        }
+
+        // Fan-out variant: the frame is taken from the shared encoding, so N recipients cost one encode
+        // per framing and version rather than N.
+        void push(EncodedResponse encoded, Integer relatedChatId) {
+            if (outbound == null) {
+                return;
+            }
+            if (outbound.getQueuedBytes() < MAX_QUEUED_BYTES
+                    && outbound.offer(encoded.frameFor(framing(), protocolVersion), MAX_QUEUED_PUSHES)) {
+                outboundMetrics.recordDepth(outbound.getQueuedFrames());
+            } else {
+                onSlowConsumer(encoded.getResponse(), relatedChatId);
+            }
+        }
+
+        private void onSlowConsumer(Response response, Integer relatedChatId) {
+            int userId = currentUserId;
+            switch (SLOW_CONSUMER_POLICY) {
+                case "drop":
+                    outboundMetrics.pushesDropped.incrementAndGet();
+                    break;
+                case "offline":
+                    // Leave it for MY_NOTIFICATIONS; the client is not reading its live stream anyway.
+                    if (userId != -1) {
+                        Notification notification = new Notification();
+                        notification.setRecipientUserId(userId);
+                        notification.setMessage(response.getMessage());
+                        notification.setEventType("missed_push");
+                        notification.setRelatedChatId(relatedChatId);
+                        notificationDao.createNotification(notification);
+                    }
+                    outboundMetrics.pushesSpilled.incrementAndGet();
+                    break;
+                default:
+                    outboundMetrics.slowConsumersDisconnected.incrementAndGet();
+                    System.err.println("Disconnecting slow consumer " + userId + ": " + outbound.getQueuedFrames() + " frames queued.");
+                    outbound.close();
+            }
+        }
+
+        void releaseSession() {
+            // Let requests still in flight finish before the session goes away.
+            sessionLock.writeLock().lock();
+            try {
+                clearSession();
+            } finally {
+                sessionLock.writeLock().unlock();
+            }
+        }
+
+        private void clearSession() {
+            if (currentUserId != -1) {
+                System.out.println("Client " + currentUserId + " disconnected.");
+                loggedInUsers.remove(currentUserId);
+                userDao.updateUserOnlineStatus(currentUserId, false);
+                // NEW: Ensure public IP/port info is removed on handler closure
+                userPublicVideoIPs.remove(currentUserId);
+                userUdpVideoPorts.remove(currentUserId);
+                userPublicAudioIPs.remove(currentUserId);
+                userUdpAudioPorts.remove(currentUserId);
+                currentUserId = -1;
+            }
+        }
+
         private void processRequest(Request request) {
             Response response;
 
             if (currentUserId == -1 && !request.getCommand().equals(LOGIN) && !request.getCommand().equals(Command.REGISTER)) {
                 response = new Response(false, "Authentication required. Please log in.", null);
-                out.println(response.toJson());
+                response.setRequestId(request.getId());
+                send(response, request.getVersion());
                 return;
             }
 
             try {
                 switch (request.getCommand()) {
                     case LOGIN:
-                        response = handleLogin(request.getPayload());
+                        response = handleLogin(request);
                         break;
                     case LOGOUT:
                         response = handleLogout();
                         break;
                     case SEND_MESSAGE:
-                        response = handleSendMessage(request.getPayload());
+                        response = handleSendMessage(request);
                         break;
                     case GET_CHAT_MESSAGES:
-                        response = handleGetChatMessages(request.getPayload());
+                        response = handleGetChatMessages(request);
                         break;
                     case CREATE_CHAT:
-                        response = handleCreateChat(request.getPayload());
+                        response = handleCreateChat(request);
                         break;
 
                     case REGISTER:
-                        response = handleRegister(request.getPayload());
+                        response = handleRegister(request);
                         break;
                     case GET_USER_PROFILE:
-                        response = handleGetUserProfile(request.getPayload());
+                        response = handleGetUserProfile(request);
                         break;
                     case UPDATE_USER_PROFILE:
-                        response = handleUpdateUserProfile(request.getPayload());
+                        response = handleUpdateUserProfile(request);
                         break;
                     case DELETE_USER:
-                        response = handleDeleteUser(request.getPayload());
+                        response = handleDeleteUser(request);
                         break;
                     case GET_ALL_USERS:
                         response = handleGetAllUsers();
@@ -434,74 +1217,74 @@ public class ChatServer3 {
                         response = handleGetUserChats();
                         break;
                     case GET_CHAT_DETAILS:
-                        response = handleGetChatDetails(request.getPayload());
+                        response = handleGetChatDetails(request);
                         break;
                     case UPDATE_CHAT:
-                        response = handleUpdateChat(request.getPayload());
+                        response = handleUpdateChat(request);
                         break;
                     case DELETE_CHAT:
-                        response = handleDeleteChat(request.getPayload());
+                        response = handleDeleteChat(request);
                         break;
 
                     case UPDATE_MESSAGE:
-                        response = handleUpdateMessage(request.getPayload());
+                        response = handleUpdateMessage(request);
                         break;
                     case DELETE_MESSAGE:
-                        response = handleDeleteMessage(request.getPayload());
+                        response = handleDeleteMessage(request);
                         break;
                     case MARK_MESSAGE_AS_READ:
-                        response = handleMarkMessageAsRead(request.getPayload());
+                        response = handleMarkMessageAsRead(request);
                         break;
 
                     case ADD_CHAT_PARTICIPANT:
-                        response = handleAddChatParticipant(request.getPayload());
+                        response = handleAddChatParticipant(request);
                         break;
                     case GET_CHAT_PARTICIPANTS:
-                        response = handleGetChatParticipants(request.getPayload());
+                        response = handleGetChatParticipants(request);
                         break;
                     case UPDATE_CHAT_PARTICIPANT_ROLE:
-                        response = handleUpdateChatParticipantRole(request.getPayload());
+                        response = handleUpdateChatParticipantRole(request);
                         break;
                     case REMOVE_CHAT_PARTICIPANT:
-                        response = handleRemoveChatParticipant(request.getPayload());
+                        response = handleRemoveChatParticipant(request);
                         break;
 
                     case ADD_CONTACT:
-                        response = handleAddContact(request.getPayload());
+                        response = handleAddContact(request);
                         break;
                     case GET_CONTACTS:
                         response = handleGetContacts();
                         break;
                     case REMOVE_CONTACT:
-                        response = handleRemoveContact(request.getPayload());
+                        response = handleRemoveContact(request);
                         break;
                     case BLOCK_UNBLOCK_USER:
-                        response = handleBlockUnblockUser(request.getPayload());
+                        response = handleBlockUnblockUser(request);
                         break;
 
                     case MY_NOTIFICATIONS:
                         response = handleGetUserNotifications();
                         break;
                     case MARK_NOTIFICATION_AS_READ:
-                        response = handleMarkNotificationAsRead(request.getPayload());
+                        response = handleMarkNotificationAsRead(request);
                         break;
                     case DELETE_NOTIFICATION:
-                        response = handleDeleteNotification(request.getPayload());
+                        response = handleDeleteNotification(request);
                         break;
                     case GET_FILE_BY_MEDIA:
-                        response = handleGetFileByMedia(request.getPayload());
+                        response = handleGetFileByMedia(request);
                         break;
 
                     case INITIATE_VIDEO_CALL:
-                        response = handleInitialeVideoCall(request.getPayload());
+                        response = handleInitialeVideoCall(request);
                         break;
 
                     case VIDEO_CALL_ANSWER:
-                        response = handlVideoCallAnser(request.getPayload());
+                        response = handlVideoCallAnser(request);
                         break;
 
                     case END_VIDEO_CALL:
-                        response = handlEndVideoCall(request.getPayload());
+                        response = handlEndVideoCall(request);
                         break;
 
                     default:
@@ -512,15 +1295,15 @@ public class ChatServer3 {
                 e.printStackTrace();
                 response = new Response(false, "Server internal error: " + e.getMessage(), null);
             }
-            out.println(response.toJson());
+            response.setRequestId(request.getId());
+            send(response, request.getVersion());
         }
 
 
-        private Response handleLogin(String payload) {
-            Type type = new TypeToken<Map<String, String>>() {}.getType();
-            Map<String, String> loginData = gson.fromJson(payload, type);
-            String phoneNumber = loginData.get("phone_number");
-            String password = loginData.get("password");
+        private Response handleLogin(Request request) {
+            RequestPayloads.Login loginData = request.getPayload(RequestPayloads.Login.class);
+            String phoneNumber = loginData.getPhoneNumber();
+            String password = loginData.getPassword();
 
             Optional<User> userOptional = userDao.getUserByPhoneNumber(phoneNumber);
             if (userOptional.isPresent()) {
@@ -530,7 +1313,7 @@ public class ChatServer3 {
                     loggedInUsers.put(currentUserId, this);
                     userDao.updateUserOnlineStatus(currentUserId, true);
                     user.setPassword(null);
-                    return new Response(true, "Login successful!", gson.toJson(user));
+                    return Response.of(true, "Login successful!", user);
                 } else {
                     return new Response(false, "Invalid credentials.", null);
                 }
@@ -554,14 +1337,57 @@ public class ChatServer3 {
             return new Response(false, "No user was logged in for this session.", null);
         }
 
-        private Response handleSendMessage(String payload) {
-            System.out.println(payload);
-            Type type = new TypeToken<Map<String, Object>>() {}.getType();
-            Map<String, Object> messageData = gson.fromJson(payload, type);
+        // A re-send or forward of content the server already has: the new media row shares the stored blob and
+        // the message is saved at once, with no file transfer. Null if the content is not stored, or if the
+        // sender cannot already see it; they then upload it like any other file, so a hash alone neither
+        // grants access to content nor tells whether it exists.
+        private Response sendStoredMedia(int chatId, String caption, Media media, String contentHash) throws SQLException {
+            if (!mediaDao.isContentVisibleTo(contentHash, currentUserId)) {
+                return null;
+            }
+            Lock contentLock = FileStorageManager.lockContent(contentHash);
+            contentLock.lock();
+            try {
+                if (!FileStorageManager.hasBlob(contentHash, media.getFileSize())) {
+                    return null;
+                }
+                media.setFilePathOrUrl(FileStorageManager.getBlobPath(contentHash));
+                media.setContentHash(contentHash);
+                if (mediaDao.createMedia(media) == -1) {
+                    return new Response(false, "Failed to send message.", null);
+                }
+            } finally {
+                contentLock.unlock();
+            }
+            System.out.println("Server: '" + media.getFileName() + "' is already stored as " + contentHash + ", no transfer needed");
+
+            Message message = new Message();
+            message.setChatId(chatId);
+            message.setSenderId(currentUserId);
+            message.setContent(caption);
+            message.setSentAt(LocalDateTime.now());
+            message.setViewCount(0);
+            message.setMediaId(media.getId());
+            message.setMessageType(media.getMediaType() == null ? "text" : media.getMediaType());
+            message.setMedia(media);
+
+            long messageId = messageDao.createMessage(message);
+            if (messageId == -1) {
+                return new Response(false, "Failed to send message.", null);
+            }
+            message.setId(messageId);
+            notifyChatParticipants(chatId, Response.of(true, "New message received", message));
+            return Response.of(true, "Message sent successfully!", message);
+        }
+
+        private Response handleSendMessage(Request request) {
+            System.out.println(request.getPayload());
+            RequestPayloads.SendMessage messageData = request.getPayload(RequestPayloads.SendMessage.class);
 
-            int chatId = ((Double) messageData.get("chat_id")).intValue();
-            String content = (String) messageData.get("content");
-            boolean isMediaMessage = messageData.containsKey("media") && messageData.get("media") != null;
+            int chatId = messageData.getChatId();
+            String content = messageData.getContent();
+            Media mediaPayload = messageData.getMedia();
+            boolean isMediaMessage = mediaPayload != null;
 
             try {
                 if (!chatParticipantDao.isUserParticipant(chatId, currentUserId)) {
@@ -569,26 +1395,41 @@ public class ChatServer3 {
                 }
 
                 if (isMediaMessage) {
-                    Type mediaType = new TypeToken<Media>() {}.getType();
-                    Media mediaPayload = gson.fromJson(gson.toJson(messageData.get("media")), mediaType);
-
                     if (mediaPayload.getFileName() == null || mediaPayload.getFileName().isEmpty() || mediaPayload.getFileSize() <= 0) {
                         return new Response(false, "Missing file details (name, size) for media transfer.", null);
                     }
 
+                    // A hash from the client is only trusted for content already stored; an upload gets the one computed here.
+                    String contentHash = mediaPayload.getContentHash();
+                    mediaPayload.setContentHash(null);
+                    mediaPayload.setUploadedByUserId(currentUserId);
+                    if (FileStorageManager.isContentHash(contentHash)) {
+                        Response sent = sendStoredMedia(chatId, content, mediaPayload, contentHash);
+                        if (sent != null) {
+                            return sent;
+                        }
+                    }
+
                     String transferId = UUID.randomUUID().toString();
                     mediaPayload.setFilePathOrUrl(transferId + "_" + mediaPayload.getFileName());
-                    int mediaID = mediaDao.createMedia(mediaPayload);
+                    long mediaID = mediaDao.createMedia(mediaPayload);
                     System.out.println(" ************************* " + mediaID);
                     FileTransferMetadata metadata = new FileTransferMetadata(
                             currentUserId, chatId, mediaPayload.getFileName(), mediaPayload.getFileSize(),
                             mediaPayload.getMediaType(), content, transferId, mediaID
                     );
+                    sweepPartialUploads();
                     pendingFileTransfers.put(transferId, metadata);
+                    try {
+                        metadata.saveState();
+                    } catch (IOException e) {
+                        // The upload still works; it just cannot be resumed after a restart.
+                        System.err.println("Failed to save upload state for " + transferId + ": " + e.getMessage());
+                    }
 
 
                     System.out.println("Server: Initiating media send for '" + mediaPayload.getFileName() + "' (transferId: " + transferId + ")");
-                    return new Response(true, "READY_TO_RECEIVE_FILE", gson.toJson(Map.of("transfer_id", transferId)));
+                    return Response.of(true, "READY_TO_RECEIVE_FILE", Map.of("transfer_id", transferId, "chunk_size", UPLOAD_CHUNK_BYTES));
 
                 } else {
                     if (content == null || content.trim().isEmpty()) {
@@ -604,12 +1445,12 @@ public class ChatServer3 {
                     message.setMedia(null);
                     message.setMessageType(content != null ? "text" : null); // Set message type for text messages
 
-                    int messageId = messageDao.createMessage(message);
+                    long messageId = messageDao.createMessage(message);
 
                     if (messageId != -1) {
                         message.setId(messageId);
-                        notifyChatParticipants(chatId, new Response(true, "New message received", gson.toJson(message)));
-                        return new Response(true, "Message sent successfully!", gson.toJson(message));
+                        notifyChatParticipants(chatId, Response.of(true, "New message received", message));
+                        return Response.of(true, "Message sent successfully!", message);
                     } else {
                         return new Response(false, "Failed to send message.", null);
                     }
@@ -623,31 +1464,33 @@ public class ChatServer3 {
 
         public void notifyChatParticipants(int chatId, Response notificationResponse) {
             try {
-                List<ChatParticipant> participants = chatParticipantDao.getChatParticipants(chatId);
-                for (ChatParticipant participant : participants) {
-                    ClientHandler2 handler = loggedInUsers.get(participant.getUserId());
-                    if (handler != null && handler.currentUserId != currentUserId) {
-                        handler.out.println(notificationResponse.toJson());
+                // Member ids come from the membership index, so fan-out does not query chat_participants.
+                IntHashSet memberIds = chatParticipantDao.getChatMemberIds(chatId);
+                EncodedResponse encoded = new EncodedResponse(notificationResponse);
+                int senderId = currentUserId;
+                memberIds.forEach(userId -> {
+                    ClientHandler2 handler = loggedInUsers.get(userId);
+                    if (handler != null && handler.currentUserId != senderId) {
+                        handler.push(encoded, chatId);
                     }
-                }
+                });
             } catch (Exception e) {
                 System.err.println("Error notifying chat participants: " + e.getMessage());
             }
         }
 
-        public Response handleInitialeVideoCall(String payload) {
-            Type type = new TypeToken<Map<String, Object>>() {}.getType();
-            Map<String, Object> callRequestPayload = gson.fromJson(payload, type);
+        public Response handleInitialeVideoCall(Request request) {
+            RequestPayloads.VideoCall callRequestPayload = request.getPayload(RequestPayloads.VideoCall.class);
 
             if (callRequestPayload != null) {
-                int targetUserId = Integer.parseInt(callRequestPayload.get("target_user_id").toString());
+                int targetUserId = callRequestPayload.getTargetUserId();
 
 
                 // Retrieve and store sender's (caller's) public video and audio IP/ports
-                String senderPublicVideoIp = (String) callRequestPayload.get("sender_public_video_ip");
-                int senderUdpVideoPort = (int) Double.parseDouble(callRequestPayload.get("sender_udp_video_port").toString());
-                String senderPublicAudioIp = (String) callRequestPayload.get("sender_public_audio_ip");
-                int senderUdpAudioPort = (int) Double.parseDouble(callRequestPayload.get("sender_udp_audio_port").toString());
+                String senderPublicVideoIp = callRequestPayload.getPublicVideoIp();
+                int senderUdpVideoPort = callRequestPayload.getUdpVideoPort();
+                String senderPublicAudioIp = callRequestPayload.getPublicAudioIp();
+                int senderUdpAudioPort = callRequestPayload.getUdpAudioPort();
 
                 userPublicVideoIPs.put(currentUserId, senderPublicVideoIp);
                 userUdpVideoPorts.put(currentUserId, senderUdpVideoPort);
@@ -668,8 +1511,8 @@ public class ChatServer3 {
                     offerData.put("caller_public_audio_ip", senderPublicAudioIp);
                     offerData.put("caller_udp_audio_port", senderUdpAudioPort);
 
-                    Response response = new Response(true, "VIDEO_CALL_OFFER", gson.toJson(offerData));
-                    targetHandler.out.println(response.toJson());
+                    Response response = Response.of(true, "VIDEO_CALL_OFFER", offerData);
+                    targetHandler.push(response, null);
 
                     activeVideoCalls.put(currentUserId, targetUserId);
                     activeVideoCalls.put(targetUserId, currentUserId);
@@ -682,19 +1525,18 @@ public class ChatServer3 {
             }
         }
 
-        public Response handlVideoCallAnser(String payload) {
-            Type type = new TypeToken<Map<String, Object>>() {}.getType();
-            Map<String, Object> answerPayload = gson.fromJson(payload, type);
+        public Response handlVideoCallAnser(Request request) {
+            RequestPayloads.VideoCall answerPayload = request.getPayload(RequestPayloads.VideoCall.class);
 
             if (answerPayload != null) {
-                int callerId = ((Double) answerPayload.get("caller_id")).intValue();
-                boolean accepted = (Boolean) answerPayload.get("accepted");
+                int callerId = answerPayload.getCallerId();
+                boolean accepted = answerPayload.isAccepted();
 
                 // Retrieve and store recipient's (callee's) public video and audio IP/ports
-                String recipientPublicVideoIp = (String) answerPayload.get("recipient_public_video_ip");
-                int recipientUdpVideoPort = (int) Double.parseDouble(answerPayload.get("recipient_udp_video_port").toString());
-                String recipientPublicAudioIp = (String) answerPayload.get("recipient_public_audio_ip");
-                int recipientUdpAudioPort = (int) Double.parseDouble(answerPayload.get("recipient_udp_audio_port").toString());
+                String recipientPublicVideoIp = answerPayload.getPublicVideoIp();
+                int recipientUdpVideoPort = answerPayload.getUdpVideoPort();
+                String recipientPublicAudioIp = answerPayload.getPublicAudioIp();
+                int recipientUdpAudioPort = answerPayload.getUdpAudioPort();
 
                 userPublicVideoIPs.put(currentUserId, recipientPublicVideoIp);
                 userUdpVideoPorts.put(currentUserId, recipientUdpVideoPort);
@@ -716,15 +1558,15 @@ public class ChatServer3 {
                         responseData.put("callee_udp_video_port", recipientUdpVideoPort);
                         responseData.put("callee_public_audio_ip", recipientPublicAudioIp);
                         responseData.put("callee_udp_audio_port", recipientUdpAudioPort);
-                        Response response = new Response(true, "VIDEO_CALL_ACCEPTED", gson.toJson(responseData));
-                        callerHandler.out.println(response.toJson());
+                        Response response = Response.of(true, "VIDEO_CALL_ACCEPTED", responseData);
+                        callerHandler.push(response, null);
 
                         return new Response(true, "CALL_ACCEPTED", null);
                     } else {
                         activeVideoCalls.remove(currentUserId);
                         activeVideoCalls.remove(callerId);
-                        Response response = new Response(false, "VIDEO_CALL_REJECTED", gson.toJson(responseData));
-                        callerHandler.out.println(response.toJson());
+                        Response response = Response.of(false, "VIDEO_CALL_REJECTED", responseData);
+                        callerHandler.push(response, null);
 
                         return new Response(true, "CALL_REJECTED", null);
                     }
@@ -737,12 +1579,11 @@ public class ChatServer3 {
         }
 
 
-        public Response handlEndVideoCall(String payload) {
-            Type type = new TypeToken<Map<String, Object>>() {}.getType();
-            Map<String, Object> endCallPayload = gson.fromJson(payload, type);
+        public Response handlEndVideoCall(Request request) {
+            RequestPayloads.VideoCall endCallPayload = request.getPayload(RequestPayloads.VideoCall.class);
 
             if (endCallPayload != null) {
-                int targetUserId = ((Double) endCallPayload.get("target_user_id")).intValue();
+                int targetUserId = endCallPayload.getTargetUserId();
                 ClientHandler2 targetHandler = loggedInUsers.get(targetUserId);
 
                 activeVideoCalls.remove(currentUserId);
@@ -763,8 +1604,8 @@ public class ChatServer3 {
                 if (targetHandler != null) {
                     Map<String, Object> endedData = new HashMap<>();
                     endedData.put("ender_id", currentUserId);
-                    Response response = new Response(true, "VIDEO_CALL_ENDED", gson.toJson(endedData));
-                    targetHandler.out.println(response.toJson());
+                    Response response = Response.of(true, "VIDEO_CALL_ENDED", endedData);
+                    targetHandler.push(response, null);
                 }
                 return new Response(true, "CALL_ENDED", null);
             } else {
@@ -772,8 +1613,8 @@ public class ChatServer3 {
             }
         }
 
-        private Response handleRegister(String payload) {
-            User newUser = gson.fromJson(payload, User.class);
+        private Response handleRegister(Request request) {
+            User newUser = request.getPayload(User.class);
 
             if (newUser.getPhoneNumber() == null || newUser.getPhoneNumber().isEmpty() ||
                     newUser.getPassword() == null || newUser.getPassword().isEmpty() ||
@@ -789,31 +1630,29 @@ public class ChatServer3 {
             if (userId != -1) {
                 newUser.setId(userId);
                 newUser.setPassword(null);
-                return new Response(true, "Registration successful!", gson.toJson(newUser));
+                return Response.of(true, "Registration successful!", newUser);
             } else {
                 return new Response(false, "Failed to register user.", null);
             }
         }
 
-        private Response handleGetUserProfile(String payload) {
-            Type type = new TypeToken<Map<String, Double>>() {}.getType();
-            Map<String, Double> params = gson.fromJson(payload, type);
-            int targetUserId = params.get("userId").intValue();
+        private Response handleGetUserProfile(Request request) {
+            RequestPayloads.UserRef params = request.getPayload(RequestPayloads.UserRef.class);
+            int targetUserId = params.getUserId();
 
             Optional<User> userOptional = userDao.getUserById(targetUserId);
             if (userOptional.isPresent()) {
                 User user = userOptional.get();
                 user.setPassword(null);
-                return new Response(true, "User profile retrieved.", gson.toJson(user));
+                return Response.of(true, "User profile retrieved.", user);
             } else {
                 return new Response(false, "User not found.", null);
             }
         }
 
-        private Response handleUpdateUserProfile(String payload) {
-            Type type = new TypeToken<Map<String, Object>>() {}.getType();
-            Map<String, Object> updates = gson.fromJson(payload, type);
-            int userIdToUpdate = ((Double) updates.get("userId")).intValue();
+        private Response handleUpdateUserProfile(Request request) {
+            RequestPayloads.UpdateUserProfile updates = request.getPayload(RequestPayloads.UpdateUserProfile.class);
+            int userIdToUpdate = updates.getUserId();
 
             if (userIdToUpdate != currentUserId) {
                 return new Response(false, "Unauthorized: You can only update your own profile.", null);
@@ -824,33 +1663,32 @@ public class ChatServer3 {
                 return new Response(false, "User not found for update.", null);
             }
 
-            if (updates.containsKey("first_name")) {
-                existingUser.setFirstName((String) updates.get("first_name"));
+            if (updates.hasFirstName()) {
+                existingUser.setFirstName(updates.getFirstName());
             }
-            if (updates.containsKey("last_name")) {
-                existingUser.setLastName((String) updates.get("last_name"));
+            if (updates.hasLastName()) {
+                existingUser.setLastName(updates.getLastName());
             }
-            if (updates.containsKey("bio")) {
-                existingUser.setBio((String) updates.get("bio"));
+            if (updates.hasBio()) {
+                existingUser.setBio(updates.getBio());
             }
-            if (updates.containsKey("profile_picture_url")) {
-                String url = (String) updates.get("profile_picture_url");
+            if (updates.hasProfilePictureUrl()) {
+                String url = updates.getProfilePictureUrl();
                 existingUser.setProfilePictureUrl(url != null && url.isEmpty() ? null : url);
             }
 
             boolean success = userDao.updateUser(existingUser);
             if (success) {
                 existingUser.setPassword(null);
-                return new Response(true, "Profile updated successfully!", gson.toJson(existingUser));
+                return Response.of(true, "Profile updated successfully!", existingUser);
             } else {
                 return new Response(false, "Failed to update profile.", null);
             }
         }
 
-        private Response handleDeleteUser(String payload) {
-            Type type = new TypeToken<Map<String, Double>>() {}.getType();
-            Map<String, Double> params = gson.fromJson(payload, type);
-            int targetUserId = params.get("userId").intValue();
+        private Response handleDeleteUser(Request request) {
+            RequestPayloads.UserRef params = request.getPayload(RequestPayloads.UserRef.class);
+            int targetUserId = params.getUserId();
 
             if (targetUserId != currentUserId) {
                 return new Response(false, "Unauthorized: You can only delete your own account.", null);
@@ -870,18 +1708,17 @@ public class ChatServer3 {
         private Response handleGetAllUsers() {
             List<User> users = userDao.getAllUsers();
             users.forEach(u -> u.setPassword(null));
-            return new Response(true, "All users retrieved.", gson.toJson(users));
+            return Response.of(true, "All users retrieved.", users);
         }
 
 
-        private Response handleCreateChat(String payload) {
-            Type type = new TypeToken<Map<String, Object>>() {}.getType();
-            Map<String, Object> chatData = gson.fromJson(payload, type);
+        private Response handleCreateChat(Request request) {
+            RequestPayloads.ChatDetails chatData = request.getPayload(RequestPayloads.ChatDetails.class);
 
-            String chatType = (String) chatData.get("chat_type");
-            String chatName = (String) chatData.get("chat_name");
-            String chatDescription = (String) chatData.get("chat_description");
-            String publicLink = (String) chatData.get("public_link");
+            String chatType = chatData.getChatType();
+            String chatName = chatData.getChatName();
+            String chatDescription = chatData.getChatDescription();
+            String publicLink = chatData.getPublicLink();
 
             Chat newChat = new Chat();
             newChat.setChatType(chatType);
@@ -901,66 +1738,80 @@ public class ChatServer3 {
                 creatorParticipant.setJoinedAt(LocalDateTime.now());
                 chatParticipantDao.createChatParticipant(creatorParticipant);
 
-                return new Response(true, "Chat created successfully!", gson.toJson(newChat));
+                return Response.of(true, "Chat created successfully!", newChat);
             } else {
                 return new Response(false, "Failed to create chat.", null);
             }
         }
 
-        private Response handleGetChatMessages(String payload) {
-            Type type = new TypeToken<Map<String, Double>>() {}.getType();
-            Map<String, Double> params = gson.fromJson(payload, type);
-            int chatId = params.get("chat_id").intValue();
-            int limit = params.get("limit").intValue();
-            int offset = params.get("offset").intValue();
+        private Response handleGetChatMessages(Request request) {
+            RequestPayloads.ChatMessagesQuery params = request.getPayload(RequestPayloads.ChatMessagesQuery.class);
+            int chatId = params.getChatId();
+            int limit = params.getLimit();
+            int offset = params.getOffset();
 
             try {
                 if (!chatParticipantDao.isUserParticipant(chatId, currentUserId)) {
                     return new Response(false, "You are not a participant of this chat.", null);
                 }
+                if (params.isCursorQuery()) {
+                    return getChatMessagesPage(params);
+                }
 
                 List<Message> messages = messageDao.getChatMessages(chatId, limit, offset);
 
-                for (Message msg : messages) {
-                    if (msg.getMediaId() != null) {
-                        Media media = new Media();
-                        msg.setMedia(mediaDao.getMediaById(msg.getMediaId().intValue()).get());
-                    }
-                    if (msg.getSenderId() != currentUserId) {
-                        messageDao.incrementViewCount(msg.getId());
-                    }
-                }
+                messageDao.recordViews(messages, currentUserId);
 
-                return new Response(true, "Messages retrieved.", gson.toJson(messages));
+                return Response.of(true, "Messages retrieved.", messages);
             } catch (SQLException e) {
                 System.err.println("Error getting chat messages: " + e.getMessage());
                 return new Response(false, "Server error retrieving messages.", null);
             }
         }
 
+        // Keyset paging: one row more than the page is read to learn whether another page follows.
+        private Response getChatMessagesPage(RequestPayloads.ChatMessagesQuery params) throws SQLException {
+            int limit = params.getLimit() > 0 ? Math.min(params.getLimit(), MAX_MESSAGE_PAGE) : DEFAULT_MESSAGE_PAGE;
+            List<Message> messages;
+            if (params.getAfterMessageId() != null) {
+                messages = messageDao.getChatMessagesAfter(params.getChatId(), params.getAfterMessageId(), limit + 1);
+            } else {
+                long before = params.getBeforeMessageId() > 0 ? params.getBeforeMessageId() : Long.MAX_VALUE;
+                messages = messageDao.getChatMessagesBefore(params.getChatId(), before, limit + 1);
+            }
+            boolean hasMore = messages.size() > limit;
+            if (hasMore) {
+                messages = messages.subList(0, limit);
+            }
+
+            messageDao.recordViews(messages, currentUserId);
+
+            Long nextCursor = hasMore ? messages.get(messages.size() - 1).getId() : null;
+            return Response.of(true, "Messages retrieved.", new MessagePage(messages, nextCursor, hasMore));
+        }
+
         private Response handleGetUserChats() {
             try {
                 List<Chat> chats = chatDao.getUserChats(currentUserId);
-                return new Response(true, "User chats retrieved.", gson.toJson(chats));
+                return Response.of(true, "User chats retrieved.", chats);
             } catch (SQLException e) {
                 System.err.println("Error getting user chats: " + e.getMessage());
                 return new Response(false, "Server error retrieving user chats.", null);
             }
         }
 
-        private Response handleGetChatDetails(String payload) {
-            Type type = new TypeToken<Map<String, Double>>() {}.getType();
-            Map<String, Double> params = gson.fromJson(payload, type);
-            int chatId = params.get("chat_id").intValue();
+        private Response handleGetChatDetails(Request request) {
+            RequestPayloads.ChatRef params = request.getPayload(RequestPayloads.ChatRef.class);
+            int chatId = params.getChatId();
 
             try {
                 if (!chatParticipantDao.isUserParticipant(chatId, currentUserId)) {
                     return new Response(false, "You are not a participant of this chat.", null);
                 }
 
-                Optional<Chat> chatOptional = chatDao.getChatById(chatId);
-                if (chatOptional.isPresent()) {
-                    return new Response(true, "Chat details retrieved.", gson.toJson(chatOptional.get()));
+                ChatAccessContext access = chatAccessCache.get(chatId);
+                if (access != null) {
+                    return Response.of(true, "Chat details retrieved.", access.getChat());
                 } else {
                     return new Response(false, "Chat not found.", null);
                 }
@@ -970,26 +1821,23 @@ public class ChatServer3 {
             }
         }
 
-        private Response handleUpdateChat(String payload) {
-            Type type = new TypeToken<Map<String, Object>>() {}.getType();
-            Map<String, Object> chatData = gson.fromJson(payload, type);
+        private Response handleUpdateChat(Request request) {
+            RequestPayloads.ChatDetails chatData = request.getPayload(RequestPayloads.ChatDetails.class);
 
-            int chatId = ((Double) chatData.get("chat_id")).intValue();
-            String chatName = (String) chatData.get("chat_name");
-            String chatDescription = (String) chatData.get("chat_description");
-            String publicLink = (String) chatData.get("public_link");
-            String chatType = (String) chatData.get("chat_type");
+            int chatId = chatData.getChatId();
+            String chatName = chatData.getChatName();
+            String chatDescription = chatData.getChatDescription();
+            String publicLink = chatData.getPublicLink();
+            String chatType = chatData.getChatType();
 
             try {
-                Optional<Chat> existingChatOpt = chatDao.getChatById(chatId);
-                if (!existingChatOpt.isPresent()) {
+                ChatAccessContext access = chatAccessCache.get(chatId);
+                if (access == null) {
                     return new Response(false, "Chat not found.", null);
                 }
-                Chat existingChat = existingChatOpt.get();
+                Chat existingChat = access.getChat();
 
-                ChatParticipant currentUserParticipant = chatParticipantDao.getChatParticipant(currentUserId, chatId).orElse(null);
-                if (currentUserParticipant == null ||
-                        (!currentUserParticipant.getRole().equals("creator") && !currentUserParticipant.getRole().equals("admin"))) {
+                if (!access.isCreatorOrAdmin(currentUserId)) {
                     return new Response(false, "Unauthorized: Only chat creator or admin can update chat.", null);
                 }
 
@@ -1000,7 +1848,7 @@ public class ChatServer3 {
 
                 boolean success = chatDao.updateChat(existingChat);
                 if (success) {
-                    return new Response(true, "Chat updated successfully!", gson.toJson(existingChat));
+                    return Response.of(true, "Chat updated successfully!", existingChat);
                 } else {
                     return new Response(false, "Failed to update chat.", null);
                 }
@@ -1011,19 +1859,22 @@ public class ChatServer3 {
         }
 
 
-        private Response handleDeleteChat(String payload) {
-            Type type = new TypeToken<Map<String, Double>>() {}.getType();
-            Map<String, Double> params = gson.fromJson(payload, type);
-            int chatId = params.get("chat_id").intValue();
+        private Response handleDeleteChat(Request request) {
+            RequestPayloads.ChatRef params = request.getPayload(RequestPayloads.ChatRef.class);
+            int chatId = params.getChatId();
 
-            Optional<Chat> chatOptional = chatDao.getChatById(chatId);
-            if (!chatOptional.isPresent()) {
-                return new Response(false, "Chat not found.", null);
-            }
-            Chat chatToDelete = chatOptional.get();
+            try {
+                ChatAccessContext access = chatAccessCache.get(chatId);
+                if (access == null) {
+                    return new Response(false, "Chat not found.", null);
+                }
 
-            if (chatToDelete.getCreatorId() != currentUserId) {
-                return new Response(false, "Unauthorized: Only the chat creator can delete this chat.", null);
+                if (access.getCreatorId() != currentUserId) {
+                    return new Response(false, "Unauthorized: Only the chat creator can delete this chat.", null);
+                }
+            } catch (SQLException e) {
+                System.err.println("Error deleting chat: " + e.getMessage());
+                return new Response(false, "Server error deleting chat.", null);
             }
 
             boolean success = chatDao.deleteChat(chatId);
@@ -1035,11 +1886,10 @@ public class ChatServer3 {
         }
 
 
-        private Response handleUpdateMessage(String payload) {
-            Type type = new TypeToken<Map<String, Object>>() {}.getType();
-            Map<String, Object> messageData = gson.fromJson(payload, type);
-            int messageId = ((Double) messageData.get("message_id")).intValue();
-            String newContent = (String) messageData.get("content");
+        private Response handleUpdateMessage(Request request) {
+            RequestPayloads.MessageRef messageData = request.getPayload(RequestPayloads.MessageRef.class);
+            long messageId = messageData.getMessageId();
+            String newContent = messageData.getContent();
 
             try {
                 Optional<Message> msgOptional = messageDao.getMessageById(messageId);
@@ -1074,10 +1924,9 @@ public class ChatServer3 {
             }
         }
 
-        private Response handleDeleteMessage(String payload) {
-            Type type = new TypeToken<Map<String, Double>>() {}.getType();
-            Map<String, Double> params = gson.fromJson(payload, type);
-            int messageId = params.get("message_id").intValue();
+        private Response handleDeleteMessage(Request request) {
+            RequestPayloads.MessageRef params = request.getPayload(RequestPayloads.MessageRef.class);
+            long messageId = params.getMessageId();
 
             try {
                 Optional<Message> msgOptional = messageDao.getMessageById(messageId);
@@ -1086,12 +1935,11 @@ public class ChatServer3 {
                 }
                 Message message = msgOptional.get();
 
-                ChatParticipant currentUserParticipant = chatParticipantDao.getChatParticipant(currentUserId, message.getChatId()).orElse(null);
-                boolean isChatAdminOrCreator = (currentUserParticipant != null &&
-                        (currentUserParticipant.getRole().equals("admin") || currentUserParticipant.getRole().equals("creator")));
-
-                if (message.getSenderId() != currentUserId && !isChatAdminOrCreator) {
-                    return new Response(false, "Unauthorized: Only the sender or a chat admin/creator can delete this message.", null);
+                if (message.getSenderId() != currentUserId) {
+                    ChatAccessContext access = chatAccessCache.get(message.getChatId());
+                    if (access == null || !access.isCreatorOrAdmin(currentUserId)) {
+                        return new Response(false, "Unauthorized: Only the sender or a chat admin/creator can delete this message.", null);
+                    }
                 }
 
                 boolean success = messageDao.deleteMessage(messageId);
@@ -1106,10 +1954,9 @@ public class ChatServer3 {
             }
         }
 
-        private Response handleMarkMessageAsRead(String payload) {
-            Type type = new TypeToken<Map<String, Double>>() {}.getType();
-            Map<String, Double> params = gson.fromJson(payload, type);
-            int messageId = params.get("message_id").intValue();
+        private Response handleMarkMessageAsRead(Request request) {
+            RequestPayloads.MessageRef params = request.getPayload(RequestPayloads.MessageRef.class);
+            long messageId = params.getMessageId();
 
             try {
                 Optional<Message> msgOptional = messageDao.getMessageById(messageId);
@@ -1131,26 +1978,23 @@ public class ChatServer3 {
             }
         }
 
-        private Response handleAddChatParticipant(String payload) {
+        private Response handleAddChatParticipant(Request request) {
             try {
-                Type type = new TypeToken<Map<String, Object>>() {}.getType();
-                Map<String, Object> data = gson.fromJson(payload, type);
+                RequestPayloads.ParticipantChange data = request.getPayload(RequestPayloads.ParticipantChange.class);
 
-                int chatId = ((Double) data.get("chat_id")).intValue();
-                int userIdToAdd = ((Double) data.get("user_id")).intValue();
-                String role = (String) data.get("role");
+                int chatId = data.getChatId();
+                int userIdToAdd = data.getUserId();
+                String role = data.getRole();
 
-                if (!chatDao.getChatById(chatId).isPresent()) {
+                ChatAccessContext access = chatAccessCache.get(chatId);
+                if (access == null) {
                     return new Response(false, "Chat not found.", null);
                 }
                 if (!userDao.getUserById(userIdToAdd).isPresent()) {
                     return new Response(false, "Target user to add not found.", null);
                 }
 
-                Optional<ChatParticipant> currentUserAsParticipant = chatParticipantDao.getChatParticipant(currentUserId, chatId);
-                if (currentUserAsParticipant.isEmpty() ||
-                        (!"creator".equalsIgnoreCase(currentUserAsParticipant.get().getRole()) &&
-                                !"admin".equalsIgnoreCase(currentUserAsParticipant.get().getRole()))) {
+                if (!access.isCreatorOrAdmin(currentUserId)) {
                     return new Response(false, "Unauthorized: Only chat creators or admins can add participants.", null);
                 }
 
@@ -1167,7 +2011,7 @@ public class ChatServer3 {
                 int participantId = chatParticipantDao.createChatParticipant(newParticipant);
                 if (participantId != -1) {
                     newParticipant.setId(participantId);
-                    return new Response(true, "Participant added successfully!", gson.toJson(newParticipant));
+                    return Response.of(true, "Participant added successfully!", newParticipant);
                 } else {
                     return new Response(false, "Failed to add participant.", null);
                 }
@@ -1178,44 +2022,38 @@ public class ChatServer3 {
         }
 
 
-        private Response handleGetChatParticipants(String payload) {
-            Type type = new TypeToken<Map<String, Double>>() {}.getType();
-            Map<String, Double> params = gson.fromJson(payload, type);
-            int chatId = params.get("chat_id").intValue();
+        private Response handleGetChatParticipants(Request request) {
+            RequestPayloads.ChatRef params = request.getPayload(RequestPayloads.ChatRef.class);
+            int chatId = params.getChatId();
 
             try {
                 if (!chatParticipantDao.isUserParticipant(chatId, currentUserId)) {
                     return new Response(false, "You are not a participant of this chat.", null);
                 }
                 List<ChatParticipant> participants = chatParticipantDao.getChatParticipants(chatId);
-                return new Response(true, "Chat participants retrieved.", gson.toJson(participants));
+                return Response.of(true, "Chat participants retrieved.", participants);
             } catch (SQLException e) {
                 System.err.println("Error getting chat participants: " + e.getMessage());
                 return new Response(false, "Server error retrieving participants.", null);
             }
         }
 
-        private Response handleUpdateChatParticipantRole(String payload) {
-            Type type = new TypeToken<Map<String, Object>>() {}.getType();
-            Map<String, Object> params = gson.fromJson(payload, type);
-            int chatId = ((Double) params.get("chat_id")).intValue();
-            int targetUserId = ((Double) params.get("user_id")).intValue();
-            String newRole = (String) params.get("new_role");
+        private Response handleUpdateChatParticipantRole(Request request) {
+            RequestPayloads.ParticipantChange params = request.getPayload(RequestPayloads.ParticipantChange.class);
+            int chatId = params.getChatId();
+            int targetUserId = params.getUserId();
+            String newRole = params.getNewRole();
 
             try {
-
-                ChatParticipant currentUserParticipant = chatParticipantDao.getChatParticipant(currentUserId, chatId).orElse(null);
-                if (currentUserParticipant == null ||
-                        (!"creator".equalsIgnoreCase(currentUserParticipant.getRole()) &&
-                                !"admin".equalsIgnoreCase(currentUserParticipant.getRole()))) {
+                ChatAccessContext access = chatAccessCache.get(chatId);
+                if (access == null || !access.isCreatorOrAdmin(currentUserId)) {
                     return new Response(false, "Unauthorized: Only chat creators or admins can add participants.", null);
                 }
 
-                if (targetUserId == currentUserId && !currentUserParticipant.getRole().equals("creator")) {
+                if (targetUserId == currentUserId && !access.isCreator(currentUserId)) {
                     return new Response(false, "You cannot change your own role unless you are the creator.", null);
                 }
-                Chat chat = chatDao.getChatById(chatId).orElse(null);
-                if (chat != null && chat.getCreatorId() == targetUserId && !newRole.equals("creator")) {
+                if (access.getCreatorId() == targetUserId && !newRole.equals("creator")) {
                     return new Response(false, "Cannot change the creator's role to something other than 'creator'.", null);
                 }
 
@@ -1232,25 +2070,18 @@ public class ChatServer3 {
             }
         }
 
-        private Response handleRemoveChatParticipant(String payload) {
-            Type type = new TypeToken<Map<String, Double>>() {}.getType();
-            Map<String, Double> params = gson.fromJson(payload, type);
-            int chatId = params.get("chat_id").intValue();
-            int userIdToRemove = params.get("user_id").intValue();
+        private Response handleRemoveChatParticipant(Request request) {
+            RequestPayloads.ParticipantChange params = request.getPayload(RequestPayloads.ParticipantChange.class);
+            int chatId = params.getChatId();
+            int userIdToRemove = params.getUserId();
 
             try {
-
-
-                ChatParticipant currentUserParticipant = chatParticipantDao.getChatParticipant(currentUserId, chatId).orElse(null);
-                boolean isChatAdminOrCreator = (currentUserParticipant != null &&
-                        (currentUserParticipant.getRole().equals("admin") || currentUserParticipant.getRole().equals("creator")));
-
-                if (userIdToRemove != currentUserId && !isChatAdminOrCreator) {
+                ChatAccessContext access = chatAccessCache.get(chatId);
+                if (userIdToRemove != currentUserId && (access == null || !access.isCreatorOrAdmin(currentUserId))) {
                     return new Response(false, "Unauthorized: Only chat creator/admin can remove other participants.", null);
                 }
 
-                Chat chat = chatDao.getChatById(chatId).orElse(null);
-                if (chat != null && chat.getCreatorId() == userIdToRemove) {
+                if (access != null && access.getCreatorId() == userIdToRemove) {
                     return new Response(false, "The chat creator cannot be removed from the chat.", null);
                 }
 
@@ -1266,10 +2097,9 @@ public class ChatServer3 {
             }
         }
 
-        private Response handleAddContact(String payload) {
-            Type type = new TypeToken<Map<String, Double>>() {}.getType();
-            Map<String, Double> params = gson.fromJson(payload, type);
-            int contactUserId = params.get("contact_user_id").intValue();
+        private Response handleAddContact(Request request) {
+            RequestPayloads.ContactRef params = request.getPayload(RequestPayloads.ContactRef.class);
+            int contactUserId = params.getContactUserId();
 
             if (contactUserId == currentUserId) {
                 return new Response(false, "Cannot add yourself as a contact.", null);
@@ -1294,13 +2124,12 @@ public class ChatServer3 {
         private Response handleGetContacts() {
             List<User> contacts = contactDao.getContactsForUser(currentUserId);
             contacts.forEach(u -> u.setPassword(null));
-            return new Response(true, "User contacts retrieved.", gson.toJson(contacts));
+            return Response.of(true, "User contacts retrieved.", contacts);
         }
 
-        private Response handleRemoveContact(String payload) {
-            Type type = new TypeToken<Map<String, Double>>() {}.getType();
-            Map<String, Double> params = gson.fromJson(payload, type);
-            int contactUserId = params.get("contact_user_id").intValue();
+        private Response handleRemoveContact(Request request) {
+            RequestPayloads.ContactRef params = request.getPayload(RequestPayloads.ContactRef.class);
+            int contactUserId = params.getContactUserId();
 
             boolean success = contactDao.deleteContact(currentUserId, contactUserId);
             if (success) {
@@ -1310,11 +2139,10 @@ public class ChatServer3 {
             }
         }
 
-        private Response handleBlockUnblockUser(String payload) {
-            Type type = new TypeToken<Map<String, Object>>() {}.getType();
-            Map<String, Object> params = gson.fromJson(payload, type);
-            int targetUserId = ((Double) params.get("target_user_id")).intValue();
-            String action = (String) params.get("action");
+        private Response handleBlockUnblockUser(Request request) {
+            RequestPayloads.BlockUnblock params = request.getPayload(RequestPayloads.BlockUnblock.class);
+            int targetUserId = params.getTargetUserId();
+            String action = params.getAction();
 
             if (targetUserId == currentUserId) {
                 return new Response(false, "Cannot block/unblock yourself.", null);
@@ -1347,17 +2175,16 @@ public class ChatServer3 {
         private Response handleGetUserNotifications() {
             try {
                 List<Notification> notifications = notificationDao.getNotificationsByUserId(currentUserId);
-                return new Response(true, "User notifications retrieved.", gson.toJson(notifications));
+                return Response.of(true, "User notifications retrieved.", notifications);
             } catch (SQLException e) {
                 System.err.println("Error getting user notifications: " + e.getMessage());
                 return new Response(false, "Server error retrieving notifications.", null);
             }
         }
 
-        private Response handleMarkNotificationAsRead(String payload) {
-            Type type = new TypeToken<Map<String, Double>>() {}.getType();
-            Map<String, Double> params = gson.fromJson(payload, type);
-            int notificationId = params.get("notification_id").intValue();
+        private Response handleMarkNotificationAsRead(Request request) {
+            RequestPayloads.NotificationRef params = request.getPayload(RequestPayloads.NotificationRef.class);
+            long notificationId = params.getNotificationId();
 
             try {
                 Optional<Notification> notificationOptional = notificationDao.getNotificationById(notificationId);
@@ -1376,10 +2203,9 @@ public class ChatServer3 {
             }
         }
 
-        private Response handleDeleteNotification(String payload) {
-            Type type = new TypeToken<Map<String, Double>>() {}.getType();
-            Map<String, Double> params = gson.fromJson(payload, type);
-            int notificationId = params.get("notification_id").intValue();
+        private Response handleDeleteNotification(Request request) {
+            RequestPayloads.NotificationRef params = request.getPayload(RequestPayloads.NotificationRef.class);
+            long notificationId = params.getNotificationId();
 
             try {
                 Optional<Notification> notificationOptional = notificationDao.getNotificationById(notificationId);
@@ -1400,51 +2226,51 @@ public class ChatServer3 {
     }
 
 
+    // Sends the file, or length bytes of it from start on (length -1 for the rest), so an interrupted
+    // download can continue where it stopped.
     private class FileDownloadHandler implements Runnable {
-        private Socket fileSocket;
+        private SocketChannel fileChannel;
         private String fileName;
         private String mediaId;
+        private long start;
+        private long length;
 
-        public FileDownloadHandler(Socket fileSocket, String fileName, String mediaId) {
-            this.fileSocket = fileSocket;
+        public FileDownloadHandler(SocketChannel fileChannel, String fileName, String mediaId, long start, long length) {
+            this.fileChannel = fileChannel;
             this.fileName = fileName;
             this.mediaId = mediaId;
+            this.start = start;
+            this.length = length;
         }
 
         @Override
         public void run() {
             System.out.println(" ---------------- sending ----------------------- " + mediaId + " " + fileName);
-            String filePathOnServer = FileStorageManager.getUploadDirectory() + File.separator + fileName;
+            Path filePathOnServer = Paths.get(FileStorageManager.getUploadDirectory(), fileName);
             System.out.println(filePathOnServer);
-            File fileToSend = new File(filePathOnServer);
 
-            if (!fileToSend.exists() || !fileToSend.isFile()) {
+            if (!Files.isRegularFile(filePathOnServer)) {
                 System.err.println("File not found on server for download: " + filePathOnServer);
                 try {
-                    PrintWriter fileOut = new PrintWriter(fileSocket.getOutputStream(), true);
-                    fileOut.println("File not found on ");
-                    fileSocket.close();
+                    fileChannel.write(ByteBuffer.wrap("File not found on \n".getBytes(StandardCharsets.UTF_8)));
+                    fileChannel.close();
                 } catch (IOException e) {
                     System.err.println("Error sending file not found message: " + e.getMessage());
                 }
                 return;
             }
 
-            try (OutputStream os = fileSocket.getOutputStream();
-                 FileInputStream fis = new FileInputStream(fileToSend)) {
-
-                byte[] buffer = new byte[4096];
-                int bytesRead;
-                long totalBytesSent = 0;
-                long fileSize = fileToSend.length();
-
-                System.out.println("Sending file: " + fileName + " (" + fileSize + " bytes)");
-
-                while ((bytesRead = fis.read(buffer)) != -1) {
-                    os.write(buffer, 0, bytesRead);
-                    totalBytesSent += bytesRead;
+            // transferTo hands the copy to the kernel (sendfile), so the file never passes through the heap.
+            try (FileChannel file = FileChannel.open(filePathOnServer, StandardOpenOption.READ)) {
+                long fileSize = file.size();
+                if (start > fileSize) {
+                    fileChannel.write(ByteBuffer.wrap("Invalid range\n".getBytes(StandardCharsets.UTF_8)));
+                    return;
                 }
-                os.flush();
+                long count = length < 0 ? fileSize - start : Math.min(length, fileSize - start);
+                System.out.println("Sending file: " + fileName + " (" + count + " of " + fileSize + " bytes from byte " + start + ")");
+
+                long totalBytesSent = FileTransfers.getInstance().sendFile(file, start, count, fileChannel);
 
                 System.out.println("File '" + fileName + "' sent successfully! Total bytes: " + totalBytesSent);
 
@@ -1453,8 +2279,8 @@ public class ChatServer3 {
                 e.printStackTrace();
             } finally {
                 try {
-                    if (fileSocket != null && !fileSocket.isClosed()) {
-                        fileSocket.close();
+                    if (fileChannel != null && fileChannel.isOpen()) {
+                        fileChannel.close();
                     }
                 } catch (IOException e) {
                     System.err.println("Error closing file socket: " + e.getMessage());
@@ -1464,13 +2290,12 @@ public class ChatServer3 {
     }
 
 
-    private Response handleGetFileByMedia(String payload) {
-        Type type = new TypeToken<Map<String, String>>() {}.getType();
-        Map<String, String> data = gson.fromJson(payload, type);
+    private Response handleGetFileByMedia(Request request) {
+        RequestPayloads.MediaRef data = request.getPayload(RequestPayloads.MediaRef.class);
 
-        String mediaId = data.get("mediaId");
+        String mediaId = data.getMediaId();
         Media mediaToTransfer = new Media();
-        mediaToTransfer = mediaDao.getMediaById(Integer.parseInt(mediaId)).get();
+        mediaToTransfer = mediaDao.getMediaById(Long.parseLong(mediaId)).get();
         String fileName = mediaToTransfer.getFilePathOrUrl();
 
         System.out.println("------------- media id is " + mediaId);
@@ -1494,8 +2319,10 @@ public class ChatServer3 {
         Map<String, Object> responseData = new HashMap<>();
         responseData.put("transfer_id", mediaId);
         responseData.put("fileSize", fileToDownload.length());
+        // Lets the client forward the media by hash without uploading it again.
+        responseData.put("content_hash", mediaToTransfer.getContentHash());
         System.out.println("\nREADY_TO_SEND_FILE\n");
-        return new Response(true, "READY_TO_SEND_FILE", gson.toJson(responseData));
+        return Response.of(true, "READY_TO_SEND_FILE", responseData);
     }
 
 
@@ -1505,6 +2332,8 @@ public class ChatServer3 {
         System.out.println("Database initialized.");
 
         ChatServer3 server = new ChatServer3();
+        // Ctrl-C or SIGTERM still runs stop(), so buffered view counts reach the database.
+        Runtime.getRuntime().addShutdownHook(new Thread(server::stop, "ChatServerShutdown"));
         server.start();
     }
 }
@@ -0,0 +1,105 @@
+// src/orgs/server/CommandLoadBenchmark.java
+package orgs.server;
+
+import com.google.gson.Gson;
+import orgs.protocol.Command;
+import orgs.protocol.Request;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Load generator for the command port. Start the server with -Dtuasl.command.mode=nio|virtual|blocking
+ * and run:
+ * <pre>
+ *   java orgs.server.CommandLoadBenchmark [host] [port] [idleConnections] [activeClients] [requestsPerClient]
+ * </pre>
+ * It parks {@code idleConnections} open sockets, then lets {@code activeClients} send unauthenticated
+ * requests (answered without touching MySQL) and prints how many connections were held and the
+ * round-trip latency percentiles.
+ */
+public class CommandLoadBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 6373;
+        int idleConnections = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        int activeClients = args.length > 3 ? Integer.parseInt(args[3]) : 50;
+        int requestsPerClient = args.length > 4 ? Integer.parseInt(args[4]) : 200;
+
+        String requestJson = new Gson().toJson(new Request(Command.GET_ALL_USERS));
+
+        List<Socket> idle = new ArrayList<>();
+        for (int i = 0; i < idleConnections; i++) {
+            try {
+                idle.add(new Socket(host, port));
+            } catch (IOException e) {
+                System.err.println("Stopped opening idle connections at " + i + ": " + e.getMessage());
+                break;
+            }
+        }
+        System.out.println("Idle connections held: " + idle.size());
+
+        ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor();
+        List<Future<long[]>> results = new ArrayList<>();
+        long started = System.nanoTime();
+        for (int c = 0; c < activeClients; c++) {
+            results.add(clients.submit(() -> runClient(host, port, requestJson, requestsPerClient)));
+        }
+
+        long[] latencies = new long[activeClients * requestsPerClient];
+        int count = 0;
+        for (Future<long[]> result : results) {
+            long[] clientLatencies = result.get();
+            System.arraycopy(clientLatencies, 0, latencies, count, clientLatencies.length);
+            count += clientLatencies.length;
+        }
+        long elapsed = System.nanoTime() - started;
+        clients.shutdown();
+
+        latencies = Arrays.copyOf(latencies, count);
+        Arrays.sort(latencies);
+        System.out.println("Connections: " + (idle.size() + activeClients) + " (" + idle.size() + " idle, " + activeClients + " active)");
+        System.out.println("Requests: " + count + " in " + elapsed / 1_000_000 + " ms (" + (count * 1_000_000_000L / Math.max(1, elapsed)) + " req/s)");
+        System.out.println("Latency p50: " + percentile(latencies, 0.50) + " us, p99: " + percentile(latencies, 0.99)
+                + " us, max: " + (count == 0 ? 0 : latencies[count - 1] / 1000) + " us");
+
+        for (Socket socket : idle) {
+            socket.close();
+        }
+    }
+
+    private static long[] runClient(String host, int port, String requestJson, int requests) throws IOException {
+        long[] latencies = new long[requests];
+        try (Socket socket = new Socket(host, port);
+             PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+            for (int i = 0; i < requests; i++) {
+                long start = System.nanoTime();
+                out.println(requestJson);
+                if (in.readLine() == null) {
+                    return Arrays.copyOf(latencies, i);
+                }
+                latencies[i] = System.nanoTime() - start;
+            }
+        }
+        return latencies;
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1000;
+    }
+}
@@ -0,0 +1,119 @@
+// src/orgs/server/FanOutBenchmark.java
+package orgs.server;
+
+import orgs.model.Message;
+import orgs.protocol.EncodedResponse;
+import orgs.protocol.FrameCodec;
+import orgs.protocol.Request;
+import orgs.protocol.Response;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+
+/**
+ * Cost of pushing one new-message notification to a whole group, encoding it per recipient versus once
+ * through {@link EncodedResponse}. Runs in process against channels that discard what they are given:
+ * <pre>
+ *   java orgs.server.FanOutBenchmark [rounds]
+ * </pre>
+ * Recipients are split between line and framed connections and between envelope versions 1 and 2, which
+ * is the worst case for the shared encoding (four encodings per fan-out).
+ */
+public class FanOutBenchmark {
+
+    private static final int[] GROUP_SIZES = {10, 100, 1_000, 5_000};
+
+    public static void main(String[] args) {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+
+        Message message = new Message();
+        message.setId(123456);
+        message.setChatId(42);
+        message.setSenderId(7);
+        message.setContent("Landing at 18:40, see you at the usual place. Bring the charger please!");
+        message.setMessageType("text");
+        message.setSentAt(LocalDateTime.now());
+
+        for (int pass = 0; pass < 2; pass++) {
+            boolean report = pass == 1; // the first pass is JIT warm-up
+            for (int groupSize : GROUP_SIZES) {
+                DiscardingChannel[] recipients = new DiscardingChannel[groupSize];
+                for (int i = 0; i < groupSize; i++) {
+                    recipients[i] = new DiscardingChannel(i % 2 == 0 ? FrameCodec.Mode.LINE : FrameCodec.Mode.FRAMED,
+                            i % 4 < 2 ? Request.VERSION_1 : Request.VERSION_2);
+                }
+                int groupRounds = Math.max(1, rounds * 100 / groupSize);
+                measure("per recipient", groupSize, groupRounds, report, () -> {
+                    Response response = Response.of(true, "New message received", message);
+                    for (DiscardingChannel recipient : recipients) {
+                        recipient.send(FrameCodec.encode(recipient.mode, response, recipient.version));
+                    }
+                });
+                measure("encoded once ", groupSize, groupRounds, report, () -> {
+                    EncodedResponse encoded = new EncodedResponse(Response.of(true, "New message received", message));
+                    for (DiscardingChannel recipient : recipients) {
+                        recipient.send(encoded.frameFor(recipient.mode, recipient.version));
+                    }
+                });
+            }
+        }
+    }
+
+    private static void measure(String name, int groupSize, int rounds, boolean report, Runnable fanOut) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().threadId();
+        long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        long started = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            fanOut.run();
+        }
+        long elapsed = System.nanoTime() - started;
+        long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        if (report) {
+            System.out.printf("%s  group %5d  %10.1f us/fan-out  %10d bytes/fan-out%n",
+                    name, groupSize, elapsed / 1_000.0 / rounds, allocated / rounds);
+        }
+    }
+
+    private static final class DiscardingChannel implements OutboundChannel {
+        final FrameCodec.Mode mode;
+        final int version;
+        long bytes;
+
+        DiscardingChannel(FrameCodec.Mode mode, int version) {
+            this.mode = mode;
+            this.version = version;
+        }
+
+        @Override
+        public void send(ByteBuffer frame) {
+            bytes += frame.remaining();
+        }
+
+        @Override
+        public boolean offer(ByteBuffer frame, int maxQueuedFrames) {
+            send(frame);
+            return true;
+        }
+
+        @Override
+        public int getQueuedFrames() {
+            return 0;
+        }
+
+        @Override
+        public long getQueuedBytes() {
+            return 0;
+        }
+
+        @Override
+        public FrameCodec.Mode getProtocolMode() {
+            return mode;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
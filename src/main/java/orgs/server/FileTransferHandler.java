@@ -3,15 +3,17 @@ package orgs.server;
 
 import orgs.dao.MessageDao;
 import orgs.model.Message;
+import orgs.utils.FileTransfers;
 
-import java.io.BufferedInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.Socket;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.time.LocalDateTime;
 
 public class FileTransferHandler implements Runnable {
@@ -41,23 +43,16 @@ public class FileTransferHandler implements Runnable {
         String serverUploadDir =   "src/main/resources/uploads";    // FileStorageManager;
         Path filePath = Paths.get(serverUploadDir, fileName);
 
-        try (InputStream is = fileSocket.getInputStream();
-             BufferedInputStream bis = new BufferedInputStream(is);
-             FileOutputStream fos = new FileOutputStream(filePath.toFile())) {
+        try (FileChannel file = FileChannel.open(filePath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
 
             System.out.println("Server: Receiving file '" + fileName + "' from client...");
 
-            byte[] buffer = new byte[8192];
-            int bytesRead;
-            long totalBytesReceived = 0;
-
-            while (totalBytesReceived < fileSize && (bytesRead = bis.read(buffer)) != -1) {
-                fos.write(buffer, 0, bytesRead);
-                totalBytesReceived += bytesRead;
-                // Optional: print progress for large files
-                // System.out.print("\rServer: Received " + totalBytesReceived + " of " + fileSize + " bytes");
-            }
-            fos.flush(); // Ensure all bytes are written to file
+            // Sockets accepted from a ServerSocketChannel are read directly; others through their stream.
+            ReadableByteChannel in = fileSocket.getChannel() != null
+                    ? fileSocket.getChannel()
+                    : Channels.newChannel(fileSocket.getInputStream());
+            long totalBytesReceived = FileTransfers.getInstance().receiveFile(in, file, 0, fileSize);
 
             System.out.println("\nServer: File '" + fileName + "' received. Size: " + totalBytesReceived + " bytes.");
 
@@ -68,11 +63,11 @@ public class FileTransferHandler implements Runnable {
             mediaMessage.setContent(caption); // Caption as message content
             mediaMessage.setMessageType(mediaType);
             //mediaMessage.setMediaId(filePath.getFileName().toString()); // Store filename as media ID
-            mediaMessage.setMediaId(5); // Store filename as media ID
+            mediaMessage.setMediaId(5L); // Store filename as media ID
             mediaMessage.setSentAt(LocalDateTime.now());
             mediaMessage.setViewCount(0); // Initial view count
 
-            int messageId = messageDao.createMessage(mediaMessage);
+            long messageId = messageDao.createMessage(mediaMessage);
             if (messageId != -1) {
                 mediaMessage.setId(messageId);
                 // Notify relevant clients about the new media message
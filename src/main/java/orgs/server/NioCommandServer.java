@@ -0,0 +1,511 @@
+// src/orgs/server/NioCommandServer.java
+package orgs.server;
+
+import orgs.protocol.FrameCodec;
+import orgs.protocol.Response;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Non-blocking command listener built on {@link ServerSocketChannel} and {@link Selector}.
+ * <p>
+ * A single acceptor thread hands new connections round-robin to a small set of event-loop
+ * threads. Each event loop owns a selector, decodes request frames (newline-delimited or
+ * length-prefixed, see {@link FrameCodec}) and writes queued replies, so an idle connection costs a
+ * buffer and a selection key instead of a thread.
+ * Decoded frames are handed to the worker pool; frames of the same connection are always
+ * delivered one at a time and in order. Once a connection has {@code tuasl.command.maxInboundFrames}
+ * frames (default 64) or {@code tuasl.command.maxInboundBytes} (default 8 MB, counted in characters)
+ * waiting for its worker, its event loop stops reading from it until the worker has caught up to half
+ * of that, so a client pipelining faster than it is served is held back by TCP rather than the heap.
+ */
+public class NioCommandServer {
+
+    /**
+     * Callbacks invoked on a worker thread. Calls for the same connection never overlap.
+     */
+    public interface ConnectionHandler {
+        void onOpen(Connection connection);
+
+        void onMessage(Connection connection, String message);
+
+        void onClose(Connection connection);
+    }
+
+    // Markers queued with the inbound frames so onOpen/onClose run in order with the messages.
+    private static final String OPEN_MARKER = new String("<opened>");
+    private static final String CLOSE_MARKER = new String("<closed>");
+    private static final int WRITE_BATCH_FRAMES = 64;
+    private static final int MAX_INBOUND_FRAMES = Integer.getInteger("tuasl.command.maxInboundFrames", 64);
+    private static final long MAX_INBOUND_BYTES = Long.getLong("tuasl.command.maxInboundBytes", 8L * 1024 * 1024);
+
+    private final int port;
+    private final ExecutorService workers;
+    private final ConnectionHandler handler;
+    private final EventLoop[] eventLoops;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    private final AtomicInteger openConnections = new AtomicInteger();
+
+    private ServerSocketChannel serverChannel;
+    private Thread acceptorThread;
+    private volatile boolean running;
+
+    public NioCommandServer(int port, int eventLoopThreads, ExecutorService workers, ConnectionHandler handler) {
+        this.port = port;
+        this.workers = workers;
+        this.handler = handler;
+        this.eventLoops = new EventLoop[Math.max(1, eventLoopThreads)];
+    }
+
+    public void start() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port), 1024);
+        running = true;
+
+        for (int i = 0; i < eventLoops.length; i++) {
+            eventLoops[i] = new EventLoop(Selector.open());
+            Thread loopThread = new Thread(eventLoops[i], "CommandEventLoop-" + i);
+            loopThread.setDaemon(true);
+            loopThread.start();
+        }
+
+        acceptorThread = new Thread(this::acceptLoop, "CommandServerListener");
+        acceptorThread.start();
+        System.out.println("Chat Server started on command port " + port + " (NIO, " + eventLoops.length + " event loops)");
+    }
+
+    public void stop() {
+        running = false;
+        try {
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Error closing command server channel: " + e.getMessage());
+        }
+        for (EventLoop loop : eventLoops) {
+            if (loop != null) {
+                loop.shutdown();
+            }
+        }
+    }
+
+    public int getOpenConnections() {
+        return openConnections.get();
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                EventLoop loop = eventLoops[Math.floorMod(nextLoop.getAndIncrement(), eventLoops.length)];
+                loop.register(channel);
+            } catch (ClosedChannelException e) {
+                break;
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("Command Server accept error: " + e.getMessage());
+                }
+            }
+        }
+        System.out.println("Command Server listener stopped.");
+    }
+
+    private final class EventLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private volatile Thread thread;
+
+        EventLoop(Selector selector) {
+            this.selector = selector;
+        }
+
+        void register(SocketChannel channel) {
+            execute(() -> {
+                try {
+                    Connection connection = new Connection(channel, this);
+                    connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                    openConnections.incrementAndGet();
+                    connection.enqueue(OPEN_MARKER);
+                } catch (IOException e) {
+                    System.err.println("Failed to register command connection: " + e.getMessage());
+                    closeQuietly(channel);
+                }
+            });
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            if (Thread.currentThread() != thread) {
+                selector.wakeup();
+            }
+        }
+
+        boolean inEventLoop() {
+            return Thread.currentThread() == thread;
+        }
+
+        void shutdown() {
+            execute(() -> {
+                for (SelectionKey key : selector.keys()) {
+                    if (key.attachment() instanceof Connection connection) {
+                        connection.closeNow();
+                    }
+                }
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    System.err.println("Error closing selector: " + e.getMessage());
+                }
+            });
+        }
+
+        @Override
+        public void run() {
+            thread = Thread.currentThread();
+            while (selector.isOpen()) {
+                try {
+                    selector.select();
+                    runTasks();
+                    if (!selector.isOpen()) {
+                        break;
+                    }
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        Connection connection = (Connection) key.attachment();
+                        if (!key.isValid()) {
+                            connection.closeNow();
+                            continue;
+                        }
+                        if (key.isReadable()) {
+                            connection.readAvailable();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.flush();
+                        }
+                    }
+                } catch (IOException e) {
+                    System.err.println("Command event loop error: " + e.getMessage());
+                } catch (RuntimeException e) {
+                    System.err.println("Unexpected command event loop error: " + e.getMessage());
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        private void runTasks() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                task.run();
+            }
+        }
+    }
+
+    /**
+     * One accepted client. Inbound frames are decoded on the event loop, outbound frames may be
+     * queued from any thread with {@link #send(String)}.
+     */
+    public final class Connection implements OutboundChannel {
+        private final SocketChannel channel;
+        private final EventLoop loop;
+        private final String remoteAddress;
+        private SelectionKey key;
+
+        private final FrameCodec.Decoder decoder = new FrameCodec.Decoder();
+        private volatile FrameCodec.Mode protocolMode;
+        private final Queue<ByteBuffer> outbound = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger queuedFrames = new AtomicInteger();
+        private final AtomicLong queuedBytes = new AtomicLong();
+        private final AtomicBoolean flushScheduled = new AtomicBoolean();
+        // Reused by flush() on the event loop to hand queued frames to one gathering write.
+        private final ByteBuffer[] writeBatch = new ByteBuffer[WRITE_BATCH_FRAMES];
+
+        private final Queue<String> inbound = new ConcurrentLinkedQueue<>();
+        // Frames queued in inbound and their length; OP_READ is off while readSuspended is set.
+        private final AtomicInteger inboundFrames = new AtomicInteger();
+        private final AtomicLong inboundBytes = new AtomicLong();
+        private final AtomicBoolean readSuspended = new AtomicBoolean();
+        private final AtomicBoolean dispatching = new AtomicBoolean();
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private volatile Object attachment;
+
+        private Connection(SocketChannel channel, EventLoop loop) {
+            this.channel = channel;
+            this.loop = loop;
+            String address;
+            try {
+                address = String.valueOf(channel.getRemoteAddress());
+            } catch (IOException e) {
+                address = "unknown";
+            }
+            this.remoteAddress = address;
+        }
+
+        public Object getAttachment() {
+            return attachment;
+        }
+
+        public void setAttachment(Object attachment) {
+            this.attachment = attachment;
+        }
+
+        public String getRemoteAddress() {
+            return remoteAddress;
+        }
+
+        public boolean isOpen() {
+            return !closed.get();
+        }
+
+        @Override
+        public FrameCodec.Mode getProtocolMode() {
+            return protocolMode;
+        }
+
+        /**
+         * Queues one frame in the connection's negotiated framing and returns immediately; the owning
+         * event loop performs the actual socket write.
+         */
+        public void send(String message) {
+            FrameCodec.Mode mode = protocolMode;
+            send(FrameCodec.encode(mode == null ? FrameCodec.Mode.LINE : mode, message));
+        }
+
+        /**
+         * Queues a response encoded for the given protocol version, streamed straight into the frame.
+         */
+        public void send(Response response, int version) {
+            FrameCodec.Mode mode = protocolMode;
+            send(FrameCodec.encode(mode == null ? FrameCodec.Mode.LINE : mode, response, version));
+        }
+
+        @Override
+        public void send(ByteBuffer frame) {
+            if (closed.get()) {
+                return;
+            }
+            enqueueOutbound(frame);
+        }
+
+        @Override
+        public boolean offer(ByteBuffer frame, int maxQueuedFrames) {
+            if (closed.get()) {
+                return true; // nothing to protect any more; the frame is simply discarded
+            }
+            if (queuedFrames.get() >= maxQueuedFrames) {
+                return false;
+            }
+            enqueueOutbound(frame);
+            return true;
+        }
+
+        @Override
+        public int getQueuedFrames() {
+            return queuedFrames.get();
+        }
+
+        @Override
+        public long getQueuedBytes() {
+            return queuedBytes.get();
+        }
+
+        private void enqueueOutbound(ByteBuffer buffer) {
+            queuedFrames.incrementAndGet();
+            queuedBytes.addAndGet(buffer.remaining());
+            outbound.add(buffer);
+            if (loop.inEventLoop()) {
+                flush();
+            } else if (flushScheduled.compareAndSet(false, true)) {
+                loop.execute(() -> {
+                    flushScheduled.set(false);
+                    flush();
+                });
+            }
+        }
+
+        @Override
+        public void close() {
+            if (loop.inEventLoop()) {
+                closeNow();
+            } else {
+                loop.execute(this::closeNow);
+            }
+        }
+
+        private void readAvailable() {
+            try {
+                int read = channel.read(decoder.fillBuffer());
+                if (read < 0) {
+                    closeNow();
+                    return;
+                }
+                while (true) {
+                    String frame = decoder.nextFrame();
+                    if (protocolMode == null && decoder.getMode() != null) {
+                        protocolMode = decoder.getMode();
+                        if (protocolMode == FrameCodec.Mode.FRAMED) {
+                            enqueueOutbound(ByteBuffer.wrap(FrameCodec.FRAMED_PREAMBLE));
+                        }
+                    }
+                    if (frame == null) {
+                        break;
+                    }
+                    if (!frame.isBlank()) {
+                        inboundFrames.incrementAndGet();
+                        inboundBytes.addAndGet(frame.length());
+                        enqueue(frame);
+                    }
+                }
+                // Frames already in the decoder's buffer are queued above; the next read waits for the worker.
+                if ((inboundFrames.get() >= MAX_INBOUND_FRAMES || inboundBytes.get() >= MAX_INBOUND_BYTES)
+                        && readSuspended.compareAndSet(false, true)) {
+                    key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                    // The worker may have drained the queue before the flag was set, and will not look again.
+                    if (canResumeReading() && readSuspended.compareAndSet(true, false)) {
+                        key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+                    }
+                }
+            } catch (FrameCodec.FrameTooLargeException e) {
+                System.err.println("Closing command connection " + remoteAddress + ": " + e.getMessage());
+                closeNow();
+            } catch (IOException e) {
+                closeNow();
+            }
+        }
+
+        private void flush() {
+            if (closed.get() || !key.isValid()) {
+                return;
+            }
+            try {
+                // Everything queued so far goes out in gathering writes of up to WRITE_BATCH_FRAMES frames,
+                // so a burst of pushes costs one system call rather than one per frame.
+                while (true) {
+                    int count = 0;
+                    for (ByteBuffer buffer : outbound) {
+                        writeBatch[count++] = buffer;
+                        if (count == writeBatch.length) {
+                            break;
+                        }
+                    }
+                    if (count == 0) {
+                        break;
+                    }
+                    queuedBytes.addAndGet(-channel.write(writeBatch, 0, count));
+                    int written = 0;
+                    while (written < count && !writeBatch[written].hasRemaining()) {
+                        outbound.poll();
+                        queuedFrames.decrementAndGet();
+                        written++;
+                    }
+                    Arrays.fill(writeBatch, 0, count, null);
+                    if (written < count) {
+                        key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                }
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            } catch (IOException e) {
+                closeNow();
+            }
+        }
+
+        private void closeNow() {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            if (key != null) {
+                key.cancel();
+            }
+            closeQuietly(channel);
+            outbound.clear();
+            queuedFrames.set(0);
+            queuedBytes.set(0);
+            openConnections.decrementAndGet();
+            enqueue(CLOSE_MARKER);
+        }
+
+        private void enqueue(String message) {
+            inbound.add(message);
+            if (dispatching.compareAndSet(false, true)) {
+                workers.execute(this::drainInbound);
+            }
+        }
+
+        // On the worker, after a frame was handled: reading resumes once the queue is down to half its cap.
+        private void consumed(String message) {
+            inboundFrames.decrementAndGet();
+            inboundBytes.addAndGet(-message.length());
+            if (readSuspended.get() && canResumeReading() && readSuspended.compareAndSet(true, false)) {
+                loop.execute(() -> {
+                    if (key.isValid()) {
+                        key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+                    }
+                });
+            }
+        }
+
+        private boolean canResumeReading() {
+            return inboundFrames.get() <= MAX_INBOUND_FRAMES / 2 && inboundBytes.get() <= MAX_INBOUND_BYTES / 2;
+        }
+
+        private void drainInbound() {
+            while (true) {
+                String message;
+                while ((message = inbound.poll()) != null) {
+                    try {
+                        if (message == CLOSE_MARKER) {
+                            handler.onClose(this);
+                        } else if (message == OPEN_MARKER) {
+                            handler.onOpen(this);
+                        } else {
+                            try {
+                                if (!closed.get()) {
+                                    handler.onMessage(this, message);
+                                }
+                            } finally {
+                                consumed(message);
+                            }
+                        }
+                    } catch (RuntimeException e) {
+                        System.err.println("Error handling command from " + remoteAddress + ": " + e.getMessage());
+                        e.printStackTrace();
+                        close();
+                    }
+                }
+                dispatching.set(false);
+                if (inbound.isEmpty() || !dispatching.compareAndSet(false, true)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Error closing command channel: " + e.getMessage());
+        }
+    }
+}
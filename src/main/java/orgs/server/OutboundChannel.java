@@ -0,0 +1,48 @@
+// src/orgs/server/OutboundChannel.java
+package orgs.server;
+
+import orgs.protocol.FrameCodec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Outbound side of a command connection. Any thread may queue encoded frames; only the connection's own
+ * writer (its event loop, or a {@link SocketWriter} thread) touches the socket, and it writes everything
+ * that has queued up before flushing. A client that stops reading therefore never blocks the thread that
+ * produced the frame.
+ * <p>
+ * Frames must be heap buffers positioned at their first byte. The channel consumes the buffer's
+ * position, so a buffer shared between connections must be passed as a {@link ByteBuffer#duplicate()}.
+ */
+interface OutboundChannel {
+
+    /**
+     * Queues a frame unconditionally. Nothing here bounds the queue: requests without an id run one after
+     * another and each queues its reply, so a client that writes but never reads would grow it forever.
+     * Callers queuing replies check {@link #getQueuedBytes()} first and disconnect such a client.
+     */
+    void send(ByteBuffer frame);
+
+    /**
+     * Queues a frame unless {@code maxQueuedFrames} frames are already waiting. Returns false when the
+     * frame was refused, leaving the slow-consumer decision to the caller.
+     */
+    boolean offer(ByteBuffer frame, int maxQueuedFrames);
+
+    /**
+     * Frames queued but not yet completely written.
+     */
+    int getQueuedFrames();
+
+    /**
+     * Bytes of the queued frames not yet written.
+     */
+    long getQueuedBytes();
+
+    /**
+     * The framing the client negotiated, or null before its first bytes arrived.
+     */
+    FrameCodec.Mode getProtocolMode();
+
+    void close();
+}
@@ -0,0 +1,31 @@
+// src/orgs/server/OutboundMetrics.java
+package orgs.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * Counters for the per-connection outbound queues, shared by every connection of a server.
+ */
+final class OutboundMetrics {
+    final AtomicLong pushesDropped = new AtomicLong();
+    final AtomicLong pushesSpilled = new AtomicLong();
+    final AtomicLong slowConsumersDisconnected = new AtomicLong();
+    private final LongAccumulator peakDepth = new LongAccumulator(Math::max, 0);
+
+    void recordDepth(int queuedFrames) {
+        peakDepth.accumulate(queuedFrames);
+    }
+
+    long getPeakDepth() {
+        return peakDepth.get();
+    }
+
+    @Override
+    public String toString() {
+        return "peakDepth=" + peakDepth.get()
+                + ", pushesDropped=" + pushesDropped.get()
+                + ", pushesSpilled=" + pushesSpilled.get()
+                + ", slowConsumersDisconnected=" + slowConsumersDisconnected.get();
+    }
+}
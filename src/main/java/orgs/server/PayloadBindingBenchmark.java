@@ -0,0 +1,94 @@
+// src/orgs/server/PayloadBindingBenchmark.java
+package orgs.server;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+import orgs.model.Media;
+import orgs.protocol.Request;
+import orgs.protocol.RequestPayloads;
+import orgs.utils.LocalDateTimeAdapter;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Type;
+import java.time.LocalDateTime;
+import java.util.Map;
+
+/**
+ * Compares the old map based payload parsing with the typed {@link RequestPayloads} binding, per request
+ * and in process (no sockets or MySQL involved):
+ * <pre>
+ *   java orgs.server.PayloadBindingBenchmark [iterations]
+ * </pre>
+ * Both variants start from the same raw request line, so the numbers include decoding the envelope.
+ * Prints the average time and the bytes allocated per request for GET_CHAT_MESSAGES and for a
+ * SEND_MESSAGE carrying media.
+ */
+public class PayloadBindingBenchmark {
+
+    private static final Gson gson = new GsonBuilder()
+            .registerTypeAdapter(LocalDateTime.class, new LocalDateTimeAdapter())
+            .serializeNulls()
+            .create();
+
+    private static final String CHAT_MESSAGES = "{\"command\":\"GET_CHAT_MESSAGES\","
+            + "\"payload\":\"{\\\"chat_id\\\":42,\\\"limit\\\":50,\\\"offset\\\":100}\"}";
+    private static final String SEND_MEDIA = "{\"command\":\"SEND_MESSAGE\",\"payload\":\"{\\\"chat_id\\\":42,"
+            + "\\\"content\\\":\\\"holiday photos\\\",\\\"media\\\":{\\\"fileName\\\":\\\"beach.jpg\\\","
+            + "\\\"fileSize\\\":348112,\\\"mediaType\\\":\\\"image\\\",\\\"uploadedByUserId\\\":7}}\"}";
+
+    // Keeps the JIT from discarding results.
+    private static long sink;
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+
+        for (int round = 0; round < 2; round++) {
+            boolean report = round == 1; // the first round is JIT warm-up
+            measure("GET_CHAT_MESSAGES map  ", iterations, report, () -> {
+                Request request = gson.fromJson(CHAT_MESSAGES, Request.class);
+                Type type = new TypeToken<Map<String, Double>>() {}.getType();
+                Map<String, Double> params = gson.fromJson(request.getPayload(), type);
+                return params.get("chat_id").intValue() + params.get("limit").intValue() + params.get("offset").intValue();
+            });
+            measure("GET_CHAT_MESSAGES typed", iterations, report, () -> {
+                Request request = gson.fromJson(CHAT_MESSAGES, Request.class);
+                RequestPayloads.ChatMessagesQuery params = request.getPayload(RequestPayloads.ChatMessagesQuery.class);
+                return params.getChatId() + params.getLimit() + params.getOffset();
+            });
+            measure("SEND_MESSAGE media map  ", iterations, report, () -> {
+                Request request = gson.fromJson(SEND_MEDIA, Request.class);
+                Type type = new TypeToken<Map<String, Object>>() {}.getType();
+                Map<String, Object> messageData = gson.fromJson(request.getPayload(), type);
+                int chatId = ((Double) messageData.get("chat_id")).intValue();
+                Media media = gson.fromJson(gson.toJson(messageData.get("media")), new TypeToken<Media>() {}.getType());
+                return chatId + media.getFileSize();
+            });
+            measure("SEND_MESSAGE media typed", iterations, report, () -> {
+                Request request = gson.fromJson(SEND_MEDIA, Request.class);
+                RequestPayloads.SendMessage messageData = request.getPayload(RequestPayloads.SendMessage.class);
+                return messageData.getChatId() + messageData.getMedia().getFileSize();
+            });
+        }
+        System.out.println("(checksum " + sink + ")");
+    }
+
+    private interface Operation {
+        long run();
+    }
+
+    private static void measure(String name, int iterations, boolean report, Operation operation) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().threadId();
+        long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        long started = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink += operation.run();
+        }
+        long elapsed = System.nanoTime() - started;
+        long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        if (report) {
+            System.out.printf("%s  %8.0f ns/op  %8d bytes/op%n", name, (double) elapsed / iterations, allocated / iterations);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+// src/orgs/server/SocketWriter.java
+package orgs.server;
+
+import orgs.protocol.FrameCodec;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * {@link OutboundChannel} for the blocking and virtual-thread listeners: a dedicated writer thread drains
+ * the queue into a buffered stream and flushes once per batch, when the queue runs dry.
+ */
+final class SocketWriter implements OutboundChannel, Runnable {
+    private final Socket socket;
+    private final OutputStream out;
+    private final Queue<ByteBuffer> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queuedFrames = new AtomicInteger();
+    private final AtomicLong queuedBytes = new AtomicLong();
+    // A lock rather than synchronized so a waiting virtual thread does not pin its carrier.
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private volatile FrameCodec.Mode protocolMode = FrameCodec.Mode.LINE;
+    private volatile boolean closed;
+
+    SocketWriter(Socket socket) throws IOException {
+        this.socket = socket;
+        this.out = new BufferedOutputStream(socket.getOutputStream(), 16 * 1024);
+    }
+
+    @Override
+    public void send(ByteBuffer frame) {
+        if (closed) {
+            return;
+        }
+        queuedFrames.incrementAndGet();
+        queuedBytes.addAndGet(frame.remaining());
+        queue.add(frame);
+        lock.lock();
+        try {
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(ByteBuffer frame, int maxQueuedFrames) {
+        if (queuedFrames.get() >= maxQueuedFrames) {
+            return closed;
+        }
+        send(frame);
+        return true;
+    }
+
+    @Override
+    public int getQueuedFrames() {
+        return queuedFrames.get();
+    }
+
+    @Override
+    public long getQueuedBytes() {
+        return queuedBytes.get();
+    }
+
+    @Override
+    public FrameCodec.Mode getProtocolMode() {
+        return protocolMode;
+    }
+
+    void setProtocolMode(FrameCodec.Mode protocolMode) {
+        this.protocolMode = protocolMode;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        lock.lock();
+        try {
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            // Also wakes up the reading thread, which then releases the session.
+            socket.close();
+        } catch (IOException e) {
+            System.err.println("Error closing command socket: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (awaitFrames()) {
+                ByteBuffer frame;
+                while ((frame = queue.poll()) != null) {
+                    out.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+                    queuedFrames.decrementAndGet();
+                    queuedBytes.addAndGet(-frame.remaining());
+                }
+                out.flush();
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                System.err.println("Error writing to client " + socket.getRemoteSocketAddress() + ": " + e.getMessage());
+                close();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            queue.clear();
+            queuedFrames.set(0);
+            queuedBytes.set(0);
+        }
+    }
+
+    // Blocks until there is something to write; false once closed.
+    private boolean awaitFrames() throws InterruptedException {
+        lock.lock();
+        try {
+            while (queue.isEmpty() && !closed) {
+                notEmpty.await();
+            }
+            return !closed;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,554 @@
+// src/orgs/utils/ConnectionPool.java
+package orgs.utils;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded pool of physical MySQL connections.
+ * <p>
+ * {@link #getConnection()} hands out a lease: a {@link Connection} whose {@code close()} returns the
+ * physical connection to the pool instead of closing it, so the DAOs' try-with-resources blocks keep
+ * working unchanged. Idle connections are validated before reuse, retired after {@code maxLifetime}
+ * and evicted after {@code idleTimeout} by a background housekeeper.
+ * <p>
+ * Each physical connection also keeps an LRU cache of its prepared statements keyed by SQL text, so
+ * the DAOs' constant queries are parsed (and, with {@code useServerPrepStmts}, prepared on the server)
+ * once per connection rather than once per call. Closing a cached statement only resets it.
+ */
+public class ConnectionPool {
+
+    private final String jdbcUrl;
+    private final String username;
+    private final String password;
+    private final int maxSize;
+    private final int minIdle;
+    private final long connectionTimeoutMillis;
+    private final long maxLifetimeMillis;
+    private final long idleTimeoutMillis;
+    private final long validationIntervalMillis;
+    private final int statementCacheSize;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition connectionReturned = lock.newCondition();
+    private final ArrayDeque<PooledConnection> idle = new ArrayDeque<>();
+    private int totalConnections;
+    private int activeLeases;
+    private boolean closed;
+
+    private final ScheduledExecutorService housekeeper;
+
+    // Metrics
+    private final LongAdder leases = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder created = new LongAdder();
+    private final LongAdder retired = new LongAdder();
+    private final LongAdder validationFailures = new LongAdder();
+    private final LongAdder statementCacheHits = new LongAdder();
+    private final LongAdder statementCacheMisses = new LongAdder();
+    private final LongAdder statementsPrepared = new LongAdder();
+
+    public ConnectionPool(String jdbcUrl, String username, String password, int maxSize, int minIdle,
+                          long connectionTimeoutMillis, long maxLifetimeMillis, long idleTimeoutMillis,
+                          int statementCacheSize) {
+        this.jdbcUrl = jdbcUrl;
+        this.username = username;
+        this.password = password;
+        this.maxSize = Math.max(1, maxSize);
+        this.minIdle = Math.max(0, Math.min(minIdle, this.maxSize));
+        this.connectionTimeoutMillis = connectionTimeoutMillis;
+        this.maxLifetimeMillis = maxLifetimeMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.validationIntervalMillis = 5_000;
+        this.statementCacheSize = Math.max(0, statementCacheSize);
+
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ConnectionPoolHousekeeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1_000, Math.min(idleTimeoutMillis, maxLifetimeMillis) / 4);
+        housekeeper.scheduleWithFixedDelay(this::evictStaleConnections, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Leases a connection, waiting up to the connection timeout for one to be returned when the pool
+     * is exhausted. The caller must close the returned connection to give it back.
+     */
+    public Connection getConnection() throws SQLException {
+        long start = System.nanoTime();
+        long remaining = TimeUnit.MILLISECONDS.toNanos(connectionTimeoutMillis);
+        PooledConnection pooled = null;
+
+        lock.lock();
+        try {
+            while (pooled == null) {
+                if (closed) {
+                    throw new SQLException("Connection pool is closed.");
+                }
+                PooledConnection candidate = idle.pollFirst();
+                if (candidate != null) {
+                    activeLeases++;
+                    lock.unlock();
+                    try {
+                        if (isUsable(candidate)) {
+                            pooled = candidate;
+                        } else {
+                            discard(candidate);
+                        }
+                    } finally {
+                        lock.lock();
+                        if (pooled == null) {
+                            activeLeases--;
+                        }
+                    }
+                    continue;
+                }
+                if (totalConnections < maxSize) {
+                    totalConnections++;
+                    activeLeases++;
+                    lock.unlock();
+                    try {
+                        pooled = new PooledConnection(DriverManager.getConnection(jdbcUrl, username, password));
+                        created.increment();
+                    } catch (SQLException e) {
+                        System.err.println("Failed to establish database connection: " + e.getMessage());
+                        throw e;
+                    } finally {
+                        lock.lock();
+                        if (pooled == null) {
+                            totalConnections--;
+                            activeLeases--;
+                            connectionReturned.signal();
+                        }
+                    }
+                    continue;
+                }
+                if (remaining <= 0) {
+                    timeouts.increment();
+                    throw new SQLException("Timed out after " + connectionTimeoutMillis + " ms waiting for a database connection ("
+                            + activeLeases + " of " + maxSize + " in use).");
+                }
+                try {
+                    remaining = connectionReturned.awaitNanos(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Interrupted while waiting for a database connection.", e);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        long waited = System.nanoTime() - start;
+        leases.increment();
+        waitNanos.add(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+        return pooled.lease();
+    }
+
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            for (PooledConnection pooled : idle) {
+                closePhysical(pooled);
+            }
+            totalConnections -= idle.size();
+            idle.clear();
+            connectionReturned.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        housekeeper.shutdownNow();
+    }
+
+    private boolean isUsable(PooledConnection pooled) {
+        long now = System.currentTimeMillis();
+        if (now - pooled.createdAt >= maxLifetimeMillis) {
+            return false;
+        }
+        if (now - pooled.lastReturnedAt < validationIntervalMillis) {
+            return true;
+        }
+        try {
+            if (pooled.physical.isValid(2)) {
+                return true;
+            }
+        } catch (SQLException e) {
+            System.err.println("Pooled connection validation failed: " + e.getMessage());
+        }
+        validationFailures.increment();
+        return false;
+    }
+
+    private void release(PooledConnection pooled) {
+        // Statements the caller left open are closed with the lease, as they would be with a real connection.
+        pooled.checkInStatements();
+        boolean reusable;
+        try {
+            reusable = !pooled.physical.isClosed();
+            if (reusable && !pooled.physical.getAutoCommit()) {
+                pooled.physical.rollback();
+                pooled.physical.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            reusable = false;
+        }
+        pooled.lastReturnedAt = System.currentTimeMillis();
+
+        lock.lock();
+        try {
+            activeLeases--;
+            if (reusable && !closed && pooled.lastReturnedAt - pooled.createdAt < maxLifetimeMillis) {
+                idle.addFirst(pooled);
+                connectionReturned.signal();
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        discard(pooled);
+    }
+
+    private void discard(PooledConnection pooled) {
+        closePhysical(pooled);
+        lock.lock();
+        try {
+            totalConnections--;
+            connectionReturned.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void closePhysical(PooledConnection pooled) {
+        retired.increment();
+        try {
+            pooled.physical.close();
+        } catch (SQLException e) {
+            System.err.println("Error closing pooled database connection: " + e.getMessage());
+        }
+    }
+
+    private void evictStaleConnections() {
+        long now = System.currentTimeMillis();
+        ArrayDeque<PooledConnection> evicted = new ArrayDeque<>();
+        lock.lock();
+        try {
+            // Oldest returned connections sit at the tail.
+            Iterator<PooledConnection> it = idle.descendingIterator();
+            while (it.hasNext()) {
+                PooledConnection pooled = it.next();
+                boolean expired = now - pooled.createdAt >= maxLifetimeMillis;
+                boolean idleTooLong = now - pooled.lastReturnedAt >= idleTimeoutMillis && idle.size() > minIdle;
+                if (expired || idleTooLong) {
+                    it.remove();
+                    totalConnections--;
+                    evicted.add(pooled);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        for (PooledConnection pooled : evicted) {
+            closePhysical(pooled);
+        }
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getActiveConnections() {
+        lock.lock();
+        try {
+            return activeLeases;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getIdleConnections() {
+        lock.lock();
+        try {
+            return idle.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getTotalLeases() {
+        return leases.sum();
+    }
+
+    public double getAverageWaitMillis() {
+        long count = leases.sum();
+        return count == 0 ? 0 : waitNanos.sum() / 1_000_000.0 / count;
+    }
+
+    public double getMaxWaitMillis() {
+        return maxWaitNanos.get() / 1_000_000.0;
+    }
+
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    public double getStatementCacheHitRatio() {
+        long hits = statementCacheHits.sum();
+        long total = hits + statementCacheMisses.sum();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * Prepared statements handed out so far, cached or not. The difference across a request is the
+     * number of queries it issued, which is how N+1 patterns show up.
+     */
+    public long getStatementCount() {
+        return statementsPrepared.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "ConnectionPool{" +
+                "active=" + getActiveConnections() +
+                ", idle=" + getIdleConnections() +
+                ", max=" + maxSize +
+                ", leases=" + getTotalLeases() +
+                ", avgWaitMs=" + String.format("%.3f", getAverageWaitMillis()) +
+                ", maxWaitMs=" + String.format("%.3f", getMaxWaitMillis()) +
+                ", timeouts=" + getTimeouts() +
+                ", created=" + created.sum() +
+                ", retired=" + retired.sum() +
+                ", validationFailures=" + validationFailures.sum() +
+                ", statements=" + getStatementCount() +
+                ", statementCacheHitRatio=" + String.format("%.3f", getStatementCacheHitRatio()) +
+                '}';
+    }
+
+    private final class PooledConnection {
+        private final Connection physical;
+        private final long createdAt = System.currentTimeMillis();
+        private volatile long lastReturnedAt = createdAt;
+
+        // Only touched by the thread holding the lease, so no locking is needed.
+        private final LinkedHashMap<String, CachedStatement> statements = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+                if (size() <= statementCacheSize) {
+                    return false;
+                }
+                if (eldest.getValue().inUse()) {
+                    return false;
+                }
+                closeQuietly(eldest.getValue().physical);
+                return true;
+            }
+        };
+
+        private PooledConnection(Connection physical) {
+            this.physical = physical;
+        }
+
+        private PreparedStatement prepare(String sql, int autoGeneratedKeys) throws SQLException {
+            statementsPrepared.increment();
+            if (statementCacheSize == 0) {
+                return physical.prepareStatement(sql, autoGeneratedKeys);
+            }
+            String key = autoGeneratedKeys == Statement.RETURN_GENERATED_KEYS ? "K:" + sql : sql;
+            CachedStatement cached = statements.get(key);
+            if (cached != null && !cached.inUse()) {
+                statementCacheHits.increment();
+                return cached.checkOut();
+            }
+            statementCacheMisses.increment();
+            PreparedStatement statement = physical.prepareStatement(sql, autoGeneratedKeys);
+            if (cached != null) {
+                // The same SQL is already open on this lease (nested use); hand out an uncached one.
+                return statement;
+            }
+            cached = new CachedStatement(statement);
+            statements.put(key, cached);
+            return cached.checkOut();
+        }
+
+        private void checkInStatements() {
+            for (CachedStatement cached : statements.values()) {
+                if (cached.inUse()) {
+                    try {
+                        cached.checkIn();
+                    } catch (SQLException e) {
+                        System.err.println("Error resetting cached statement: " + e.getMessage());
+                    }
+                }
+            }
+        }
+
+        private Connection lease() {
+            return (Connection) Proxy.newProxyInstance(
+                    Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class},
+                    new Lease(this));
+        }
+    }
+
+    /**
+     * The handle given to callers. Closing it returns the physical connection exactly once; any other
+     * call after that fails as it would on a closed connection.
+     */
+    private final class Lease implements InvocationHandler {
+        private final PooledConnection pooled;
+        private boolean returned;
+
+        private Lease(PooledConnection pooled) {
+            this.pooled = pooled;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!returned) {
+                        returned = true;
+                        release(pooled);
+                    }
+                    return null;
+                case "isClosed":
+                    return returned || pooled.physical.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "PooledConnection[" + pooled.physical + "]";
+                case "prepareStatement":
+                    if (!returned && (args.length == 1 || (args.length == 2 && args[1] instanceof Integer))) {
+                        int autoGeneratedKeys = args.length == 2 ? (Integer) args[1] : Statement.NO_GENERATED_KEYS;
+                        return pooled.prepare((String) args[0], autoGeneratedKeys);
+                    }
+                    return invokePhysical(method, args);
+                default:
+                    return invokePhysical(method, args);
+            }
+        }
+
+        private Object invokePhysical(Method method, Object[] args) throws Throwable {
+            if (returned) {
+                throw new SQLException("Connection has already been returned to the pool.");
+            }
+            try {
+                return method.invoke(pooled.physical, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    /**
+     * A physical statement kept open in its connection's cache. Callers get a proxy per checkout whose
+     * {@code close()} clears parameters and batches and hands the statement back to the cache.
+     */
+    private static final class CachedStatement {
+        private final PreparedStatement physical;
+        // The checkout whose proxy may use the statement; null while it is back in the cache.
+        private volatile Checkout current;
+
+        private CachedStatement(PreparedStatement physical) {
+            this.physical = physical;
+        }
+
+        private boolean inUse() {
+            return current != null;
+        }
+
+        private PreparedStatement checkOut() {
+            Checkout checkout = new Checkout(this);
+            current = checkout;
+            return (PreparedStatement) Proxy.newProxyInstance(
+                    PreparedStatement.class.getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class},
+                    checkout);
+        }
+
+        // Its result sets are closed too, so none outlives the checkout that opened it.
+        private void checkIn() throws SQLException {
+            current = null;
+            ResultSet resultSet = physical.getResultSet();
+            if (resultSet != null) {
+                resultSet.close();
+            }
+            physical.clearParameters();
+            physical.clearBatch();
+            physical.clearWarnings();
+        }
+    }
+
+    /**
+     * One checkout of a cached statement. Once it is closed, or the statement has been checked out again,
+     * every call but {@code close()} and {@code isClosed()} fails as it would on a closed statement.
+     */
+    private static final class Checkout implements InvocationHandler {
+        private final CachedStatement cached;
+
+        private Checkout(CachedStatement cached) {
+            this.cached = cached;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            boolean current = cached.current == this;
+            switch (method.getName()) {
+                case "close":
+                    if (current) {
+                        cached.checkIn();
+                    }
+                    return null;
+                case "isClosed":
+                    return !current || cached.physical.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    if (!current) {
+                        throw new SQLException("Statement is closed.");
+                    }
+                    try {
+                        return method.invoke(cached.physical, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+            }
+        }
+    }
+
+    private static void closeQuietly(Statement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            System.err.println("Error closing cached statement: " + e.getMessage());
+        }
+    }
+}
@@ -1,52 +1,45 @@
-
 package orgs.utils;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
 
 public class DatabaseConnection {
 
-    private static final String JDBC_URL = "jdbc:mysql://localhost:3306/tuasil_messaging?useSSL=false&serverTimezone=UTC";
+    // useServerPrepStmts makes MySQL parse each statement once; the pool keeps the prepared handles open.
+    // tuasl.db.url points the pool at another database, e.g. the in-memory one the tests use.
+    private static final String JDBC_URL = System.getProperty("tuasl.db.url",
+            "jdbc:mysql://localhost:3306/tuasil_messaging?useSSL=false&serverTimezone=UTC"
+            + "&useServerPrepStmts=" + Boolean.parseBoolean(System.getProperty("tuasl.db.serverPrepare", "true")));
     private static final String DB_USERNAME = "root";
     private static final String DB_PASSWORD = "730673145";
 
-    // The single instance of the Connection
-    private static Connection connection = null;
+    private static final int POOL_SIZE = Integer.getInteger("tuasl.db.pool.size", 20);
+    private static final int POOL_MIN_IDLE = Integer.getInteger("tuasl.db.pool.minIdle", 2);
+    private static final long POOL_CONNECTION_TIMEOUT_MS = Long.getLong("tuasl.db.pool.connectionTimeoutMs", 10_000);
+    private static final long POOL_MAX_LIFETIME_MS = Long.getLong("tuasl.db.pool.maxLifetimeMs", 30 * 60_000);
+    private static final long POOL_IDLE_TIMEOUT_MS = Long.getLong("tuasl.db.pool.idleTimeoutMs", 10 * 60_000);
+    private static final int STATEMENT_CACHE_SIZE = Integer.getInteger("tuasl.db.statementCacheSize", 64);
+
+    // Shared by every DAO. Connections handed out are leases: closing them returns them to the pool.
+    private static final ConnectionPool pool = new ConnectionPool(JDBC_URL, DB_USERNAME, DB_PASSWORD,
+            POOL_SIZE, POOL_MIN_IDLE, POOL_CONNECTION_TIMEOUT_MS, POOL_MAX_LIFETIME_MS, POOL_IDLE_TIMEOUT_MS,
+            STATEMENT_CACHE_SIZE);
 
     // Private constructor to prevent direct instantiation
     private DatabaseConnection() {
         // Private constructor
     }
 
-    public static synchronized Connection getConnection() throws SQLException {
-        // If the connection is null or closed, re-establish it
-        if (connection == null || connection.isClosed()) {
-            try {
-                //System.out.println("Attempting to establish new database connection...");
-                connection = DriverManager.getConnection(JDBC_URL, DB_USERNAME, DB_PASSWORD);
-                //System.out.println("Database connection established successfully!");
-            } catch (SQLException e) {
-                System.err.println("Failed to establish database connection: " + e.getMessage());
-                throw e; // Re-throw the exception for the caller to handle
-            }
-        }
-        return connection;
+    public static Connection getConnection() throws SQLException {
+        return pool.getConnection();
+    }
+
+    public static ConnectionPool getPool() {
+        return pool;
     }
 
-    public static synchronized void closeConnection() {
-        if (connection != null) {
-            try {
-                if (!connection.isClosed()) {
-                    connection.close();
-                    System.out.println("Database connection closed.");
-                }
-            } catch (SQLException e) {
-                System.err.println("Error closing database connection: " + e.getMessage());
-                e.printStackTrace();
-            } finally {
-                connection = null; // Set to null after closing
-            }
-        }
+    public static void closeConnection() {
+        pool.close();
+        System.out.println("Database connection pool closed.");
     }
-}
\ No newline at end of file
+}
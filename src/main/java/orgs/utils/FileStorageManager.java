@@ -7,7 +7,11 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
 import java.util.UUID;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class FileStorageManager {
 
@@ -104,4 +108,95 @@ public class FileStorageManager {
         return UPLOAD_DIRECTORY;
     }
 
+    /*
+     * Content-addressed storage. A completed upload is kept once per distinct content, as
+     * blobs/<first two hex digits>/<sha-256> under the upload directory, and every media row with that
+     * content_hash points at the same file; the blob is deleted with the last of them. Those operations
+     * take lockContent(hash), so a blob cannot disappear between being found and being referenced.
+     * The media table needs the column:
+     *
+     *   ALTER TABLE media ADD COLUMN content_hash CHAR(64) NULL, ADD INDEX idx_media_content_hash (content_hash);
+     */
+    private static final String BLOB_DIRECTORY = "blobs";
+    private static final ReentrantLock[] CONTENT_LOCKS = new ReentrantLock[64];
+
+    static {
+        for (int i = 0; i < CONTENT_LOCKS.length; i++) {
+            CONTENT_LOCKS[i] = new ReentrantLock();
+        }
+    }
+
+    public static MessageDigest newContentDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    public static String toContentHash(MessageDigest digest) {
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    // A lowercase hex SHA-256, which is also what makes it safe to use in a path.
+    public static boolean isContentHash(String hash) {
+        if (hash == null || hash.length() != 64) {
+            return false;
+        }
+        for (int i = 0; i < hash.length(); i++) {
+            char c = hash.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // As stored in media.file_path_or_url: relative to the upload directory.
+    public static String getBlobPath(String hash) {
+        return BLOB_DIRECTORY + "/" + hash.substring(0, 2) + "/" + hash;
+    }
+
+    public static Path resolveBlob(String hash) {
+        return Paths.get(UPLOAD_DIRECTORY, getBlobPath(hash));
+    }
+
+    public static ReentrantLock lockContent(String hash) {
+        return CONTENT_LOCKS[(hash.hashCode() & Integer.MAX_VALUE) % CONTENT_LOCKS.length];
+    }
+
+    // Whether the content is already stored; the size guards against a hash presented with the wrong file.
+    public static boolean hasBlob(String hash, long size) {
+        Path blob = resolveBlob(hash);
+        try {
+            return Files.isRegularFile(blob) && Files.size(blob) == size;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Moves a completed upload into the store under its hash, or deletes it if that content is already
+     * there. Call with lockContent(hash) held. Returns true if the file became a new blob.
+     */
+    public static boolean storeBlob(Path file, String hash) throws IOException {
+        Path blob = resolveBlob(hash);
+        if (Files.isRegularFile(blob)) {
+            Files.delete(file);
+            return false;
+        }
+        Files.createDirectories(blob.getParent());
+        Files.move(file, blob, StandardCopyOption.REPLACE_EXISTING);
+        return true;
+    }
+
+    // Call with lockContent(hash) held, once no media row refers to the hash any more.
+    public static void deleteBlob(String hash) {
+        try {
+            Files.deleteIfExists(resolveBlob(hash));
+        } catch (IOException e) {
+            System.err.println("Failed to delete blob " + hash + ": " + e.getMessage());
+        }
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,257 @@
+// src/orgs/utils/FileTransferBenchmark.java
+package orgs.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Download and upload throughput over loopback for files of 10 MB to 2 GB, comparing the old 4 KB stream
+ * copies against the {@link FileTransfers} paths. Besides MB/s it reports, for the server side of each
+ * transfer, the CPU time and heap allocated by its thread and the collections that ran meanwhile, which
+ * is what the file node pays per transfer. Needs free space in the temporary directory for twice the
+ * largest file:
+ * <pre>
+ *   java orgs.utils.FileTransferBenchmark [sizeMb ...]
+ * </pre>
+ */
+public class FileTransferBenchmark {
+
+    private static final long MB = 1024 * 1024;
+    private static final long[] DEFAULT_SIZES_MB = {10, 100, 1024, 2048};
+    private static final int RUNS = 3;
+    private static final int CHUNK_BYTES = 256 * 1024;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws Exception {
+        long[] sizesMb = DEFAULT_SIZES_MB;
+        if (args.length > 0) {
+            sizesMb = new long[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizesMb[i] = Long.parseLong(args[i]);
+            }
+        }
+
+        Path dir = Files.createTempDirectory("tuasl-transfer-bench");
+        ExecutorService peers = Executors.newSingleThreadExecutor();
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            for (long sizeMb : sizesMb) {
+                Path file = createFile(dir, sizeMb * MB);
+                Path target = dir.resolve("received.bin");
+                System.out.println(sizeMb + " MB download:");
+                FileTransfers buffered = new FileTransfers(false, FileTransfers.ReceiveMode.BUFFER, CHUNK_BYTES, false, 4);
+                FileTransfers zeroCopy = new FileTransfers(true, FileTransfers.ReceiveMode.BUFFER, CHUNK_BYTES, false, 4);
+                download(server, peers, file, "stream copy, 4 KB", FileTransferBenchmark::streamSend);
+                download(server, peers, file, "direct buffer", (source, out) -> send(buffered, source, out));
+                download(server, peers, file, "transferTo", (source, out) -> send(zeroCopy, source, out));
+
+                System.out.println(sizeMb + " MB upload:");
+                FileTransfers transferFrom = new FileTransfers(true, FileTransfers.ReceiveMode.TRANSFER_FROM, CHUNK_BYTES, false, 4);
+                FileTransfers preallocated = new FileTransfers(true, FileTransfers.ReceiveMode.BUFFER, CHUNK_BYTES, true, 4);
+                upload(server, peers, file, target, "stream copy, 4 KB", FileTransferBenchmark::streamReceive);
+                upload(server, peers, file, target, "transferFrom", (in, size, out) -> receive(transferFrom, in, size, out));
+                upload(server, peers, file, target, "direct buffer", (in, size, out) -> receive(zeroCopy, in, size, out));
+                upload(server, peers, file, target, "direct + prealloc", (in, size, out) -> receive(preallocated, in, size, out));
+                Files.deleteIfExists(target);
+                Files.delete(file);
+            }
+        } finally {
+            peers.shutdownNow();
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    // The server sends; best of RUNS.
+    private static void download(ServerSocketChannel server, ExecutorService peers, Path file, String name,
+                                 Sender sender) throws Exception {
+        Measurement best = null;
+        for (int run = 0; run < RUNS; run++) {
+            try (SocketChannel client = SocketChannel.open(server.getLocalAddress());
+                 SocketChannel accepted = server.accept()) {
+                Future<Long> received = peers.submit(() -> drain(client));
+                Measurement measurement = Measurement.start();
+                sender.send(file, accepted);
+                accepted.shutdownOutput();
+                long bytes = received.get();
+                measurement.stop();
+                check(name, bytes, Files.size(file));
+                best = Measurement.better(best, measurement);
+            }
+        }
+        best.print(name, Files.size(file));
+    }
+
+    // The server receives into target; best of RUNS.
+    private static void upload(ServerSocketChannel server, ExecutorService peers, Path file, Path target, String name,
+                               Receiver receiver) throws Exception {
+        long size = Files.size(file);
+        Measurement best = null;
+        for (int run = 0; run < RUNS; run++) {
+            Files.deleteIfExists(target);
+            try (SocketChannel client = SocketChannel.open(server.getLocalAddress());
+                 SocketChannel accepted = server.accept()) {
+                Future<?> sent = peers.submit(() -> {
+                    try (FileChannel source = FileChannel.open(file, StandardOpenOption.READ)) {
+                        long position = 0;
+                        while (position < size) {
+                            position += source.transferTo(position, size - position, client);
+                        }
+                    }
+                    client.shutdownOutput();
+                    return null;
+                });
+                Measurement measurement = Measurement.start();
+                receiver.receive(accepted, size, target);
+                measurement.stop();
+                sent.get();
+                check(name, Files.size(target), size);
+                best = Measurement.better(best, measurement);
+            }
+        }
+        best.print(name, size);
+    }
+
+    private static void check(String name, long bytes, long expected) {
+        if (bytes != expected) {
+            throw new IllegalStateException(name + ": transferred " + bytes + " of " + expected + " bytes");
+        }
+    }
+
+    // What FileDownloadHandler did before: FileInputStream into a 4 KB array, then the socket's stream.
+    private static void streamSend(Path file, SocketChannel out) throws IOException {
+        OutputStream os = out.socket().getOutputStream();
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                os.write(buffer, 0, read);
+            }
+            os.flush();
+        }
+    }
+
+    // What FileTransferHandler did before: the socket's stream into a 4 KB array, then a FileOutputStream.
+    private static void streamReceive(SocketChannel in, long size, Path target) throws IOException {
+        InputStream is = in.socket().getInputStream();
+        try (OutputStream os = Files.newOutputStream(target)) {
+            byte[] buffer = new byte[4096];
+            long total = 0;
+            int read;
+            while (total < size && (read = is.read(buffer, 0, (int) Math.min(buffer.length, size - total))) != -1) {
+                os.write(buffer, 0, read);
+                total += read;
+            }
+            os.flush();
+        }
+    }
+
+    private static void send(FileTransfers transfers, Path file, SocketChannel out) throws IOException {
+        try (FileChannel source = FileChannel.open(file, StandardOpenOption.READ)) {
+            transfers.sendFile(source, 0, source.size(), out);
+        }
+    }
+
+    private static void receive(FileTransfers transfers, SocketChannel in, long size, Path target) throws IOException {
+        try (FileChannel file = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            transfers.receiveFile(in, file, 0, size);
+        }
+    }
+
+    private static long drain(SocketChannel in) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(256 * 1024);
+        long total = 0;
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            total += read;
+            buffer.clear();
+        }
+        return total;
+    }
+
+    // Filled with data rather than left sparse, so reads come from the page cache like a real upload's.
+    private static Path createFile(Path dir, long size) throws IOException {
+        Path file = dir.resolve("bench-" + size + ".bin");
+        ByteBuffer block = ByteBuffer.allocate((int) Math.min(MB, size));
+        for (int i = 0; i < block.capacity(); i++) {
+            block.put(i, (byte) (i * 31 + 7));
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            long written = 0;
+            while (written < size) {
+                block.clear().limit((int) Math.min(block.capacity(), size - written));
+                written += channel.write(block);
+            }
+        }
+        return file;
+    }
+
+    private static long collections() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    // Wall time, plus CPU and allocation of the calling thread and collections in the whole JVM.
+    private static final class Measurement {
+        long nanos;
+        long cpuNanos;
+        long allocated;
+        long gcs;
+
+        static Measurement start() {
+            Measurement m = new Measurement();
+            m.gcs = collections();
+            m.allocated = THREADS.getCurrentThreadAllocatedBytes();
+            m.cpuNanos = THREADS.getCurrentThreadCpuTime();
+            m.nanos = System.nanoTime();
+            return m;
+        }
+
+        void stop() {
+            nanos = System.nanoTime() - nanos;
+            cpuNanos = THREADS.getCurrentThreadCpuTime() - cpuNanos;
+            allocated = THREADS.getCurrentThreadAllocatedBytes() - allocated;
+            gcs = collections() - gcs;
+        }
+
+        static Measurement better(Measurement best, Measurement candidate) {
+            return best == null || candidate.nanos < best.nanos ? candidate : best;
+        }
+
+        void print(String name, long size) {
+            System.out.printf("  %-20s %9.1f MB/s   server CPU %8.1f ms   allocated %10.1f KB   GCs %d%n",
+                    name, size / (double) MB / (nanos / 1e9), cpuNanos / 1e6, allocated / 1024.0, gcs);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Sender {
+        void send(Path file, SocketChannel out) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface Receiver {
+        void receive(SocketChannel in, long size, Path target) throws IOException;
+    }
+}
@@ -0,0 +1,272 @@
+// src/orgs/utils/FileTransfers.java
+package orgs.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.MessageDigest;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Moves file bytes between disk and the sockets of the file-transfer port.
+ * <p>
+ * Downloads go through {@link FileChannel#transferTo}, which on Linux is sendfile(2): the kernel copies
+ * from the page cache to the socket and the bytes never pass through the Java heap. If
+ * {@code tuasl.files.zeroCopy} is false, if the target is not a socket or file channel, or if transferTo
+ * stops making progress (not every platform and file system can do it), the rest of the file is copied
+ * through a pooled buffer instead.
+ * <p>
+ * Uploads are read into pooled direct buffers of {@code tuasl.files.chunkBytes} (default 256 KB), each
+ * filled before it is written, so the disk sees a few large writes and the heap sees no garbage. There is
+ * no sendfile in that direction: the JDK's transferFrom from a socket copies through its own 8 KB buffer.
+ * It can still be chosen with {@code tuasl.files.receiveMode=transferFrom}, in chunks of the same size.
+ * With {@code tuasl.files.preallocate=true} the file is extended to its announced size before the first
+ * byte arrives, so the size is reserved up front. The JDK cannot fallocate, so on file systems with sparse
+ * files the blocks are still allocated as they are written. If the upload ends short, the file is cut back
+ * to what arrived.
+ * <p>
+ * At most {@code tuasl.files.pooledBuffers} (default 32) idle buffers are kept; a transfer that finds the
+ * pool empty allocates one.
+ * <p>
+ * Given a digest, an upload is hashed from the same buffers as it is written, so the content hash costs
+ * no second read. In transferFrom mode the bytes never reach Java, and the received range is read back
+ * from the file instead.
+ */
+public final class FileTransfers {
+
+    public enum ReceiveMode { BUFFER, TRANSFER_FROM }
+
+    private static final FileTransfers INSTANCE = new FileTransfers(
+            Boolean.parseBoolean(System.getProperty("tuasl.files.zeroCopy", "true")),
+            "transferFrom".equalsIgnoreCase(System.getProperty("tuasl.files.receiveMode")) ? ReceiveMode.TRANSFER_FROM : ReceiveMode.BUFFER,
+            Integer.getInteger("tuasl.files.chunkBytes", 256 * 1024),
+            Boolean.getBoolean("tuasl.files.preallocate"),
+            Integer.getInteger("tuasl.files.pooledBuffers", 32));
+
+    private final boolean zeroCopy;
+    private final ReceiveMode receiveMode;
+    private final int chunkBytes;
+    private final boolean preallocate;
+    private final int maxPooledBuffers;
+    private final ConcurrentLinkedQueue<ByteBuffer> pool = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    private final LongAdder filesSent = new LongAdder();
+    private final LongAdder bytesTransferred = new LongAdder();
+    private final LongAdder bytesCopied = new LongAdder();
+    private final LongAdder fallbacks = new LongAdder();
+    private final LongAdder filesReceived = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder buffersAllocated = new LongAdder();
+
+    public FileTransfers(boolean zeroCopy, ReceiveMode receiveMode, int chunkBytes, boolean preallocate, int maxPooledBuffers) {
+        this.zeroCopy = zeroCopy;
+        this.receiveMode = receiveMode;
+        this.chunkBytes = chunkBytes;
+        this.preallocate = preallocate;
+        this.maxPooledBuffers = maxPooledBuffers;
+    }
+
+    public static FileTransfers getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Writes count bytes of the file, starting at position, to out. Returns the number written, which is
+     * less than count only if the file ends first.
+     */
+    public long sendFile(FileChannel file, long position, long count, WritableByteChannel out) throws IOException {
+        long sent = 0;
+        if (zeroCopy && (out instanceof SocketChannel || out instanceof FileChannel)) {
+            while (sent < count) {
+                long n = file.transferTo(position + sent, count - sent, out);
+                if (n <= 0) {
+                    break;
+                }
+                sent += n;
+            }
+            bytesTransferred.add(sent);
+            if (sent < count && position + sent < file.size()) {
+                fallbacks.increment();
+            }
+        }
+        if (sent < count) {
+            long copied = copy(file, position + sent, count - sent, out);
+            bytesCopied.add(copied);
+            sent += copied;
+        }
+        filesSent.increment();
+        return sent;
+    }
+
+    /**
+     * Reads up to count bytes from in and writes them to the file from position on. Returns the number
+     * written, which is less than count if the stream ended first. A failed read (a dropped connection)
+     * ends the transfer the same way, so the caller learns how far it got; failed writes are thrown.
+     */
+    public long receiveFile(ReadableByteChannel in, FileChannel file, long position, long count) throws IOException {
+        return receiveFile(in, file, position, count, null);
+    }
+
+    // As above, also feeding the bytes written to digest, in order.
+    public long receiveFile(ReadableByteChannel in, FileChannel file, long position, long count, MessageDigest digest) throws IOException {
+        boolean extended = false;
+        if (preallocate && count > 0 && file.size() < position + count) {
+            file.write(ByteBuffer.wrap(new byte[1]), position + count - 1);
+            extended = true;
+        }
+        long received;
+        if (receiveMode == ReceiveMode.TRANSFER_FROM) {
+            received = receiveWithTransferFrom(in, file, position, count);
+            if (digest != null) {
+                digest(file, position, received, digest);
+            }
+        } else {
+            received = receiveWithBuffer(in, file, position, count, digest);
+        }
+        if (extended && received < count) {
+            file.truncate(position + received);
+        }
+        filesReceived.increment();
+        bytesReceived.add(received);
+        return received;
+    }
+
+    private long receiveWithTransferFrom(ReadableByteChannel in, FileChannel file, long position, long count) throws IOException {
+        long received = 0;
+        while (received < count) {
+            long n;
+            try {
+                n = file.transferFrom(in, position + received, Math.min(chunkBytes, count - received));
+            } catch (IOException e) {
+                // Reads and writes fail alike here; the chunk in flight is not counted and will be sent again.
+                break;
+            }
+            // From a blocking channel, 0 means the stream has ended.
+            if (n <= 0) {
+                break;
+            }
+            received += n;
+        }
+        return received;
+    }
+
+    private long receiveWithBuffer(ReadableByteChannel in, FileChannel file, long position, long count, MessageDigest digest) throws IOException {
+        ByteBuffer buffer = acquire();
+        try {
+            long received = 0;
+            boolean ended = false;
+            while (received < count && !ended) {
+                buffer.clear().limit((int) Math.min(buffer.capacity(), count - received));
+                // Fill the chunk before writing it; a socket read returns whatever has arrived.
+                while (buffer.hasRemaining()) {
+                    int read;
+                    try {
+                        read = in.read(buffer);
+                    } catch (IOException e) {
+                        read = -1;
+                    }
+                    if (read < 0) {
+                        ended = true;
+                        break;
+                    }
+                }
+                buffer.flip();
+                if (digest != null) {
+                    digest.update(buffer);
+                    buffer.rewind();
+                }
+                long writeAt = position + received;
+                while (buffer.hasRemaining()) {
+                    writeAt += file.write(buffer, writeAt);
+                }
+                received = writeAt - position;
+            }
+            return received;
+        } finally {
+            release(buffer);
+        }
+    }
+
+    // Feeds count bytes of the file from position on to digest, for content written without one.
+    public void digest(FileChannel file, long position, long count, MessageDigest digest) throws IOException {
+        ByteBuffer buffer = acquire();
+        try {
+            long done = 0;
+            while (done < count) {
+                buffer.clear().limit((int) Math.min(buffer.capacity(), count - done));
+                int read = file.read(buffer, position + done);
+                if (read < 0) {
+                    throw new IOException("File ended at " + (position + done) + ", expected " + (position + count) + " bytes");
+                }
+                buffer.flip();
+                digest.update(buffer);
+                done += read;
+            }
+        } finally {
+            release(buffer);
+        }
+    }
+
+    private long copy(FileChannel file, long position, long count, WritableByteChannel out) throws IOException {
+        ByteBuffer buffer = acquire();
+        try {
+            long copied = 0;
+            while (copied < count) {
+                buffer.clear().limit((int) Math.min(buffer.capacity(), count - copied));
+                int read = file.read(buffer, position + copied);
+                if (read < 0) {
+                    break;
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                copied += read;
+            }
+            return copied;
+        } finally {
+            release(buffer);
+        }
+    }
+
+    private ByteBuffer acquire() {
+        ByteBuffer buffer = pool.poll();
+        if (buffer != null) {
+            pooled.decrementAndGet();
+            return buffer;
+        }
+        buffersAllocated.increment();
+        return ByteBuffer.allocateDirect(chunkBytes);
+    }
+
+    private void release(ByteBuffer buffer) {
+        if (pooled.incrementAndGet() <= maxPooledBuffers) {
+            pool.offer(buffer);
+        } else {
+            pooled.decrementAndGet();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "FileTransfers{zeroCopy=" + zeroCopy
+                + ", receiveMode=" + receiveMode
+                + ", chunkBytes=" + chunkBytes
+                + ", preallocate=" + preallocate
+                + ", filesSent=" + filesSent.sum()
+                + ", bytesTransferred=" + bytesTransferred.sum()
+                + ", bytesCopied=" + bytesCopied.sum()
+                + ", fallbacks=" + fallbacks.sum()
+                + ", filesReceived=" + filesReceived.sum()
+                + ", bytesReceived=" + bytesReceived.sum()
+                + ", buffersAllocated=" + buffersAllocated.sum()
+                + ", pooledBuffers=" + pooled.get()
+                + '}';
+    }
+}
@@ -0,0 +1,176 @@
+package orgs.utils;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Set of primitive ints: open addressing with linear probing in a single {@code int[]}, so a member costs
+ * 4-7 bytes instead of a boxed Integer plus a HashMap node. Not thread-safe.
+ */
+public class IntHashSet {
+    private static final int FREE = 0; // 0 itself is tracked by hasZero
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private int[] keys;
+    private int mask;
+    private int resizeAt;
+    private int size;
+    private boolean hasZero;
+
+    public IntHashSet() {
+        this(8);
+    }
+
+    public IntHashSet(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    // Copy constructor, used to modify a set that other threads may be reading.
+    public IntHashSet(IntHashSet other) {
+        this.keys = other.keys.clone();
+        this.mask = other.mask;
+        this.resizeAt = other.resizeAt;
+        this.size = other.size;
+        this.hasZero = other.hasZero;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean contains(int value) {
+        if (value == FREE) {
+            return hasZero;
+        }
+        for (int i = slot(value); keys[i] != FREE; i = (i + 1) & mask) {
+            if (keys[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean add(int value) {
+        if (value == FREE) {
+            if (hasZero) {
+                return false;
+            }
+            hasZero = true;
+            size++;
+            return true;
+        }
+        int i = slot(value);
+        while (keys[i] != FREE) {
+            if (keys[i] == value) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = value;
+        if (++size > resizeAt) {
+            rehash(keys.length * 2);
+        }
+        return true;
+    }
+
+    public boolean remove(int value) {
+        if (value == FREE) {
+            if (!hasZero) {
+                return false;
+            }
+            hasZero = false;
+            size--;
+            return true;
+        }
+        int i = slot(value);
+        while (keys[i] != value) {
+            if (keys[i] == FREE) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        // Backward-shift deletion: pull later members of the probe run into the hole so lookups never
+        // stop early at it.
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            int key = keys[j];
+            if (key == FREE) {
+                break;
+            }
+            int home = slot(key);
+            boolean movable = i <= j ? (home <= i || home > j) : (home <= i && home > j);
+            if (movable) {
+                keys[i] = key;
+                i = j;
+            }
+        }
+        keys[i] = FREE;
+        size--;
+        return true;
+    }
+
+    public void forEach(IntConsumer action) {
+        if (hasZero) {
+            action.accept(0);
+        }
+        for (int key : keys) {
+            if (key != FREE) {
+                action.accept(key);
+            }
+        }
+    }
+
+    public int[] toArray() {
+        int[] values = new int[size];
+        int n = 0;
+        if (hasZero) {
+            values[n++] = 0;
+        }
+        for (int key : keys) {
+            if (key != FREE) {
+                values[n++] = key;
+            }
+        }
+        return values;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(toArray());
+    }
+
+    private int slot(int value) {
+        int h = value * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private void rehash(int capacity) {
+        int[] old = keys;
+        allocate(capacity);
+        for (int key : old) {
+            if (key != FREE) {
+                int i = slot(key);
+                while (keys[i] != FREE) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = key;
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        mask = capacity - 1;
+        resizeAt = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static int capacityFor(int expectedSize) {
+        int needed = (int) Math.ceil(Math.max(expectedSize, 2) / LOAD_FACTOR) + 1;
+        return Integer.highestOneBit(needed - 1) << 1;
+    }
+}
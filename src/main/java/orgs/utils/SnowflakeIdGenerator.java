@@ -0,0 +1,72 @@
+// src/orgs/utils/SnowflakeIdGenerator.java
+package orgs.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 64-bit, time-ordered ids assigned by the server instead of AUTO_INCREMENT, so a row's id is known
+ * before it is written.
+ * <p>
+ * Layout, high to low: 41 bits of milliseconds since 2024-01-01 UTC (good for about 69 years), 10 bits
+ * of node id ({@code tuasl.node.id}, 0-1023; every server sharing a database needs its own) and a 12-bit
+ * sequence within the millisecond. Ids from one node are strictly increasing. If the clock steps back,
+ * the generator keeps counting from the last millisecond it used rather than waiting, and when 4096 ids
+ * are taken in one millisecond it moves on to the next; either way it catches up with the clock once
+ * the clock passes it.
+ * <p>
+ * The tables' id columns, and the columns referring to them, must be BIGINT:
+ * <pre>
+ *   ALTER TABLE messages MODIFY id BIGINT NOT NULL, MODIFY media_id BIGINT NULL, MODIFY replied_to_message_id BIGINT NULL;
+ *   ALTER TABLE media MODIFY id BIGINT NOT NULL;
+ *   ALTER TABLE notifications MODIFY id BIGINT NOT NULL;
+ *   ALTER TABLE chat_participants MODIFY last_read_message_id BIGINT NULL;
+ * </pre>
+ * Existing AUTO_INCREMENT values are far below the first generated id, so old and new rows keep their order.
+ */
+public final class SnowflakeIdGenerator {
+
+    public static final long EPOCH_MILLIS = 1_704_067_200_000L; // 2024-01-01T00:00:00Z
+    private static final int NODE_BITS = 10;
+    private static final int SEQUENCE_BITS = 12;
+    public static final int MAX_NODE_ID = (1 << NODE_BITS) - 1;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    private static final SnowflakeIdGenerator INSTANCE = new SnowflakeIdGenerator(Integer.getInteger("tuasl.node.id", 0));
+
+    private final long nodeBits;
+    // The last id handed out without its node bits: timestamp << 12 | sequence.
+    private final AtomicLong last = new AtomicLong();
+
+    public SnowflakeIdGenerator(int nodeId) {
+        if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+            throw new IllegalArgumentException("Node id must be between 0 and " + MAX_NODE_ID + ": " + nodeId);
+        }
+        this.nodeBits = (long) nodeId << SEQUENCE_BITS;
+    }
+
+    public static SnowflakeIdGenerator getInstance() {
+        return INSTANCE;
+    }
+
+    public long nextId() {
+        long now = (System.currentTimeMillis() - EPOCH_MILLIS) << SEQUENCE_BITS;
+        long previous;
+        long next;
+        do {
+            previous = last.get();
+            // A new millisecond starts at sequence 0; otherwise, including a clock that went back, count on.
+            next = now > previous ? now : previous + 1;
+        } while (!last.compareAndSet(previous, next));
+        long timestamp = next >>> SEQUENCE_BITS;
+        return (timestamp << (NODE_BITS + SEQUENCE_BITS)) | nodeBits | (next & SEQUENCE_MASK);
+    }
+
+    // When the id was generated, in epoch milliseconds.
+    public static long timestampOf(long id) {
+        return (id >>> (NODE_BITS + SEQUENCE_BITS)) + EPOCH_MILLIS;
+    }
+
+    public static int nodeOf(long id) {
+        return (int) ((id >>> SEQUENCE_BITS) & MAX_NODE_ID);
+    }
+}
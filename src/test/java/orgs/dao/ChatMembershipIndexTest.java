@@ -0,0 +1,53 @@
+package orgs.dao;
+
+import orgs.utils.DatabaseConnection;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs against the in-memory H2 database configured for the tests in pom.xml.
+ */
+class ChatMembershipIndexTest {
+
+    @BeforeAll
+    static void createSchema() throws SQLException {
+        try (Connection conn = DatabaseConnection.getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS chat_participants (chat_id INT NOT NULL, user_id INT NOT NULL, " +
+                    "role VARCHAR(20) DEFAULT 'member')");
+            stmt.execute("DELETE FROM chat_participants WHERE chat_id IN (900001, 900002)");
+            stmt.execute("INSERT INTO chat_participants (chat_id, user_id) VALUES (900001, 1), (900001, 2), (900002, 3)");
+        }
+    }
+
+    @Test
+    void unknownChatsDoNotGrowTheIndexPastItsLimit() throws SQLException {
+        ChatMembershipIndex index = new ChatMembershipIndex(100);
+        for (int chatId = 1_000_000; chatId < 1_010_000; chatId++) {
+            assertFalse(index.isMember(chatId, 1));
+        }
+        assertEquals(100, index.cachedChats());
+    }
+
+    @Test
+    void membersAreCountedAgainstTheLimit() throws SQLException {
+        ChatMembershipIndex index = new ChatMembershipIndex(3);
+        assertTrue(index.isMember(900001, 2));
+        assertTrue(index.isMember(900002, 3));
+        assertEquals(2, index.cachedChats());
+
+        // A third chat, empty, pushes out the least recently used one.
+        assertFalse(index.isMember(2_000_000, 1));
+        assertEquals(2, index.cachedChats());
+        assertTrue(index.toString().contains("evictions=1"), index.toString());
+    }
+}
@@ -0,0 +1,176 @@
+package orgs.dao;
+
+import orgs.model.Message;
+import orgs.utils.ConnectionPool;
+import orgs.utils.DatabaseConnection;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Counts the statements a page of messages costs. The pool points at an in-memory H2 database in
+ * MySQL mode (see the surefire configuration in pom.xml); each test uses its own chat so the
+ * recent-message cache of one does not serve another.
+ */
+class MessageDaoQueryCountTest {
+
+    private static final int MESSAGES_PER_CHAT = 80;
+
+    private final MessageDao messageDao = new MessageDao();
+    private final ConnectionPool pool = DatabaseConnection.getPool();
+
+    @BeforeAll
+    static void createSchema() throws SQLException {
+        try (Connection conn = DatabaseConnection.getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS media (id BIGINT AUTO_INCREMENT PRIMARY KEY, " +
+                    "file_path_or_url VARCHAR(255), thumbnail_url VARCHAR(255), file_size BIGINT, " +
+                    "media_type VARCHAR(20), uploaded_by_user_id INT, uploaded_at TIMESTAMP, content_hash CHAR(64))");
+            stmt.execute("CREATE TABLE IF NOT EXISTS messages (id BIGINT AUTO_INCREMENT PRIMARY KEY, " +
+                    "chat_id INT NOT NULL, sender_id INT NOT NULL, content TEXT, message_type VARCHAR(20), " +
+                    "sent_at TIMESTAMP NOT NULL, media_id BIGINT, replied_to_message_id BIGINT, " +
+                    "forwarded_from_user_id INT, forwarded_from_chat_id INT, edited_at TIMESTAMP, " +
+                    "is_deleted BOOLEAN DEFAULT FALSE, view_count INT DEFAULT 0)");
+        }
+    }
+
+    @Test
+    void offsetPageIsOneQueryWithMedia() throws SQLException {
+        int chatId = seedChat(1);
+
+        long before = pool.getStatementCount();
+        List<Message> page = messageDao.getChatMessages(chatId, 50, 10);
+        assertEquals(1, pool.getStatementCount() - before, "statements for one page");
+
+        assertEquals(50, page.size());
+        for (Message message : page) {
+            if (message.getMediaId() != null) {
+                assertNotNull(message.getMedia(), "media of message " + message.getId());
+                assertEquals("uploads/" + message.getContent(), message.getMedia().getFilePathOrUrl());
+            } else {
+                assertNull(message.getMedia());
+            }
+        }
+    }
+
+    @Test
+    void newestPageIsOneQueryThenServedFromCache() throws SQLException {
+        int chatId = seedChat(2);
+
+        long before = pool.getStatementCount();
+        List<Message> first = messageDao.getChatMessages(chatId, 50, 0);
+        assertEquals(1, pool.getStatementCount() - before, "statements for a cache miss");
+        assertEquals(50, first.size());
+
+        before = pool.getStatementCount();
+        List<Message> second = messageDao.getChatMessages(chatId, 50, 0);
+        assertEquals(0, pool.getStatementCount() - before, "statements for a cache hit");
+        assertEquals(first.get(0).getId(), second.get(0).getId());
+    }
+
+    @Test
+    void viewsOfAPageAreOneUpdate() throws SQLException {
+        int chatId = seedChat(3);
+        List<Message> page = messageDao.getChatMessages(chatId, 50, 10);
+
+        long before = pool.getStatementCount();
+        // Every seeded message is from user 1.
+        messageDao.recordViews(page, 2);
+        assertEquals(0, pool.getStatementCount() - before, "views are buffered");
+        ViewCountAggregator.getInstance().flush();
+        assertEquals(1, pool.getStatementCount() - before, "statements for the flush");
+
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(
+                     "SELECT COUNT(*) FROM messages WHERE chat_id = ? AND view_count = 1")) {
+            stmt.setInt(1, chatId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                assertEquals(page.size(), rs.getInt(1));
+            }
+        }
+    }
+
+    @Test
+    void offsetPagesContinueTheCachedFirstPage() throws SQLException {
+        int chatId = seedChat(4);
+        // Send times running against id order, as when a send that set its time first got its id later.
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(
+                     "UPDATE messages SET sent_at = DATEADD('SECOND', (SELECT MIN(id) FROM messages WHERE chat_id = ?) - id, " +
+                             "TIMESTAMP '2025-01-01 00:00:00') WHERE chat_id = ?")) {
+            stmt.setInt(1, chatId);
+            stmt.setInt(2, chatId);
+            stmt.executeUpdate();
+        }
+
+        List<Message> first = messageDao.getChatMessages(chatId, 50, 0);
+        List<Message> second = messageDao.getChatMessages(chatId, 50, 50);
+        assertEquals(50, first.size());
+        assertEquals(MESSAGES_PER_CHAT - 50, second.size());
+        Set<Long> ids = new HashSet<>();
+        long previous = Long.MAX_VALUE;
+        for (Message message : first) {
+            assertTrue(message.getId() < previous, "newest first");
+            previous = message.getId();
+            ids.add(message.getId());
+        }
+        for (Message message : second) {
+            assertTrue(message.getId() < previous, "the second page starts where the first ended");
+            previous = message.getId();
+            ids.add(message.getId());
+        }
+        assertEquals(MESSAGES_PER_CHAT, ids.size());
+    }
+
+    // Every third message carries a media row whose path is derived from the message content.
+    private static int seedChat(int chatId) throws SQLException {
+        LocalDateTime sentAt = LocalDateTime.of(2024, 1, 1, 0, 0);
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement media = conn.prepareStatement(
+                     "INSERT INTO media (file_path_or_url, file_size, media_type, uploaded_by_user_id, uploaded_at) " +
+                             "VALUES (?, 1024, 'image', 1, ?)", Statement.RETURN_GENERATED_KEYS);
+             PreparedStatement message = conn.prepareStatement(
+                     "INSERT INTO messages (chat_id, sender_id, content, message_type, sent_at, media_id) " +
+                             "VALUES (?, 1, ?, ?, ?, ?)")) {
+            for (int i = 0; i < MESSAGES_PER_CHAT; i++) {
+                String content = "chat" + chatId + "-" + i;
+                Timestamp at = Timestamp.valueOf(sentAt.plusSeconds(i));
+                message.setInt(1, chatId);
+                message.setString(2, content);
+                message.setTimestamp(4, at);
+                if (i % 3 == 0) {
+                    media.setString(1, "uploads/" + content);
+                    media.setTimestamp(2, at);
+                    media.executeUpdate();
+                    try (ResultSet keys = media.getGeneratedKeys()) {
+                        keys.next();
+                        message.setString(3, "image");
+                        message.setLong(5, keys.getLong(1));
+                    }
+                } else {
+                    message.setString(3, "text");
+                    message.setNull(5, java.sql.Types.BIGINT);
+                }
+                message.executeUpdate();
+            }
+        }
+        return chatId;
+    }
+}
@@ -0,0 +1,140 @@
+package orgs.dao;
+
+import orgs.model.Message;
+import orgs.utils.DatabaseConnection;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Restarts of the journal against the in-memory H2 database configured for the tests in pom.xml. A
+ * journal whose applier is never started stands in for a process that crashed after acknowledging
+ * its appends; it is simply abandoned.
+ */
+class MessageJournalTest {
+
+    // Small enough that a few dozen records span several segments.
+    private static final int SEGMENT_BYTES = 512;
+    private static final int APPLY_BATCH = 4;
+
+    @TempDir
+    Path dir;
+
+    @BeforeAll
+    static void createSchema() throws SQLException {
+        try (Connection conn = DatabaseConnection.getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS messages (id BIGINT AUTO_INCREMENT PRIMARY KEY, " +
+                    "chat_id INT NOT NULL, sender_id INT NOT NULL, content TEXT, message_type VARCHAR(20), " +
+                    "sent_at TIMESTAMP NOT NULL, media_id BIGINT, replied_to_message_id BIGINT, " +
+                    "forwarded_from_user_id INT, forwarded_from_chat_id INT, edited_at TIMESTAMP, " +
+                    "is_deleted BOOLEAN DEFAULT FALSE, view_count INT DEFAULT 0)");
+        }
+    }
+
+    @Test
+    void restartResumesFromTheCheckpointAcrossSegments() throws Exception {
+        int chatId = 920001;
+        MessageJournal first = new MessageJournal(dir, SEGMENT_BYTES, APPLY_BATCH);
+        first.startApplier();
+        appendMessages(first, chatId, 12);
+        assertTrue(first.awaitApplied(10_000));
+        first.close();
+        assertEquals(12, countMessages(chatId));
+
+        MessageJournal crashed = new MessageJournal(dir, SEGMENT_BYTES, APPLY_BATCH);
+        appendMessages(crashed, chatId, 20);
+        assertTrue(MessageJournal.listSegments(dir).size() > 1, "the appends should roll over segments");
+
+        MessageJournal restarted = new MessageJournal(dir, SEGMENT_BYTES, APPLY_BATCH);
+        assertEquals(20, restarted.getRecovered());
+        restarted.startApplier();
+        assertTrue(restarted.awaitApplied(10_000));
+        restarted.close();
+        assertEquals(32, countMessages(chatId));
+    }
+
+    @Test
+    void recordsAfterAStaleCheckpointAreNotSkipped() throws Exception {
+        int chatId = 920002;
+        // Left behind by a crash after the applied segments were deleted, or by an operator removing them.
+        MessageJournal.writeCheckpoint(dir, 5, 100);
+
+        MessageJournal crashed = new MessageJournal(dir, SEGMENT_BYTES, APPLY_BATCH);
+        appendMessages(crashed, chatId, 3);
+
+        MessageJournal restarted = new MessageJournal(dir, SEGMENT_BYTES, APPLY_BATCH);
+        assertEquals(3, restarted.getRecovered());
+        restarted.startApplier();
+        assertTrue(restarted.awaitApplied(10_000));
+        restarted.close();
+        assertEquals(3, countMessages(chatId));
+    }
+
+    @Test
+    void recordsStoredTwiceAreKeptOnce() throws Exception {
+        int chatId = 920003;
+        MessageJournal crashed = new MessageJournal(dir, SEGMENT_BYTES, APPLY_BATCH);
+        appendMessages(crashed, chatId, 6);
+        byte[] checkpointBefore = Files.exists(dir.resolve(MessageJournal.CHECKPOINT))
+                ? Files.readAllBytes(dir.resolve(MessageJournal.CHECKPOINT)) : null;
+
+        // Stored, but the process dies before the checkpoint moves: the next start stores them again.
+        MessageJournal applied = new MessageJournal(dir, SEGMENT_BYTES, APPLY_BATCH);
+        applied.startApplier();
+        assertTrue(applied.awaitApplied(10_000));
+        applied.close();
+        restoreCheckpoint(checkpointBefore);
+
+        MessageJournal restarted = new MessageJournal(dir, SEGMENT_BYTES, APPLY_BATCH);
+        assertEquals(6, restarted.getRecovered());
+        restarted.startApplier();
+        assertTrue(restarted.awaitApplied(10_000));
+        restarted.close();
+        assertEquals(6, countMessages(chatId));
+    }
+
+    private void restoreCheckpoint(byte[] checkpoint) throws IOException {
+        Path path = dir.resolve(MessageJournal.CHECKPOINT);
+        if (checkpoint == null) {
+            Files.deleteIfExists(path);
+        } else {
+            Files.write(path, checkpoint);
+        }
+    }
+
+    private static void appendMessages(MessageJournal journal, int chatId, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            Message message = new Message();
+            message.setChatId(chatId);
+            message.setSenderId(1);
+            message.setContent("journaled " + i);
+            message.setMessageType("text");
+            journal.append(message);
+        }
+    }
+
+    private static int countMessages(int chatId) throws SQLException {
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement stmt = conn.prepareStatement("SELECT COUNT(*) FROM messages WHERE chat_id = ?")) {
+            stmt.setInt(1, chatId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                return rs.getInt(1);
+            }
+        }
+    }
+}
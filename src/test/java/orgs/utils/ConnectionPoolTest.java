@@ -0,0 +1,87 @@
+package orgs.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The statement cache against an in-memory H2 database, with a one-connection pool so every lease
+ * gets the same physical connection and its cached statements.
+ */
+class ConnectionPoolTest {
+
+    private static final String SQL = "SELECT ? + 1";
+
+    private ConnectionPool pool;
+
+    @BeforeEach
+    void openPool() {
+        pool = new ConnectionPool("jdbc:h2:mem:connection_pool_test;DB_CLOSE_DELAY=-1", "sa", "",
+                1, 0, 1_000, 60_000, 60_000, 8);
+    }
+
+    @AfterEach
+    void closePool() {
+        pool.close();
+    }
+
+    @Test
+    void closedCheckoutCannotUseTheStatementItsSuccessorHolds() throws SQLException {
+        try (Connection conn = pool.getConnection()) {
+            PreparedStatement first = conn.prepareStatement(SQL);
+            first.setInt(1, 1);
+            assertEquals(2, queryInt(first));
+            first.close();
+            assertTrue(first.isClosed());
+
+            PreparedStatement second = conn.prepareStatement(SQL);
+            assertEquals(0.5, pool.getStatementCacheHitRatio(), 0.0, "the second checkout reuses the statement");
+            second.setInt(1, 10);
+
+            assertThrows(SQLException.class, first::executeQuery);
+            assertThrows(SQLException.class, () -> first.setInt(1, 100));
+            // A second close of the stale handle must not hand back its successor's statement.
+            first.close();
+            assertFalse(second.isClosed());
+            assertEquals(11, queryInt(second));
+            second.close();
+        }
+    }
+
+    @Test
+    void statementsLeftOpenAreClosedWithTheLease() throws SQLException {
+        PreparedStatement leaked;
+        ResultSet leakedResults;
+        try (Connection conn = pool.getConnection()) {
+            leaked = conn.prepareStatement(SQL);
+            leaked.setInt(1, 1);
+            leakedResults = leaked.executeQuery();
+        }
+        assertTrue(leaked.isClosed());
+        assertTrue(leakedResults.isClosed());
+        assertThrows(SQLException.class, leaked::executeQuery);
+
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(SQL)) {
+            stmt.setInt(1, 41);
+            assertEquals(42, queryInt(stmt));
+        }
+    }
+
+    private static int queryInt(PreparedStatement stmt) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery()) {
+            assertTrue(rs.next());
+            return rs.getInt(1);
+        }
+    }
+}